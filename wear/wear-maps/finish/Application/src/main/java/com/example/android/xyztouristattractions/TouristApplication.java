@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions;
+
+import android.app.Application;
+
+import com.example.android.xyztouristattractions.common.ImageStore;
+import com.example.android.xyztouristattractions.common.StartupTrace;
+import com.example.android.xyztouristattractions.provider.TouristAttractions;
+
+/**
+ * Starts the {@link StartupTrace} and gives the catalog a context to load
+ * from before any activity, service or receiver runs. Also starts opening
+ * the image store in the background so its index is usually loaded by the
+ * time the first list item is bound.
+ */
+public class TouristApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        StartupTrace.start();
+        super.onCreate();
+        TouristAttractions.init(this);
+        ImageStore.getInstance(this);
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.provider;
+
+import com.example.android.xyztouristattractions.common.Attraction;
+import com.example.android.xyztouristattractions.common.LocationIndex;
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable snapshot of the cities and their attractions. A catalog is
+ * never modified once built, so it can be read from any thread without
+ * locking; reloading the data publishes a new catalog with a higher version
+ * (see {@link TouristAttractions#getCatalog()}).
+ *
+ * Orderings by distance are derived from the catalog as new lists rather
+ * than by sorting the catalog's lists in place.
+ */
+public class AttractionCatalog {
+
+    /**
+     * Where a catalog reads its data from. Attractions are numbered from 0 and
+     * the attractions of each city are numbered consecutively, so they can
+     * be stored in flat columns (see {@link BinaryCatalog}).
+     */
+    interface Source {
+        int getCityCount();
+        String getCityName(int city);
+        LatLng getCityLocation(int city);
+        int getFirstAttraction(int city);
+        int getCityAttractionCount(int city);
+
+        int getAttractionCount();
+        String getAttractionName(int id);
+        LatLng getAttractionLocation(int id);
+
+        /**
+         * Returns the attraction numbered id, always the same instance for the
+         * same id, with its {@link Attraction#id} set.
+         */
+        Attraction getAttraction(int id);
+    }
+
+    private final int mVersion;
+    private final Source mSource;
+    private final Map<String, Integer> mCityIds;
+    private final Map<String, LatLng> mCityLocations;
+    private final LocationIndex<String> mCityIndex;
+
+    // Built on first use, so cities that are never visited cost nothing
+    private final ConcurrentHashMap<Integer, LocationIndex<Integer>> mAttractionIndexes =
+            new ConcurrentHashMap<>();
+
+    // Attraction ids by name, built on first lookup by name
+    private volatile Map<String, Integer> mAttractionIdsByName;
+
+    AttractionCatalog(int version, Map<String, LatLng> cityLocations,
+                      Map<String, List<Attraction>> attractions) {
+        this(version, new MapSource(cityLocations, attractions));
+    }
+
+    AttractionCatalog(int version, Source source) {
+        mVersion = version;
+        mSource = source;
+
+        Map<String, Integer> cityIds = new HashMap<>();
+        Map<String, LatLng> cityLocations = new HashMap<>();
+        for (int city = 0; city < source.getCityCount(); city++) {
+            cityIds.put(source.getCityName(city), city);
+            cityLocations.put(source.getCityName(city), source.getCityLocation(city));
+        }
+        mCityIds = cityIds;
+        mCityLocations = Collections.unmodifiableMap(cityLocations);
+        mCityIndex = new LocationIndex<>(mCityLocations);
+    }
+
+    /**
+     * Returns the version of the data, which increases each time it is reloaded.
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public Set<String> getCities() {
+        return mCityLocations.keySet();
+    }
+
+    public LatLng getCityLocation(String city) {
+        return mCityLocations.get(city);
+    }
+
+    /**
+     * Returns the attractions of a city in their default order, or null if
+     * the city is unknown. The list can't be modified.
+     */
+    public List<Attraction> getAttractions(String city) {
+        Integer cityId = mCityIds.get(city);
+        if (cityId == null) {
+            return null;
+        }
+        final int first = mSource.getFirstAttraction(cityId);
+        final int size = mSource.getCityAttractionCount(cityId);
+        return new AbstractList<Attraction>() {
+            @Override
+            public Attraction get(int location) {
+                if (location < 0 || location >= size) {
+                    throw new IndexOutOfBoundsException();
+                }
+                return mSource.getAttraction(first + location);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Returns the number of attractions across all cities.
+     */
+    public int getAttractionCount() {
+        return mSource.getAttractionCount();
+    }
+
+    /**
+     * Returns the attraction numbered id, or null if there is none. See
+     * {@link #getAttractionId(Attraction)}.
+     */
+    public Attraction getAttraction(int id) {
+        if (id < 0 || id >= mSource.getAttractionCount()) {
+            return null;
+        }
+        return mSource.getAttraction(id);
+    }
+
+    /**
+     * Returns the location of the attraction numbered id, without creating
+     * the attraction itself.
+     */
+    public LatLng getAttractionLocation(int id) {
+        return mSource.getAttractionLocation(id);
+    }
+
+    /**
+     * Returns a number from 0 to {@link #getAttractionCount()} - 1 identifying
+     * the attraction, or -1 if it isn't in this catalog. Ids follow the order
+     * of the data, so they can be passed between components (and processes)
+     * instead of the attraction. The attraction's own {@link Attraction#id}
+     * is used when its name matches, otherwise it is looked up by name.
+     *
+     * @param attraction an attraction from this or an earlier version of the
+     *                   catalog, or null
+     */
+    public int getAttractionId(Attraction attraction) {
+        if (attraction == null) {
+            return -1;
+        }
+        int id = attraction.id;
+        if (id >= 0 && id < mSource.getAttractionCount()
+                && mSource.getAttractionName(id).equals(attraction.name)) {
+            return id;
+        }
+        // An attraction from a catalog numbered differently, look it up by name
+        Integer nameId = getAttractionIdsByName().get(attraction.name);
+        return nameId == null ? -1 : nameId;
+    }
+
+    /**
+     * Returns the attraction with the given name, or null if there is none.
+     */
+    public Attraction findAttraction(String attractionName) {
+        Integer id = getAttractionIdsByName().get(attractionName);
+        return id == null ? null : mSource.getAttraction(id);
+    }
+
+    /**
+     * Returns the closest city to a location, or null if the location is null.
+     */
+    public String getClosestCity(LatLng curLatLng) {
+        return mCityIndex.nearest(curLatLng);
+    }
+
+    /**
+     * Returns the cities ordered by distance from a location.
+     *
+     * @param curLatLng the location to order by, if null the cities are returned unordered
+     * @param count the maximum number of cities to return
+     */
+    public List<String> getNearestCities(LatLng curLatLng, int count) {
+        if (curLatLng == null) {
+            List<String> cities = new ArrayList<>(mCityLocations.keySet());
+            return cities.subList(0, Math.min(count, cities.size()));
+        }
+        return mCityIndex.nearest(curLatLng, count);
+    }
+
+    /**
+     * Returns the attractions of a city ordered by distance from a location,
+     * as a new list.
+     *
+     * @param city the city to fetch attractions for
+     * @param curLatLng the location to order by, if null the default order is returned
+     * @param count the maximum number of attractions to return
+     */
+    public List<Attraction> getNearestAttractions(String city, LatLng curLatLng, int count) {
+        List<Attraction> attractions = getAttractions(city);
+        if (attractions == null) {
+            return null;
+        }
+        if (curLatLng == null) {
+            return new ArrayList<>(attractions.subList(0, Math.min(count, attractions.size())));
+        }
+
+        List<Integer> ids = getAttractionIndex(mCityIds.get(city)).nearest(curLatLng, count);
+        List<Attraction> nearest = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            nearest.add(mSource.getAttraction(id));
+        }
+        return nearest;
+    }
+
+    private LocationIndex<Integer> getAttractionIndex(int city) {
+        LocationIndex<Integer> index = mAttractionIndexes.get(city);
+        if (index == null) {
+            Map<Integer, LatLng> locations = new HashMap<>();
+            int first = mSource.getFirstAttraction(city);
+            for (int id = first; id < first + mSource.getCityAttractionCount(city); id++) {
+                locations.put(id, mSource.getAttractionLocation(id));
+            }
+            // If another thread got here first use its index, so every caller
+            // shares one
+            index = new LocationIndex<>(locations);
+            LocationIndex<Integer> existing = mAttractionIndexes.putIfAbsent(city, index);
+            if (existing != null) {
+                index = existing;
+            }
+        }
+        return index;
+    }
+
+    private Map<String, Integer> getAttractionIdsByName() {
+        Map<String, Integer> ids = mAttractionIdsByName;
+        if (ids == null) {
+            // Racing threads build equal maps, so whichever is published last is fine
+            ids = new HashMap<>(mSource.getAttractionCount() * 2);
+            for (int id = mSource.getAttractionCount() - 1; id >= 0; id--) {
+                // Counting down so the first attraction with a name wins
+                ids.put(mSource.getAttractionName(id), id);
+            }
+            mAttractionIdsByName = ids;
+        }
+        return ids;
+    }
+
+    /**
+     * A source backed by attraction objects already in memory. Cities are
+     * numbered in order of name, so the ids don't depend on map ordering.
+     * The attractions are copied with their ids set, so the caller's objects
+     * (which may belong to another catalog) are left as they were.
+     */
+    static class MapSource implements Source {
+        private final List<String> mCityNames;
+        private final List<LatLng> mCityLocations = new ArrayList<>();
+        private final List<Integer> mFirstAttractions = new ArrayList<>();
+        private final List<Attraction> mAttractions = new ArrayList<>();
+
+        MapSource(Map<String, LatLng> cityLocations, Map<String, List<Attraction>> attractions) {
+            mCityNames = new ArrayList<>(cityLocations.keySet());
+            Collections.sort(mCityNames);
+            for (String city : mCityNames) {
+                mCityLocations.add(cityLocations.get(city));
+                mFirstAttractions.add(mAttractions.size());
+                List<Attraction> cityAttractions = attractions.get(city);
+                if (cityAttractions != null) {
+                    for (Attraction attraction : cityAttractions) {
+                        Attraction copy = new Attraction(attraction.name,
+                                attraction.description, attraction.longDescription,
+                                attraction.imageUrl, attraction.secondaryImageUrl,
+                                attraction.location, attraction.city);
+                        copy.id = mAttractions.size();
+                        mAttractions.add(copy);
+                    }
+                }
+            }
+            mFirstAttractions.add(mAttractions.size());
+        }
+
+        @Override
+        public int getCityCount() {
+            return mCityNames.size();
+        }
+
+        @Override
+        public String getCityName(int city) {
+            return mCityNames.get(city);
+        }
+
+        @Override
+        public LatLng getCityLocation(int city) {
+            return mCityLocations.get(city);
+        }
+
+        @Override
+        public int getFirstAttraction(int city) {
+            return mFirstAttractions.get(city);
+        }
+
+        @Override
+        public int getCityAttractionCount(int city) {
+            return mFirstAttractions.get(city + 1) - mFirstAttractions.get(city);
+        }
+
+        @Override
+        public int getAttractionCount() {
+            return mAttractions.size();
+        }
+
+        @Override
+        public String getAttractionName(int id) {
+            return mAttractions.get(id).name;
+        }
+
+        @Override
+        public LatLng getAttractionLocation(int id) {
+            return mAttractions.get(id).location;
+        }
+
+        @Override
+        public Attraction getAttraction(int id) {
+            return mAttractions.get(id);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.provider;
+
+import com.example.android.xyztouristattractions.common.Attraction;
+import com.example.android.xyztouristattractions.common.Utils;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.SphericalUtil;
+
+/**
+ * The distances from one location to every attraction, computed once per
+ * location fix and indexed by {@link AttractionCatalog#getAttractionId(Attraction)}.
+ * List binding, notifications and the wearable sync all read the distances
+ * (and their formatted text) from here instead of recomputing them.
+ */
+public class AttractionDistances {
+
+    // Returned while the location is unknown, it doesn't need a table
+    private static final AttractionDistances UNKNOWN = new AttractionDistances(null, null);
+
+    // The table for the most recent location and catalog, shared by every caller
+    private static volatile AttractionDistances sLatest;
+
+    private final AttractionCatalog mCatalog;
+    private final LatLng mLocation;
+    private final double[] mDistances;
+    private final String[] mFormattedDistances;
+
+    private AttractionDistances(AttractionCatalog catalog, LatLng location) {
+        mCatalog = catalog;
+        mLocation = location;
+        int count = location == null ? 0 : catalog.getAttractionCount();
+        mDistances = new double[count];
+        mFormattedDistances = new String[count];
+        for (int i = 0; i < count; i++) {
+            mDistances[i] = SphericalUtil.computeDistanceBetween(
+                    location, catalog.getAttractionLocation(i));
+        }
+    }
+
+    /**
+     * Returns the distances from a location to the attractions of the
+     * current catalog, reusing the last table if neither has changed.
+     * Working out a new table takes a while for a large catalog, so use
+     * {@link #peek(LatLng)} on the main thread.
+     *
+     * @param location the location, if null no distances are known
+     */
+    public static AttractionDistances get(LatLng location) {
+        AttractionDistances latest = peek(location);
+        if (latest == null) {
+            latest = new AttractionDistances(TouristAttractions.getCatalog(), location);
+            sLatest = latest;
+        }
+        return latest;
+    }
+
+    /**
+     * Returns the distances from a location if they have already been
+     * worked out for the current catalog, or null if not.
+     *
+     * @param location the location, if null no distances are known
+     */
+    public static AttractionDistances peek(LatLng location) {
+        if (location == null) {
+            return UNKNOWN;
+        }
+        AttractionDistances latest = sLatest;
+        if (latest == null || latest.mCatalog != TouristAttractions.getCatalog()
+                || !location.equals(latest.mLocation)) {
+            return null;
+        }
+        return latest;
+    }
+
+    public LatLng getLocation() {
+        return mLocation;
+    }
+
+    /**
+     * Returns the distance to an attraction in meters, or NaN if unknown.
+     */
+    public double getDistance(Attraction attraction) {
+        if (mLocation == null) {
+            return Double.NaN;
+        }
+        int id = mCatalog.getAttractionId(attraction);
+        return id < 0 ? Double.NaN : mDistances[id];
+    }
+
+    /**
+     * Returns the distance to an attraction formatted for display, or null if unknown.
+     */
+    public String formatDistance(Attraction attraction) {
+        if (mLocation == null) {
+            return null;
+        }
+        int id = mCatalog.getAttractionId(attraction);
+        if (id < 0) {
+            return Utils.formatDistanceBetween(mLocation, attraction.location);
+        }
+
+        // Strings are immutable, so racing threads at worst format twice
+        String formatted = mFormattedDistances[id];
+        if (formatted == null) {
+            formatted = Utils.formatDistance(mDistances[id]);
+            mFormattedDistances[id] = formatted;
+        }
+        return formatted;
+    }
+}
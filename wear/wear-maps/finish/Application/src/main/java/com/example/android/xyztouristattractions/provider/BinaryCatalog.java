@@ -0,0 +1,210 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.provider;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.net.Uri;
+
+import com.example.android.xyztouristattractions.common.Attraction;
+import com.google.android.gms.maps.model.LatLng;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A catalog stored in a compact binary file that is memory-mapped rather
+ * than read onto the heap. Attractions are only created when they are
+ * first accessed. The file is generated from catalog/attractions.json at
+ * build time by the generateCatalog task in catalog.gradle.
+ *
+ * The file holds, in order:
+ * <ul>
+ *     <li>a header: magic, format version, string, city and attraction counts</li>
+ *     <li>a string table: the end offset of each string, then the UTF-8 bytes
+ *     of all strings. Each distinct string is stored once.</li>
+ *     <li>one record per city: name, lat, lng, first attraction, attraction count</li>
+ *     <li>the attraction columns: every lat, every lng, then the string index
+ *     of every name, description, long description, image and secondary image</li>
+ * </ul>
+ */
+public class BinaryCatalog implements AttractionCatalog.Source {
+
+    private static final int MAGIC = 0x58595a43; // "XYZC"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 5 * 4;
+    private static final int CITY_RECORD_SIZE = 4 + 8 + 8 + 4 + 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mBuffer;
+    private final int mCityCount;
+    private final int mAttractionCount;
+    private final int mStringOffsetsPos;
+    private final int mStringDataPos;
+    private final int mCitiesPos;
+    private final int mLatPos;
+    private final int mLngPos;
+    private final int mNamePos;
+    private final int mDescriptionPos;
+    private final int mLongDescriptionPos;
+    private final int mImageUrlPos;
+    private final int mSecondaryImageUrlPos;
+
+    // Decoded on first use; racing threads at worst decode a string twice
+    private final String[] mStrings;
+    private final AtomicReferenceArray<Attraction> mAttractions;
+
+    private BinaryCatalog(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Not a catalog file or unsupported format version");
+        }
+        int stringCount = buffer.getInt(8);
+        mCityCount = buffer.getInt(12);
+        mAttractionCount = buffer.getInt(16);
+
+        mStringOffsetsPos = HEADER_SIZE;
+        mStringDataPos = mStringOffsetsPos + stringCount * 4;
+        int stringDataSize = stringCount == 0 ? 0 : buffer.getInt(mStringDataPos - 4);
+        mCitiesPos = mStringDataPos + stringDataSize;
+        mLatPos = mCitiesPos + mCityCount * CITY_RECORD_SIZE;
+        mLngPos = mLatPos + mAttractionCount * 8;
+        mNamePos = mLngPos + mAttractionCount * 8;
+        mDescriptionPos = mNamePos + mAttractionCount * 4;
+        mLongDescriptionPos = mDescriptionPos + mAttractionCount * 4;
+        mImageUrlPos = mLongDescriptionPos + mAttractionCount * 4;
+        mSecondaryImageUrlPos = mImageUrlPos + mAttractionCount * 4;
+        if (mSecondaryImageUrlPos + mAttractionCount * 4 > buffer.limit()) {
+            throw new IOException("Truncated catalog file");
+        }
+
+        mStrings = new String[stringCount];
+        mAttractions = new AtomicReferenceArray<>(mAttractionCount);
+    }
+
+    /**
+     * Memory-map a catalog asset, which must be stored uncompressed in the apk.
+     */
+    public static BinaryCatalog open(AssetManager assets, String name) throws IOException {
+        AssetFileDescriptor descriptor = assets.openFd(name);
+        try {
+            FileChannel channel = descriptor.createInputStream().getChannel();
+            // The mapping stays valid after the file is closed
+            return new BinaryCatalog(channel.map(FileChannel.MapMode.READ_ONLY,
+                    descriptor.getStartOffset(), descriptor.getLength()));
+        } finally {
+            descriptor.close();
+        }
+    }
+
+    @Override
+    public int getCityCount() {
+        return mCityCount;
+    }
+
+    @Override
+    public String getCityName(int city) {
+        return getString(mBuffer.getInt(mCitiesPos + city * CITY_RECORD_SIZE));
+    }
+
+    @Override
+    public LatLng getCityLocation(int city) {
+        int pos = mCitiesPos + city * CITY_RECORD_SIZE + 4;
+        return new LatLng(mBuffer.getDouble(pos), mBuffer.getDouble(pos + 8));
+    }
+
+    @Override
+    public int getFirstAttraction(int city) {
+        return mBuffer.getInt(mCitiesPos + city * CITY_RECORD_SIZE + 20);
+    }
+
+    @Override
+    public int getCityAttractionCount(int city) {
+        return mBuffer.getInt(mCitiesPos + city * CITY_RECORD_SIZE + 24);
+    }
+
+    @Override
+    public int getAttractionCount() {
+        return mAttractionCount;
+    }
+
+    @Override
+    public String getAttractionName(int id) {
+        return getString(mBuffer.getInt(mNamePos + id * 4));
+    }
+
+    @Override
+    public LatLng getAttractionLocation(int id) {
+        return new LatLng(mBuffer.getDouble(mLatPos + id * 8), mBuffer.getDouble(mLngPos + id * 8));
+    }
+
+    @Override
+    public Attraction getAttraction(int id) {
+        Attraction attraction = mAttractions.get(id);
+        if (attraction == null) {
+            Attraction created = new Attraction(
+                    getAttractionName(id),
+                    getString(mBuffer.getInt(mDescriptionPos + id * 4)),
+                    getString(mBuffer.getInt(mLongDescriptionPos + id * 4)),
+                    Uri.parse(getString(mBuffer.getInt(mImageUrlPos + id * 4))),
+                    Uri.parse(getString(mBuffer.getInt(mSecondaryImageUrlPos + id * 4))),
+                    getAttractionLocation(id),
+                    getCityName(getCity(id)));
+            created.id = id;
+            // Only one instance per id is ever handed out
+            mAttractions.compareAndSet(id, null, created);
+            attraction = mAttractions.get(id);
+        }
+        return attraction;
+    }
+
+    /**
+     * The city an attraction belongs to, found with a binary search of the
+     * cities' first attractions.
+     */
+    private int getCity(int id) {
+        int low = 0;
+        int high = mCityCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (getFirstAttraction(mid) <= id) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private String getString(int index) {
+        String string = mStrings[index];
+        if (string == null) {
+            int start = index == 0 ? 0 : mBuffer.getInt(mStringOffsetsPos + (index - 1) * 4);
+            int end = mBuffer.getInt(mStringOffsetsPos + index * 4);
+            byte[] bytes = new byte[end - start];
+            ByteBuffer buffer = mBuffer.duplicate();
+            buffer.position(mStringDataPos + start);
+            buffer.get(bytes);
+            string = new String(bytes, UTF_8);
+            mStrings[index] = string;
+        }
+        return string;
+    }
+}
@@ -16,112 +16,150 @@
 
 package com.example.android.xyztouristattractions.provider;
 
-import android.net.Uri;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
 
 import com.example.android.xyztouristattractions.BuildConfig;
 import com.example.android.xyztouristattractions.common.Attraction;
+import com.example.android.xyztouristattractions.common.StartupTrace;
 import com.google.android.gms.location.Geofence;
 import com.google.android.gms.maps.model.LatLng;
-import com.google.maps.android.SphericalUtil;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Static data content provider.
+ * Static data content provider. The data is generated at build time from
+ * catalog/attractions.json (see catalog.gradle) and memory-mapped from the
+ * apk when first used.
  */
 public class TouristAttractions {
+    private static final String TAG = TouristAttractions.class.getSimpleName();
+
+    private static final String CATALOG_ASSET = "attractions.catalog";
 
     public static final String CITY_SYDNEY = "Sydney";
 
     public static final String TEST_CITY = CITY_SYDNEY;
 
-    private static final float TRIGGER_RADIUS = 2000; // 2KM
+    public static final float TRIGGER_RADIUS = 2000; // 2KM
     private static final int TRIGGER_TRANSITION = Geofence.GEOFENCE_TRANSITION_ENTER |
             Geofence.GEOFENCE_TRANSITION_EXIT;
     private static final long EXPIRATION_DURATION = Geofence.NEVER_EXPIRE;
 
-    public static final Map<String, LatLng> CITY_LOCATIONS = new HashMap<String, LatLng>() {{
-        put(CITY_SYDNEY, new LatLng(-33.873651, 151.2068896));
-    }};
+    private static Context sContext;
+
+    private static final AtomicReference<AttractionCatalog> sCatalog =
+            new AtomicReference<>();
+
+    /**
+     * Set the context the catalog is loaded with, called when the app starts
+     * (see {@link com.example.android.xyztouristattractions.TouristApplication}).
+     */
+    public static synchronized void init(Context context) {
+        sContext = context.getApplicationContext();
+    }
+
+    /**
+     * Returns the current catalog snapshot, opening it on first use. Callers
+     * that make several calls against the data should hold on to one catalog
+     * so they see a consistent version even if the data is reloaded meanwhile.
+     */
+    public static AttractionCatalog getCatalog() {
+        AttractionCatalog catalog = sCatalog.get();
+        return catalog != null ? catalog : openCatalog();
+    }
+
+    /**
+     * Replace the catalog with new data. Readers of the previous catalog are
+     * unaffected; new readers get the new version.
+     *
+     * @return the new catalog
+     */
+    public static AttractionCatalog reload(Map<String, LatLng> cityLocations,
+            Map<String, List<Attraction>> attractions) {
+        return reload(new AttractionCatalog.MapSource(cityLocations, attractions));
+    }
+
+    static AttractionCatalog reload(AttractionCatalog.Source source) {
+        while (true) {
+            AttractionCatalog current = getCatalog();
+            AttractionCatalog updated = new AttractionCatalog(current.getVersion() + 1, source);
+            if (sCatalog.compareAndSet(current, updated)) {
+                return updated;
+            }
+        }
+    }
 
     /**
-     * All photos used with permission under the Creative Commons Attribution-ShareAlike License.
+     * Open the catalog ahead of its first use, so the UI doesn't have to.
+     * Blocks, so only call from a background thread.
      */
-    public static final HashMap<String, List<Attraction>> ATTRACTIONS =
-            new HashMap<String, List<Attraction>>() {{
-
-        put(CITY_SYDNEY, new ArrayList<Attraction>() {{
-            add(new Attraction(
-                    "Sydney Opera House",
-                    "Lorem ipsum dolor sit amet, consectetur adipiscing elit. Sed vitae bibendum justo, vitae cursus velit. Suspendisse potenti.",
-                    "Lorem ipsum dolor sit amet, consectetur adipiscing elit. Sed vitae bibendum justo, vitae cursus velit. Suspendisse potenti. Suspendisse scelerisque risus justo, non tincidunt nibh blandit et. Vivamus elit lacus, luctus nec erat in, pharetra semper turpis. Quisque viverra nulla ligula, non pulvinar ante dictum sit amet. Vestibulum aliquet tortor mauris, vel suscipit nisl malesuada eget. Aliquam maximus dictum euismod. Maecenas leo quam, volutpat id diam eget, placerat fringilla ipsum. Nam pretium vehicula augue quis euismod.\n\nNam sed blandit magna. Vestibulum a fermentum arcu. Vestibulum et ligula at nisi luctus facilisis. Proin fermentum enim a nibh commodo finibus. Suspendisse justo elit, vulputate ut ipsum at, pellentesque auctor massa. Praesent vestibulum erat interdum imperdiet dapibus. In hac habitasse platea dictumst. Proin varius orci vitae tempor vulputate.\n\nEtiam sed mollis orci. Integer et ex sed tortor scelerisque blandit semper id libero. Nulla facilisi. Pellentesque tempor magna eget massa ultrices, et efficitur lectus finibus.",
-                    Uri.parse("https://lh5.googleusercontent.com/-7fb5ybQhUbo/VGLWjIL4RmI/AAAAAAAAACM/2jLe_msj_tk/w600-no/IMG_0049.JPG"),
-                    Uri.parse("https://lh3.googleusercontent.com/-EFEw6s7mT6I/VGLkCH4Xt4I/AAAAAAAAADY/ZlznhaQvb8E/w600-no/DSC_2775.JPG"),
-                    new LatLng(-33.858667, 151.214028),
-                    CITY_SYDNEY
-            ));
-
-            add(new Attraction(
-                    "Sydney Harbour Bridge",
-                    "Lorem ipsum dolor sit amet, consectetur adipiscing elit. Mauris ut nulla neque. Morbi nec felis vel neque rhoncus malesuada.",
-                    "Lorem ipsum dolor sit amet, consectetur adipiscing elit. Mauris ut nulla neque. Morbi nec felis vel neque rhoncus malesuada. Mauris non nisi est. Nunc in ipsum euismod, suscipit dolor eget, efficitur nisi. Integer venenatis mauris mauris, quis luctus risus pellentesque a. Duis tempus est at ligula vehicula fermentum. Class aptent taciti sociosqu ad litora torquent per conubia nostra, per inceptos himenaeos.\n\nNam ut sodales nibh, euismod aliquet lectus. Curabitur ornare dictum nisi, at faucibus magna. Morbi tempus nibh sed sodales volutpat. Etiam sodales, turpis sit amet porttitor tristique, libero libero faucibus est, viverra dictum risus ipsum vel augue. Nulla dolor magna, iaculis ac ornare id, fermentum eget massa. Sed mattis, odio nec sodales vehicula, neque metus ullamcorper nulla, sit amet ullamcorper risus lectus a ipsum. Curabitur venenatis feugiat quam nec elementum. Curabitur a interdum urna. Curabitur tincidunt tortor eget neque condimentum blandit. Etiam imperdiet, enim nec blandit convallis, nunc augue.",
-                    Uri.parse("https://lh6.googleusercontent.com/-ORRJtfLQlaw/VGLmQPv3n8I/AAAAAAAAAD8/2TzSCCPzl9k/w600-no/DSC04114.JPG"),
-                    Uri.parse("https://lh4.googleusercontent.com/-ch9Kk-7pD68/VGLkCNh5niI/AAAAAAAAADc/ztxkRHWX-po/w600-no/DSC_2739.JPG"),
-                    new LatLng(-33.852222, 151.210556),
-                    CITY_SYDNEY
-            ));
-
-            add(new Attraction(
-                    "Darling Harbour",
-                    "Lorem ipsum dolor sit amet, consectetur adipiscing elit. Aliquam ut dui in ipsum suscipit aliquet pretium aliquet odio.",
-                    "Lorem ipsum dolor sit amet, consectetur adipiscing elit. Aliquam ut dui in ipsum suscipit aliquet pretium aliquet odio. Nam posuere nunc sed risus molestie varius. Suspendisse posuere faucibus urna, id vestibulum ante iaculis et. Vivamus placerat suscipit sem, a tempor nunc vehicula ac. Ut libero velit, dapibus sit amet euismod vel, dignissim a nisl.\n\nDonec non dui non felis laoreet malesuada. Fusce ac metus ultrices, fermentum felis quis, varius velit. Donec ac felis semper, scelerisque diam sed, dignissim risus. Maecenas vel semper sapien. Fusce euismod justo posuere, efficitur risus tincidunt, congue tellus. In hac habitasse platea dictumst. Sed lobortis risus consequat vehicula facilisis.\n\nIn hendrerit, neque in gravida rutrum, purus enim aliquet lectus, sit amet vulputate tortor lacus at sem. Aenean lorem metus, finibus rhoncus eros at, ullamcorper fringilla velit. Nulla vitae porttitor metus, quis gravida lectus. In rhoncus, diam a elementum luctus, erat nisi tempus ex, in porta est.",
-                    Uri.parse("https://lh5.googleusercontent.com/-qX43g6s92LY/VGLaTT3N35I/AAAAAAAAAC8/BbueQmch0Rw/w600-no/68001.jpg"),
-                    Uri.parse("https://lh6.googleusercontent.com/-SQ6T1Ure6l8/VGLaTg2iGuI/AAAAAAAAACo/m6_RkTW2G1o/w600-no/IMG_20140201_082851.jpg"),
-                    new LatLng(-33.8723, 151.19896),
-                    CITY_SYDNEY
-            ));
-
-            add(new Attraction(
-                    "Bondi Beach",
-                    "Lorem ipsum dolor sit amet, consectetur adipiscing elit. Etiam et nunc in leo laoreet placerat. Interdum et malesuada fames ac ante ipsum primis in faucibus.",
-                    "Lorem ipsum dolor sit amet, consectetur adipiscing elit. Etiam et nunc in leo laoreet placerat. Interdum et malesuada fames ac ante ipsum primis in faucibus. Proin vestibulum laoreet odio nec posuere. Quisque ante arcu, malesuada vitae velit a, auctor tincidunt ante. Mauris varius eros eros, eget scelerisque mi scelerisque ut. Donec vehicula vitae urna ac hendrerit. Phasellus egestas risus nec euismod auctor.\n\nInteger fermentum velit et dolor varius sagittis. Proin et viverra sapien. Nulla aliquet ante et hendrerit egestas. Duis vulputate libero in nisi gravida cursus. Praesent laoreet nec dolor non iaculis. Aliquam eleifend ultricies ipsum, eu pellentesque libero rutrum non. Mauris et purus erat. Nullam semper mi id tincidunt viverra. Ut porta sem congue lectus luctus ultricies. Suspendisse iaculis lacinia nibh, eu accumsan magna volutpat vel. Sed id interdum mi, vel sollicitudin elit. Fusce facilisis elementum gravida. Duis at volutpat odio. Integer porta convallis tincidunt. Donec aliquam, leo ut.",
-                    Uri.parse("https://lh4.googleusercontent.com/-wbNgVdUkBiE/VHe99hGVtNI/AAAAAAAAAFY/fAHfhchNLJw/w600-no/IMG_20141124_143747.jpg"),
-                    Uri.parse("https://lh6.googleusercontent.com/-sjY_xlEOic4/VHe9-I4DD9I/AAAAAAAAAFI/Mt0VnjU7SxQ/w600-no/IMG_20141124_144008.jpg"),
-                    new LatLng(-33.89102, 151.277726),
-                    CITY_SYDNEY
-            ));
-
-            add(new Attraction(
-                    "Taronga Zoo",
-                    "Lorem ipsum dolor sit amet, consectetur adipiscing elit. Aliquam eros velit, faucibus in mi in, accumsan eleifend magna. Fusce efficitur volutpat leo nec finibus. Vivamus luctus quis dolor ac interdum.",
-                    "Lorem ipsum dolor sit amet, consectetur adipiscing elit. Aliquam eros velit, faucibus in mi in, accumsan eleifend magna. Fusce efficitur volutpat leo nec finibus. Vivamus luctus quis dolor ac interdum. Donec iaculis, orci quis semper vulputate, tortor nisi porttitor tortor, at pretium ante quam ut odio. Donec fringilla sapien et dolor pharetra ultrices. Aenean faucibus felis non vulputate iaculis.\n\nEtiam eget dapibus ligula. Nunc facilisis dignissim tortor et elementum. Vestibulum ante ipsum primis in faucibus orci luctus et ultrices posuere cubilia Curae; Aliquam condimentum pellentesque mollis. Aliquam finibus urna ipsum, sed accumsan ante blandit quis. Vestibulum vel lacinia ligula. Nunc justo ex, volutpat nec justo ut, efficitur gravida lectus. Mauris cursus dui libero, vel tristique purus laoreet non.\n\nLorem ipsum dolor sit amet, consectetur adipiscing elit. Suspendisse ultrices ullamcorper est, at consequat massa. Nam egestas at urna at pellentesque. Quisque lacus quam, efficitur vel erat eget, placerat feugiat eros. Mauris.",
-                    Uri.parse("https://lh6.googleusercontent.com/-kypwDfnk674/VGLWpQPm4VI/AAAAAAAAAB0/SrfL0fE9DnE/w500-no/OI000020_2.jpg"),
-                    Uri.parse("https://lh3.googleusercontent.com/-6_Ioko2ysgU/VHva2PjmRCI/AAAAAAAAAGM/cHjJC7ney4Q/w500-no/PC190054.JPG"),
-                    new LatLng(-33.843333, 151.241111),
-                    CITY_SYDNEY
-            ));
-        }});
-
-    }};
+    public static void loadCatalog(Context context) {
+        init(context);
+        getCatalog();
+    }
 
     /**
-     * Creates a list of geofences based on the city locations
+     * Memory-map the catalog asset (see {@link BinaryCatalog}). Only the
+     * first caller opens it, others wait for it.
      */
-    public static List<Geofence> getGeofenceList() {
-        List<Geofence> geofenceList = new ArrayList<Geofence>();
-        for (String city : CITY_LOCATIONS.keySet()) {
-            LatLng cityLatLng = CITY_LOCATIONS.get(city);
-            geofenceList.add(new Geofence.Builder()
-                    .setCircularRegion(cityLatLng.latitude, cityLatLng.longitude, TRIGGER_RADIUS)
-                    .setRequestId(city)
-                    .setTransitionTypes(TRIGGER_TRANSITION)
-                    .setExpirationDuration(EXPIRATION_DURATION)
-                    .build());
+    private static synchronized AttractionCatalog openCatalog() {
+        AttractionCatalog catalog = sCatalog.get();
+        if (catalog != null) {
+            return catalog;
+        }
+        if (sContext == null) {
+            throw new IllegalStateException("TouristAttractions.init() was not called");
         }
-        return geofenceList;
+
+        StartupTrace.beginSection(StartupTrace.CATALOG_LOAD);
+        try {
+            Runtime runtime = Runtime.getRuntime();
+            long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+            long startTime = SystemClock.elapsedRealtime();
+            catalog = new AttractionCatalog(1,
+                    BinaryCatalog.open(sContext.getAssets(), CATALOG_ASSET));
+            long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+            Log.d(TAG, String.format("Loaded catalog (%d cities, %d attractions) "
+                            + "in %dms, heap %+dKB",
+                    catalog.getCities().size(), catalog.getAttractionCount(),
+                    SystemClock.elapsedRealtime() - startTime,
+                    (heapAfter - heapBefore) / 1024));
+        } catch (IOException e) {
+            // Only possible with a broken build, carry on without data
+            Log.e(TAG, "Error loading catalog asset: " + e);
+            catalog = new AttractionCatalog(1, Collections.<String, LatLng>emptyMap(),
+                    Collections.<String, List<Attraction>>emptyMap());
+        } finally {
+            StartupTrace.endSection(StartupTrace.CATALOG_LOAD);
+        }
+        sCatalog.compareAndSet(null, catalog);
+        return sCatalog.get();
+    }
+
+    /**
+     * Creates the geofence for a city, the request id is the city name
+     */
+    public static Geofence getGeofence(String city) {
+        LatLng cityLatLng = getCatalog().getCityLocation(city);
+        return new Geofence.Builder()
+                .setCircularRegion(cityLatLng.latitude, cityLatLng.longitude, TRIGGER_RADIUS)
+                .setRequestId(city)
+                .setTransitionTypes(TRIGGER_TRANSITION)
+                .setExpirationDuration(EXPIRATION_DURATION)
+                .build();
+    }
+
+    /**
+     * See {@link AttractionCatalog#getNearestCities(LatLng, int)}.
+     */
+    public static List<String> getNearestCities(LatLng curLatLng, int count) {
+        return getCatalog().getNearestCities(curLatLng, count);
     }
 
     public static String getClosestCity(LatLng curLatLng) {
@@ -133,15 +171,14 @@ public class TouristAttractions {
             return null;
         }
 
-        double minDistance = 0;
-        String closestCity = null;
-        for (Map.Entry<String, LatLng> entry: CITY_LOCATIONS.entrySet()) {
-            double distance = SphericalUtil.computeDistanceBetween(curLatLng, entry.getValue());
-            if (minDistance == 0 || distance < minDistance) {
-                minDistance = distance;
-                closestCity = entry.getKey();
-            }
-        }
-        return closestCity;
+        return getCatalog().getClosestCity(curLatLng);
+    }
+
+    /**
+     * See {@link AttractionCatalog#getNearestAttractions(String, LatLng, int)}.
+     */
+    public static List<Attraction> getNearestAttractions(
+            String city, LatLng curLatLng, int count) {
+        return getCatalog().getNearestAttractions(city, curLatLng, count);
     }
 }
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.service;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.xyztouristattractions.provider.TouristAttractions;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.SphericalUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.android.gms.location.LocationServices.GeofencingApi;
+
+/**
+ * Keeps only the geofences nearest to the user registered, as the platform
+ * limits each app to 100 active geofences. The set is planned around a
+ * location and re-planned once the user moves further than
+ * {@link #REBUILD_RADIUS} from it; each re-plan only adds and removes the
+ * geofences that changed, in one batched call each.
+ */
+class GeofenceScheduler {
+    private static final String TAG = GeofenceScheduler.class.getSimpleName();
+
+    // Stay below the platform limit of 100 geofences per app
+    static final int MAX_GEOFENCES = 90;
+
+    // Distance moved from the planned location before re-planning, in meters
+    static final double REBUILD_RADIUS = 10000; // 10KM
+
+    // Package-private so tests can start from nothing registered
+    static final String PREFERENCES_REGISTERED = "geofences_registered";
+    static final String PREFERENCES_PLAN_LAT = "geofences_plan_lat";
+    static final String PREFERENCES_PLAN_LNG = "geofences_plan_lng";
+
+    // Registration churn since the process started
+    private static int sPlans;
+    private static int sAdded;
+    private static int sRemoved;
+
+    private GeofenceScheduler() {}
+
+    /**
+     * Returns true if the registered geofences were planned too far from
+     * the location to still be the nearest ones.
+     */
+    static boolean needsPlan(Context context, LatLng location) {
+        if (location == null) {
+            return false;
+        }
+        LatLng planLocation = getPlanLocation(context);
+        return planLocation == null ||
+                SphericalUtil.computeDistanceBetween(planLocation, location) > REBUILD_RADIUS;
+    }
+
+    /**
+     * Register the nearest geofences to a location, blocking until done.
+     *
+     * @param googleApiClient a connected client with the Location API
+     * @param location the location to plan around, if null any geofences are used
+     * @param pendingIntent the intent to trigger on geofence transitions
+     * @param reset true to add every planned geofence again, not only new ones,
+     *              for example when registrations may have been lost on reboot
+     */
+    static void plan(Context context, GoogleApiClient googleApiClient,
+            LatLng location, PendingIntent pendingIntent, boolean reset) {
+        plan(context, new ApiRegistrar(googleApiClient, pendingIntent), location, reset);
+    }
+
+    /**
+     * Register the nearest geofences to a location with a registrar.
+     *
+     * @return false if the registrar failed, in which case the plan location
+     *         is not saved so {@link #needsPlan} asks for it again
+     */
+    static synchronized boolean plan(Context context, Registrar registrar, LatLng location,
+            boolean reset) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        Set<String> registered =
+                new HashSet<>(prefs.getStringSet(PREFERENCES_REGISTERED, new HashSet<String>()));
+
+        List<String> planned = registrar.getNearestCities(location, MAX_GEOFENCES);
+        Plan plan = new Plan(registered, planned, reset);
+        List<String> toRemove = plan.toRemove;
+        List<String> toAdd = plan.toAdd;
+
+        if (!toRemove.isEmpty()) {
+            if (!registrar.removeGeofences(toRemove)) {
+                return false;
+            }
+            registered.removeAll(toRemove);
+        }
+
+        boolean complete = true;
+        if (!toAdd.isEmpty()) {
+            if (registrar.addGeofences(toAdd)) {
+                registered.addAll(toAdd);
+            } else {
+                toAdd.clear();
+                complete = false;
+            }
+        }
+
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putStringSet(PREFERENCES_REGISTERED, registered);
+        // Only a complete plan counts, so a failed one is retried on the next fix
+        if (complete && location != null) {
+            editor.putLong(PREFERENCES_PLAN_LAT, Double.doubleToRawLongBits(location.latitude));
+            editor.putLong(PREFERENCES_PLAN_LNG, Double.doubleToRawLongBits(location.longitude));
+        }
+        editor.apply();
+
+        sPlans++;
+        sAdded += toAdd.size();
+        sRemoved += toRemove.size();
+        Log.d(TAG, String.format("Planned %d geofences: %d added, %d removed. "
+                        + "Total %d added, %d removed over %d plans",
+                registered.size(), toAdd.size(), toRemove.size(), sAdded, sRemoved, sPlans));
+        return complete;
+    }
+
+    private static LatLng getPlanLocation(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        long lat = prefs.getLong(PREFERENCES_PLAN_LAT, Long.MAX_VALUE);
+        long lng = prefs.getLong(PREFERENCES_PLAN_LNG, Long.MAX_VALUE);
+        if (lat == Long.MAX_VALUE || lng == Long.MAX_VALUE) {
+            return null;
+        }
+        return new LatLng(Double.longBitsToDouble(lat), Double.longBitsToDouble(lng));
+    }
+
+    /**
+     * Where the cities to plan come from and where their geofences are
+     * registered. Calls block until done.
+     */
+    interface Registrar {
+        List<String> getNearestCities(LatLng location, int count);
+
+        /**
+         * @return true if the geofences were removed
+         */
+        boolean removeGeofences(List<String> cities);
+
+        /**
+         * @return true if the geofences were added
+         */
+        boolean addGeofences(List<String> cities);
+    }
+
+    /**
+     * Registers the geofences of the catalog's cities with the Location API.
+     */
+    private static class ApiRegistrar implements Registrar {
+        private final GoogleApiClient mGoogleApiClient;
+        private final PendingIntent mPendingIntent;
+
+        ApiRegistrar(GoogleApiClient googleApiClient, PendingIntent pendingIntent) {
+            mGoogleApiClient = googleApiClient;
+            mPendingIntent = pendingIntent;
+        }
+
+        @Override
+        public List<String> getNearestCities(LatLng location, int count) {
+            return TouristAttractions.getNearestCities(location, count);
+        }
+
+        @Override
+        public boolean removeGeofences(List<String> cities) {
+            Status status = GeofencingApi.removeGeofences(mGoogleApiClient, cities).await();
+            if (!status.isSuccess()) {
+                Log.e(TAG, "Error removing geofences (error code = "
+                        + status.getStatusCode() + ")");
+            }
+            return status.isSuccess();
+        }
+
+        @Override
+        public boolean addGeofences(List<String> cities) {
+            List<Geofence> geofences = new ArrayList<>(cities.size());
+            for (String city : cities) {
+                geofences.add(TouristAttractions.getGeofence(city));
+            }
+            Status status = GeofencingApi.addGeofences(
+                    mGoogleApiClient, geofences, mPendingIntent).await();
+            if (!status.isSuccess()) {
+                Log.e(TAG, "Error adding geofences (error code = "
+                        + status.getStatusCode() + ")");
+            }
+            return status.isSuccess();
+        }
+    }
+
+    /**
+     * The geofences to remove and add to go from the registered geofences
+     * to the planned ones.
+     */
+    static class Plan {
+        final List<String> toRemove;
+        final List<String> toAdd;
+
+        /**
+         * @param reset true to add every planned geofence, not only new ones
+         */
+        Plan(Collection<String> registered, List<String> planned, boolean reset) {
+            toRemove = difference(registered, planned);
+            toAdd = reset ? new ArrayList<>(planned) : difference(planned, registered);
+        }
+    }
+
+    /**
+     * The items of a that are not in b, in the order of a.
+     */
+    static List<String> difference(Collection<String> a, Collection<String> b) {
+        Set<String> exclude = new HashSet<>(b);
+        List<String> result = new ArrayList<>();
+        for (String item : a) {
+            if (!exclude.contains(item)) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+}
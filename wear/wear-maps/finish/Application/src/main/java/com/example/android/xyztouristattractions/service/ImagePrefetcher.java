@@ -0,0 +1,190 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.service;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.request.FutureTarget;
+import com.example.android.xyztouristattractions.common.AssetEncoder;
+import com.example.android.xyztouristattractions.common.Attraction;
+import com.example.android.xyztouristattractions.common.Constants;
+import com.example.android.xyztouristattractions.common.ImageStore;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Fetches all the tourist attraction images needed for a notification (and
+ * optionally the wearable micro app) in one pass.
+ *
+ * Every request is handed to Glide up front so the downloads run in parallel
+ * on Glide's bounded source executor, then the results are collected against
+ * a shared deadline so one slow image can't hold up the rest. Each image is
+ * only fetched once, at the larger wearable parallax size, and the square
+ * notification variant is derived from that bitmap. Both sizes are kept in
+ * the {@link ImageStore}, and only images missing from it are fetched. The
+ * wearable image is encoded once when stored, and those bytes are what the
+ * wearable is sent.
+ */
+class ImagePrefetcher {
+    private static final String TAG = ImagePrefetcher.class.getSimpleName();
+
+    /**
+     * The images fetched for a single attraction. Any of these may be null
+     * if the image failed to load or timed out.
+     */
+    static class Images {
+        // WEAR_IMAGE_SIZE_PARALLAX_WIDTH x WEAR_IMAGE_SIZE, used by the micro app,
+        // encoded as stored
+        byte[] imageData;
+        // WEAR_IMAGE_SIZE square, used by notifications
+        Bitmap notificationImage;
+    }
+
+    private ImagePrefetcher() {}
+
+    /**
+     * Fetch the images for a list of attractions. This blocks until all
+     * images have loaded or {@link Constants#IMAGE_FETCH_TIMEOUT_S} has
+     * passed, so only call it from a background thread.
+     *
+     * @param context the context
+     * @param attractions the attractions to fetch images for
+     * @param includeWearable true to also get the full size image the micro
+     *                        app shows, even if the notification image is stored
+     * @return the fetched images keyed by attraction name
+     */
+    static HashMap<String, Images> fetch(
+            Context context, List<Attraction> attractions, boolean includeWearable) {
+        int count = attractions.size();
+        long startTime = SystemClock.elapsedRealtime();
+        ImageStore imageStore = ImageStore.getInstance(context);
+        HashMap<String, Images> results = new HashMap<>(count);
+
+        // Kick off a request for every image that isn't stored before
+        // waiting on any of them
+        FutureTarget<Bitmap>[] targets = newTargetArray(count);
+        int fetchCount = 0;
+        for (int i = 0; i < count; i++) {
+            Attraction attraction = attractions.get(i);
+            Images images = new Images();
+            images.notificationImage = getStored(imageStore, attraction.name,
+                    attraction.imageUrl, ImageStore.Variant.WEAR);
+            if (includeWearable || images.notificationImage == null) {
+                images.imageData = imageStore.get(attraction.name,
+                        attraction.imageUrl.toString(), ImageStore.Variant.WEAR_PARALLAX);
+                if (images.imageData == null) {
+                    targets[i] = load(context, attraction.imageUrl);
+                    fetchCount++;
+                }
+            }
+            results.put(attraction.name, images);
+        }
+
+        long deadline = startTime + TimeUnit.SECONDS.toMillis(Constants.IMAGE_FETCH_TIMEOUT_S);
+        for (int i = 0; i < count; i++) {
+            Attraction attraction = attractions.get(i);
+            Images images = results.get(attraction.name);
+            Bitmap image = null;
+            if (targets[i] != null) {
+                image = await(targets[i], deadline);
+                if (image != null) {
+                    images.imageData = AssetEncoder.DEFAULT.encode(image);
+                    imageStore.put(attraction.name, attraction.imageUrl.toString(),
+                            ImageStore.Variant.WEAR_PARALLAX, images.imageData);
+                }
+            }
+            if (images.notificationImage == null) {
+                if (image == null && images.imageData != null) {
+                    image = BitmapFactory.decodeByteArray(
+                            images.imageData, 0, images.imageData.length);
+                }
+                if (image != null) {
+                    images.notificationImage = ThumbnailUtils.extractThumbnail(image,
+                            Constants.WEAR_IMAGE_SIZE, Constants.WEAR_IMAGE_SIZE);
+                    store(imageStore, attraction.name, attraction.imageUrl,
+                            ImageStore.Variant.WEAR, images.notificationImage);
+                }
+            }
+        }
+
+        Log.d(TAG, String.format("Fetched images for %d attractions in %dms, %d from network. "
+                        + "Image store: %s", count, SystemClock.elapsedRealtime() - startTime,
+                fetchCount, imageStore.getStats()));
+        return results;
+    }
+
+    private static Bitmap getStored(ImageStore imageStore, String attractionName,
+                                    Uri imageUrl, ImageStore.Variant variant) {
+        byte[] data = imageStore.get(attractionName, imageUrl.toString(), variant);
+        if (data == null) {
+            return null;
+        }
+        return BitmapFactory.decodeByteArray(data, 0, data.length);
+    }
+
+    private static void store(ImageStore imageStore, String attractionName,
+                              Uri imageUrl, ImageStore.Variant variant, Bitmap bitmap) {
+        if (bitmap != null) {
+            imageStore.put(attractionName, imageUrl.toString(), variant, bitmap);
+        }
+    }
+
+    private static FutureTarget<Bitmap> load(Context context, Uri imageUrl) {
+        return Glide.with(context)
+                .load(imageUrl)
+                .asBitmap()
+                .diskCacheStrategy(DiskCacheStrategy.SOURCE)
+                .into(Constants.WEAR_IMAGE_SIZE_PARALLAX_WIDTH, Constants.WEAR_IMAGE_SIZE);
+    }
+
+    /**
+     * Wait for an image until the deadline, cancelling the request if it
+     * doesn't make it in time.
+     */
+    private static Bitmap await(FutureTarget<Bitmap> target, long deadline) {
+        if (target == null) {
+            return null;
+        }
+        long remaining = Math.max(0, deadline - SystemClock.elapsedRealtime());
+        try {
+            return target.get(remaining, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Timed out fetching image from network");
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(TAG, "Error fetching image from network: " + e);
+        }
+        Glide.clear(target);
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static FutureTarget<Bitmap>[] newTargetArray(int size) {
+        return (FutureTarget<Bitmap>[]) new FutureTarget[size];
+    }
+}
@@ -20,10 +20,14 @@ import android.content.Intent;
 import android.net.Uri;
 import android.util.Log;
 
+import com.example.android.xyztouristattractions.provider.AttractionCatalog;
+import com.example.android.xyztouristattractions.provider.TouristAttractions;
 import com.example.android.xyztouristattractions.ui.DetailActivity;
 import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.WearableListenerService;
 import com.example.android.xyztouristattractions.common.Constants;
+import com.example.android.xyztouristattractions.common.NodeRegistry;
 
 /**
  * A Wear listener service, used to receive inbound messages from
@@ -43,7 +47,9 @@ public class ListenerService extends WearableListenerService {
             // Request for this device open the attraction detail screen
             // to a specific tourist attraction
             String attractionName = new String(messageEvent.getData());
-            Intent intent = DetailActivity.getLaunchIntent(this, attractionName);
+            AttractionCatalog catalog = TouristAttractions.getCatalog();
+            Intent intent = DetailActivity.getLaunchIntent(
+                    this, catalog.getAttractionId(catalog.findAttraction(attractionName)));
             intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
             startActivity(intent);
         } else if (Constants.START_NAVIGATION_PATH.equals(messageEvent.getPath())) {
@@ -56,4 +62,14 @@ public class ListenerService extends WearableListenerService {
             startActivity(intent);
         }
     }
+
+    @Override
+    public void onPeerConnected(Node peer) {
+        NodeRegistry.getInstance().onPeerConnected(peer);
+    }
+
+    @Override
+    public void onPeerDisconnected(Node peer) {
+        NodeRegistry.getInstance().onPeerDisconnected(peer);
+    }
 }
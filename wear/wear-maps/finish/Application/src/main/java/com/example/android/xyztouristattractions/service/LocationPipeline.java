@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.service;
+
+import android.util.Log;
+
+import com.example.android.xyztouristattractions.common.Attraction;
+import com.example.android.xyztouristattractions.common.Constants;
+import com.example.android.xyztouristattractions.provider.AttractionCatalog;
+import com.example.android.xyztouristattractions.provider.TouristAttractions;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.SphericalUtil;
+
+import java.util.List;
+
+/**
+ * Decides how often location updates are requested and which of them are
+ * worth acting on. Updates are requested at a higher priority when the user
+ * is near a geofence and a lower one when far from any, and a fix is
+ * dropped if it leaves the nearest attractions in the same order and is
+ * close to the last fix that was dispatched.
+ */
+class LocationPipeline {
+    private static final String TAG = LocationPipeline.class.getSimpleName();
+
+    // Within this distance of a geofence updates are requested more often
+    private static final double NEAR_GEOFENCE_DISTANCE = 5000; // 5KM
+
+    private static final long NEAR_INTERVAL_MS = 60 * 1000;
+    private static final long NEAR_FASTEST_INTERVAL_MS = 15 * 1000;
+    private static final float NEAR_SMALLEST_DISPLACEMENT = 50;
+
+    private static final long FAR_INTERVAL_MS = 5 * 60 * 1000;
+    private static final long FAR_FASTEST_INTERVAL_MS = 60 * 1000;
+    private static final float FAR_SMALLEST_DISPLACEMENT = 500;
+
+    // A fix further than this from the last dispatched one is always
+    // dispatched, so the displayed distances don't go stale
+    private static final double MIN_DISPATCH_DISPLACEMENT = 250;
+
+    private static LatLng sLastDispatched;
+    private static List<Attraction> sLastRanking;
+    // 0 until a request is made by this process
+    private static int sRequestedPriority;
+
+    private static int sReceived;
+    private static int sDropped;
+    private static int sDispatched;
+
+    private LocationPipeline() {}
+
+    /**
+     * Create the location request suited to a location.
+     *
+     * @param location the last known location, or null if unknown
+     */
+    static synchronized LocationRequest createRequest(LatLng location) {
+        LocationRequest request = new LocationRequest();
+        if (location == null || isNearGeofence(location)) {
+            request.setPriority(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY)
+                    .setInterval(NEAR_INTERVAL_MS)
+                    .setFastestInterval(NEAR_FASTEST_INTERVAL_MS)
+                    .setSmallestDisplacement(NEAR_SMALLEST_DISPLACEMENT);
+        } else {
+            request.setPriority(LocationRequest.PRIORITY_LOW_POWER)
+                    .setInterval(FAR_INTERVAL_MS)
+                    .setFastestInterval(FAR_FASTEST_INTERVAL_MS)
+                    .setSmallestDisplacement(FAR_SMALLEST_DISPLACEMENT);
+        }
+        sRequestedPriority = request.getPriority();
+        return request;
+    }
+
+    /**
+     * Returns true if the location calls for a different request priority
+     * than the one last requested, or if the last request was made by an
+     * earlier process. Updates outlive the process that requested them, so
+     * without this the priority would stay fixed until the UI requests
+     * location again.
+     */
+    static synchronized boolean needsNewRequest(LatLng location) {
+        if (sRequestedPriority == 0) {
+            return true;
+        }
+        int priority = isNearGeofence(location) ?
+                LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY :
+                LocationRequest.PRIORITY_LOW_POWER;
+        return priority != sRequestedPriority;
+    }
+
+    /**
+     * Returns true if a new fix should be stored and broadcast, false if it
+     * can be dropped.
+     */
+    static synchronized boolean shouldDispatch(LatLng location) {
+        sReceived++;
+
+        AttractionCatalog catalog = TouristAttractions.getCatalog();
+        List<Attraction> ranking = catalog.getNearestAttractions(
+                catalog.getClosestCity(location), location, Constants.MAX_ATTRACTIONS);
+
+        boolean dispatch = sLastDispatched == null
+                || SphericalUtil.computeDistanceBetween(sLastDispatched, location)
+                        > MIN_DISPATCH_DISPLACEMENT
+                || ranking == null || !ranking.equals(sLastRanking);
+
+        if (dispatch) {
+            sDispatched++;
+            sLastDispatched = location;
+            sLastRanking = ranking;
+        } else {
+            sDropped++;
+        }
+        Log.d(TAG, String.format("Location fixes: %d received, %d dropped, %d dispatched",
+                sReceived, sDropped, sDispatched));
+        return dispatch;
+    }
+
+    /**
+     * Returns true if the location is within {@link #NEAR_GEOFENCE_DISTANCE}
+     * of the edge of the nearest city geofence (or inside it).
+     */
+    private static boolean isNearGeofence(LatLng location) {
+        String city = TouristAttractions.getCatalog().getClosestCity(location);
+        if (city == null) {
+            return false;
+        }
+        double distance = SphericalUtil.computeDistanceBetween(
+                location, TouristAttractions.getCatalog().getCityLocation(city));
+        return distance - TouristAttractions.TRIGGER_RADIUS < NEAR_GEOFENCE_DISTANCE;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.service;
+
+import android.app.Notification;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.example.android.xyztouristattractions.R;
+import com.example.android.xyztouristattractions.common.Attraction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Caches what the notification for a city is built from, so a repeat
+ * geofence trigger for the same city doesn't fetch and scale the images or
+ * set up the wearable pages again. Only the distance text of each page is
+ * refreshed.
+ *
+ * Entries are tied to the catalog version and each attraction's image URL,
+ * so reloading the catalog or changing an image invalidates them.
+ */
+class NotificationCache {
+    private static final String TAG = NotificationCache.class.getSimpleName();
+
+    // Each city holds up to MAX_ATTRACTIONS square notification images
+    private static final int MAX_CITIES = 2;
+
+    private static final LruCache<String, CityEntry> sCities = new LruCache<>(MAX_CITIES);
+
+    private static int sHits;
+    private static int sMisses;
+
+    private NotificationCache() {}
+
+    /**
+     * Get the images for a city's attractions, fetching only those that
+     * aren't cached. Blocks while fetching, so only call from a background
+     * thread.
+     *
+     * @param includeWearable true if the full size images for the wearable
+     *                         are needed too, see {@link WearableDataSync#hasAsset(Uri)}
+     */
+    static synchronized HashMap<String, ImagePrefetcher.Images> getImages(Context context,
+            String city, int catalogVersion, List<Attraction> attractions,
+            boolean includeWearable) {
+        CityEntry entry = sCities.get(city);
+        if (entry == null || entry.mCatalogVersion != catalogVersion) {
+            entry = new CityEntry(catalogVersion);
+            sCities.put(city, entry);
+        }
+
+        HashMap<String, ImagePrefetcher.Images> images = new HashMap<>(attractions.size());
+        List<Attraction> missing = new ArrayList<>();
+        for (Attraction attraction : attractions) {
+            CachedAttraction cached = entry.mAttractions.get(attraction.name);
+            if (cached != null && cached.matches(attraction)
+                    && (!includeWearable || WearableDataSync.hasAsset(attraction.imageUrl))) {
+                // The wearable already has the full size images, so only
+                // the notification image is needed
+                ImagePrefetcher.Images cachedImages = new ImagePrefetcher.Images();
+                cachedImages.notificationImage = cached.mNotificationImage;
+                images.put(attraction.name, cachedImages);
+            } else {
+                missing.add(attraction);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            HashMap<String, ImagePrefetcher.Images> fetched =
+                    ImagePrefetcher.fetch(context, missing, includeWearable);
+            for (Attraction attraction : missing) {
+                ImagePrefetcher.Images attractionImages = fetched.get(attraction.name);
+                images.put(attraction.name, attractionImages);
+                if (attractionImages.notificationImage != null) {
+                    entry.mAttractions.put(attraction.name,
+                            new CachedAttraction(attraction, attractionImages.notificationImage));
+                }
+            }
+        }
+
+        sHits += attractions.size() - missing.size();
+        sMisses += missing.size();
+        Log.d(TAG, String.format("%s: %d of %d attractions cached (total %d hits, %d misses)",
+                city, attractions.size() - missing.size(), attractions.size(), sHits, sMisses));
+        return images;
+    }
+
+    /**
+     * Build the wearable page for an attraction, reusing the page set up for
+     * a previous notification and only replacing the distance text.
+     */
+    static synchronized Notification buildPage(Context context, String city,
+            Attraction attraction, Bitmap background, String distance) {
+        CityEntry entry = sCities.get(city);
+        CachedAttraction cached = entry != null ? entry.mAttractions.get(attraction.name) : null;
+
+        NotificationCompat.Builder page = cached != null ? cached.mPage : null;
+        if (page == null) {
+            page = new NotificationCompat.Builder(context.getApplicationContext())
+                    .setContentTitle(attraction.name)
+                    .setSmallIcon(R.drawable.ic_stat_maps_pin_drop)
+                    .extend(new NotificationCompat.WearableExtender()
+                            .setBackground(background));
+            if (cached != null) {
+                cached.mPage = page;
+            }
+        }
+        return page.setContentText(distance).build();
+    }
+
+    private static class CityEntry {
+        final int mCatalogVersion;
+        final HashMap<String, CachedAttraction> mAttractions = new HashMap<>();
+
+        CityEntry(int catalogVersion) {
+            mCatalogVersion = catalogVersion;
+        }
+    }
+
+    private static class CachedAttraction {
+        final Uri mImageUrl;
+        final Bitmap mNotificationImage;
+        NotificationCompat.Builder mPage;
+
+        CachedAttraction(Attraction attraction, Bitmap notificationImage) {
+            mImageUrl = attraction.imageUrl;
+            mNotificationImage = notificationImage;
+        }
+
+        boolean matches(Attraction attraction) {
+            return mImageUrl.equals(attraction.imageUrl);
+        }
+    }
+}
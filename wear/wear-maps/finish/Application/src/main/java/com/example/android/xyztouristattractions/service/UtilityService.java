@@ -22,46 +22,36 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.graphics.Bitmap;
 import android.location.Location;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.NotificationManagerCompat;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.example.android.xyztouristattractions.R;
+import com.example.android.xyztouristattractions.common.ApiClientManager;
 import com.example.android.xyztouristattractions.common.Attraction;
 import com.example.android.xyztouristattractions.common.Constants;
+import com.example.android.xyztouristattractions.common.MessageDispatcher;
+import com.example.android.xyztouristattractions.common.StartupTrace;
 import com.example.android.xyztouristattractions.common.Utils;
+import com.example.android.xyztouristattractions.provider.AttractionDistances;
 import com.example.android.xyztouristattractions.provider.TouristAttractions;
 import com.example.android.xyztouristattractions.ui.DetailActivity;
-import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.location.FusedLocationProviderApi;
 import com.google.android.gms.location.Geofence;
 import com.google.android.gms.location.GeofencingEvent;
 import com.google.android.gms.location.LocationRequest;
-import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.maps.model.LatLng;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
 
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
-import static com.example.android.xyztouristattractions.provider.TouristAttractions.ATTRACTIONS;
 import static com.google.android.gms.location.LocationServices.FusedLocationApi;
-import static com.google.android.gms.location.LocationServices.GeofencingApi;
 
 /**
  * A utility IntentService, used for a variety of asynchronous background
@@ -74,11 +64,15 @@ public class UtilityService extends IntentService {
     private static final String ACTION_LOCATION_UPDATED = "location_updated";
     private static final String ACTION_REQUEST_LOCATION = "request_location";
     private static final String ACTION_ADD_GEOFENCES = "add_geofences";
+    private static final String ACTION_LOAD_CATALOG = "load_catalog";
     private static final String ACTION_CLEAR_NOTIFICATION = "clear_notification";
     private static final String ACTION_CLEAR_REMOTE_NOTIFICATIONS = "clear_remote_notifications";
     private static final String ACTION_FAKE_UPDATE = "fake_update";
     private static final String EXTRA_TEST_MICROAPP = "test_microapp";
 
+    // Long enough for every attempt MessageDispatcher makes
+    private static final long CLEAR_NOTIFICATIONS_TIMEOUT_S = 20;
+
     public static IntentFilter getLocationUpdatedIntentFilter() {
         return new IntentFilter(UtilityService.ACTION_LOCATION_UPDATED);
     }
@@ -96,6 +90,12 @@ public class UtilityService extends IntentService {
         context.startService(intent);
     }
 
+    public static void loadCatalog(Context context) {
+        Intent intent = new Intent(context, UtilityService.class);
+        intent.setAction(UtilityService.ACTION_LOAD_CATALOG);
+        context.startService(intent);
+    }
+
     public static void requestLocation(Context context) {
         Intent intent = new Intent(context, UtilityService.class);
         intent.setAction(UtilityService.ACTION_REQUEST_LOCATION);
@@ -123,6 +123,9 @@ public class UtilityService extends IntentService {
         String action = intent != null ? intent.getAction() : null;
         if (ACTION_ADD_GEOFENCES.equals(action)) {
             addGeofencesInternal();
+        } else if (ACTION_LOAD_CATALOG.equals(action)) {
+            Log.v(TAG, ACTION_LOAD_CATALOG);
+            TouristAttractions.loadCatalog(this);
         } else if (ACTION_GEOFENCE_TRIGGERED.equals(action)) {
             geofenceTriggered(intent);
         } else if (ACTION_REQUEST_LOCATION.equals(action)) {
@@ -146,28 +149,31 @@ public class UtilityService extends IntentService {
     }
 
     /**
-     * Add geofences using Play Services
+     * Add geofences using Play Services. Only the geofences nearest to the
+     * last known location are registered, see {@link GeofenceScheduler}.
      */
     private void addGeofencesInternal() {
         Log.v(TAG, ACTION_ADD_GEOFENCES);
-        GoogleApiClient googleApiClient = new GoogleApiClient.Builder(this)
-                .addApi(LocationServices.API)
-                .build();
+        planGeofences(true);
+    }
 
-        // It's OK to use blockingConnect() here as we are running in an
-        // IntentService that executes work on a separate (background) thread.
-        ConnectionResult connectionResult = googleApiClient.blockingConnect(
-                Constants.GOOGLE_API_CLIENT_TIMEOUT_S, TimeUnit.SECONDS);
+    /**
+     * Register the geofences nearest to the last known location
+     *
+     * @param reset true to register all of them again rather than only the changes
+     */
+    private void planGeofences(boolean reset) {
+        // It's OK to block here as we are running in an IntentService that
+        // executes work on a separate (background) thread.
+        ApiClientManager apiClientManager = ApiClientManager.getInstance(this);
+        GoogleApiClient googleApiClient = apiClientManager.acquire(ApiClientManager.LOCATION);
 
-        if (connectionResult.isSuccess() && googleApiClient.isConnected()) {
+        if (googleApiClient != null) {
             PendingIntent pendingIntent = PendingIntent.getBroadcast(
                     this, 0, new Intent(this, UtilityReceiver.class), 0);
-            GeofencingApi.addGeofences(googleApiClient,
-                    TouristAttractions.getGeofenceList(), pendingIntent);
-            googleApiClient.disconnect();
-        } else {
-            Log.e(TAG, String.format(Constants.GOOGLE_API_CLIENT_ERROR_MSG,
-                    connectionResult.getErrorCode()));
+            GeofenceScheduler.plan(this, googleApiClient,
+                    Utils.getLocation(this), pendingIntent, reset);
+            apiClientManager.release(ApiClientManager.LOCATION);
         }
     }
 
@@ -202,16 +208,13 @@ public class UtilityService extends IntentService {
      */
     private void requestLocationInternal() {
         Log.v(TAG, ACTION_REQUEST_LOCATION);
-        GoogleApiClient googleApiClient = new GoogleApiClient.Builder(this)
-                .addApi(LocationServices.API)
-                .build();
 
-        // It's OK to use blockingConnect() here as we are running in an
-        // IntentService that executes work on a separate (background) thread.
-        ConnectionResult connectionResult = googleApiClient.blockingConnect(
-                Constants.GOOGLE_API_CLIENT_TIMEOUT_S, TimeUnit.SECONDS);
+        // It's OK to block here as we are running in an IntentService that
+        // executes work on a separate (background) thread.
+        ApiClientManager apiClientManager = ApiClientManager.getInstance(this);
+        GoogleApiClient googleApiClient = apiClientManager.acquire(ApiClientManager.LOCATION);
 
-        if (connectionResult.isSuccess() && googleApiClient.isConnected()) {
+        if (googleApiClient != null) {
 
             Intent locationUpdatedIntent = new Intent(this, UtilityService.class);
             locationUpdatedIntent.setAction(ACTION_LOCATION_UPDATED);
@@ -225,17 +228,16 @@ public class UtilityService extends IntentService {
                 startService(lastLocationIntent);
             }
 
-            // Request new location
-            LocationRequest mLocationRequest = new LocationRequest()
-                    .setPriority(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY);
+            // Request new location, how often depends on how close to a geofence we are
+            LocationRequest mLocationRequest = LocationPipeline.createRequest(
+                    location != null ?
+                            new LatLng(location.getLatitude(), location.getLongitude()) :
+                            Utils.getLocation(this));
             FusedLocationApi.requestLocationUpdates(
                     googleApiClient, mLocationRequest,
                     PendingIntent.getService(this, 0, locationUpdatedIntent, 0));
 
-            googleApiClient.disconnect();
-        } else {
-            Log.e(TAG, String.format(Constants.GOOGLE_API_CLIENT_ERROR_MSG,
-                    connectionResult.getErrorCode()));
+            apiClientManager.release(ApiClientManager.LOCATION);
         }
     }
 
@@ -244,6 +246,7 @@ public class UtilityService extends IntentService {
      */
     private void locationUpdated(Intent intent) {
         Log.v(TAG, ACTION_LOCATION_UPDATED);
+        StartupTrace.mark(StartupTrace.FIRST_LOCATION);
 
         // Extra new location
         Location location =
@@ -252,12 +255,30 @@ public class UtilityService extends IntentService {
         if (location != null) {
             LatLng latLngLocation = new LatLng(location.getLatitude(), location.getLongitude());
 
+            // Skip fixes that wouldn't change anything the user sees
+            if (!LocationPipeline.shouldDispatch(latLngLocation)) {
+                return;
+            }
+
             // Store in a local preference as well
             Utils.storeLocation(this, latLngLocation);
 
+            // Work out the distances to all attractions once for this location
+            AttractionDistances.get(latLngLocation);
+
+            // Swap in the geofences near the new location if the user moved far enough
+            if (GeofenceScheduler.needsPlan(this, latLngLocation)) {
+                planGeofences(false);
+            }
+
             // Send a local broadcast so if an Activity is open it can respond
             // to the updated location
             LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+
+            // Moving towards or away from geofences changes the update priority
+            if (LocationPipeline.needsNewRequest(latLngLocation)) {
+                requestLocationInternal();
+            }
         }
     }
 
@@ -274,24 +295,23 @@ public class UtilityService extends IntentService {
      */
     private void clearRemoteNotifications() {
         Log.v(TAG, ACTION_CLEAR_REMOTE_NOTIFICATIONS);
-        GoogleApiClient googleApiClient = new GoogleApiClient.Builder(this)
-                .addApi(Wearable.API)
-                .build();
-
-        // It's OK to use blockingConnect() here as we are running in an
-        // IntentService that executes work on a separate (background) thread.
-        ConnectionResult connectionResult = googleApiClient.blockingConnect(
-                Constants.GOOGLE_API_CLIENT_TIMEOUT_S, TimeUnit.SECONDS);
-
-        if (connectionResult.isSuccess() && googleApiClient.isConnected()) {
-
-            // Loop through all nodes and send a clear notification message
-            Iterator<String> itr = Utils.getNodes(googleApiClient).iterator();
-            while (itr.hasNext()) {
-                Wearable.MessageApi.sendMessage(
-                        googleApiClient, itr.next(), Constants.CLEAR_NOTIFICATIONS_PATH, null);
+
+        // It's OK to block here as we are running in an IntentService that
+        // executes work on a separate (background) thread.
+        ApiClientManager apiClientManager = ApiClientManager.getInstance(this);
+        GoogleApiClient googleApiClient = apiClientManager.acquire(ApiClientManager.WEARABLE);
+
+        if (googleApiClient != null) {
+            Collection<String> nodeIds = Utils.getNodes(googleApiClient);
+            if (nodeIds != null) {
+                // Send a clear notification message to all nodes, retrying any
+                // that don't accept it. This waits for the sends as a geofence
+                // exit holds a wakelock only until this returns.
+                MessageDispatcher.getInstance(this).sendAndAwait(
+                        nodeIds, Constants.CLEAR_NOTIFICATIONS_PATH, null,
+                        TimeUnit.SECONDS.toMillis(CLEAR_NOTIFICATIONS_TIMEOUT_S));
             }
-            googleApiClient.disconnect();
+            apiClientManager.release(ApiClientManager.WEARABLE);
         }
     }
 
@@ -305,11 +325,18 @@ public class UtilityService extends IntentService {
      */
     private void showNotification(String cityId, boolean microApp) {
 
-        List<Attraction> attractions = ATTRACTIONS.get(cityId);
+        // Closest attractions first (falls back to the default order if location is unknown)
+        List<Attraction> attractions = TouristAttractions.getNearestAttractions(
+                cityId, Utils.getLocation(this), Constants.MAX_ATTRACTIONS);
+
+        // Pull down the tourist attraction images from the network, in parallel,
+        // unless they are cached from an earlier notification for this city
+        HashMap<String, ImagePrefetcher.Images> images = NotificationCache.getImages(this,
+                cityId, TouristAttractions.getCatalog().getVersion(), attractions, microApp);
 
         if (microApp) {
             // If micro app we first need to transfer some data over
-            sendDataToWearable(attractions);
+            sendDataToWearable(attractions, images);
         }
 
         // The first (closest) tourist attraction
@@ -319,25 +346,10 @@ public class UtilityService extends IntentService {
         int count = attractions.size() > Constants.MAX_ATTRACTIONS ?
                 Constants.MAX_ATTRACTIONS : attractions.size();
 
-        // Pull down the tourist attraction images from the network and store
-        HashMap<String, Bitmap> bitmaps = new HashMap<>();
-        try {
-            for (int i = 0; i < count; i++) {
-                bitmaps.put(attractions.get(i).name,
-                        Glide.with(this)
-                                .load(attractions.get(i).imageUrl)
-                                .asBitmap()
-                                .diskCacheStrategy(DiskCacheStrategy.SOURCE)
-                                .into(Constants.WEAR_IMAGE_SIZE, Constants.WEAR_IMAGE_SIZE)
-                                .get());
-            }
-        } catch (InterruptedException | ExecutionException e) {
-            Log.e(TAG, "Error fetching image from network: " + e);
-        }
-
         // The intent to trigger when the notification is tapped
         PendingIntent pendingIntent = PendingIntent.getActivity(this, 0,
-                DetailActivity.getLaunchIntent(this, attraction.name),
+                DetailActivity.getLaunchIntent(
+                        this, TouristAttractions.getCatalog().getAttractionId(attraction)),
                 PendingIntent.FLAG_UPDATE_CURRENT);
 
         // The intent to trigger when the notification is dismissed, in this case
@@ -348,7 +360,7 @@ public class UtilityService extends IntentService {
         // Construct the main notification
         NotificationCompat.Builder builder = new NotificationCompat.Builder(this)
                 .setStyle(new NotificationCompat.BigPictureStyle()
-                                .bigPicture(bitmaps.get(attraction.name))
+                                .bigPicture(images.get(attraction.name).notificationImage)
                                 .setBigContentTitle(attraction.name)
                                 .setSummaryText(getString(R.string.nearby_attraction))
                 )
@@ -366,21 +378,15 @@ public class UtilityService extends IntentService {
             // If not a micro app, create some wearable pages for
             // the other nearby tourist attractions.
             ArrayList<Notification> pages = new ArrayList<Notification>();
+            AttractionDistances distances = AttractionDistances.get(Utils.getLocation(this));
             for (int i = 1; i < count; i++) {
 
-                // Calculate the distance from current location to tourist attraction
-                String distance = Utils.formatDistanceBetween(
-                        Utils.getLocation(this), attractions.get(i).location);
+                // The distance from current location to tourist attraction
+                String distance = distances.formatDistance(attractions.get(i));
 
                 // Construct the notification and add it as a page
-                pages.add(new NotificationCompat.Builder(this)
-                        .setContentTitle(attractions.get(i).name)
-                        .setContentText(distance)
-                        .setSmallIcon(R.drawable.ic_stat_maps_pin_drop)
-                        .extend(new NotificationCompat.WearableExtender()
-                                .setBackground(bitmaps.get(attractions.get(i).name))
-                        )
-                        .build());
+                pages.add(NotificationCache.buildPage(this, cityId, attractions.get(i),
+                        images.get(attractions.get(i).name).notificationImage, distance));
             }
             builder.extend(new NotificationCompat.WearableExtender().addPages(pages));
         }
@@ -393,93 +399,25 @@ public class UtilityService extends IntentService {
     /**
      * Transfer the required data over to the wearable
      * @param attractions list of attraction data to transfer over
+     * @param images the prefetched images for the attractions
      */
-    private void sendDataToWearable(List<Attraction> attractions) {
-        GoogleApiClient googleApiClient = new GoogleApiClient.Builder(this)
-                .addApi(Wearable.API)
-                .build();
-
-        // It's OK to use blockingConnect() here as we are running in an
-        // IntentService that executes work on a separate (background) thread.
-        ConnectionResult connectionResult = googleApiClient.blockingConnect(
-                Constants.GOOGLE_API_CLIENT_TIMEOUT_S, TimeUnit.SECONDS);
-
+    private void sendDataToWearable(List<Attraction> attractions,
+                                    HashMap<String, ImagePrefetcher.Images> images) {
         // Limit attractions to send
         int count = attractions.size() > Constants.MAX_ATTRACTIONS ?
                 Constants.MAX_ATTRACTIONS : attractions.size();
 
-        ArrayList<DataMap> attractionsData = new ArrayList<>(count);
-
-        for (int i = 0; i < count; i++) {
-            Attraction attraction = attractions.get(i);
-
-            Bitmap image = null;
-            Bitmap secondaryImage = null;
-
-            try {
-                // Fetch and resize attraction image bitmap
-                image = Glide.with(this)
-                        .load(attraction.imageUrl)
-                        .asBitmap()
-                        .diskCacheStrategy(DiskCacheStrategy.SOURCE)
-                        .into(Constants.WEAR_IMAGE_SIZE_PARALLAX_WIDTH, Constants.WEAR_IMAGE_SIZE)
-                        .get();
-
-                secondaryImage = Glide.with(this)
-                        .load(attraction.secondaryImageUrl)
-                        .asBitmap()
-                        .diskCacheStrategy(DiskCacheStrategy.SOURCE)
-                        .into(Constants.WEAR_IMAGE_SIZE_PARALLAX_WIDTH, Constants.WEAR_IMAGE_SIZE)
-                        .get();
-            } catch (InterruptedException | ExecutionException e) {
-                Log.e(TAG, "Exception loading bitmap from network");
-            }
-
-            if (image != null && secondaryImage != null) {
-
-                DataMap attractionData = new DataMap();
-
-                String distance = Utils.formatDistanceBetween(
-                        Utils.getLocation(this), attraction.location);
-
-                attractionData.putString(Constants.EXTRA_TITLE, attraction.name);
-                attractionData.putString(Constants.EXTRA_DESCRIPTION, attraction.description);
-                attractionData.putDouble(
-                        Constants.EXTRA_LOCATION_LAT, attraction.location.latitude);
-                attractionData.putDouble(
-                        Constants.EXTRA_LOCATION_LNG, attraction.location.longitude);
-                attractionData.putString(Constants.EXTRA_DISTANCE, distance);
-                attractionData.putString(Constants.EXTRA_CITY, attraction.city);
-                attractionData.putAsset(Constants.EXTRA_IMAGE,
-                        Utils.createAssetFromBitmap(image));
-                attractionData.putAsset(Constants.EXTRA_IMAGE_SECONDARY,
-                        Utils.createAssetFromBitmap(secondaryImage));
-
-                attractionsData.add(attractionData);
-            }
-        }
-
-        if (connectionResult.isSuccess() && googleApiClient.isConnected()
-                && attractionsData.size() > 0) {
-
-            PutDataMapRequest dataMap = PutDataMapRequest.create(Constants.ATTRACTION_PATH);
-            dataMap.getDataMap().putDataMapArrayList(Constants.EXTRA_ATTRACTIONS, attractionsData);
-            dataMap.getDataMap().putLong(Constants.EXTRA_TIMESTAMP, new Date().getTime());
-            PutDataRequest request = dataMap.asPutDataRequest();
-
-            // Send the data over
-            DataApi.DataItemResult result =
-                    Wearable.DataApi.putDataItem(googleApiClient, request).await();
-
-            if (!result.getStatus().isSuccess()) {
-                Log.e(TAG, String.format("Error sending data using DataApi (error code = %d)",
-                        result.getStatus().getStatusCode()));
-            }
-
-        } else {
-            Log.e(TAG, String.format(Constants.GOOGLE_API_CLIENT_ERROR_MSG,
-                    connectionResult.getErrorCode()));
+        // It's OK to block here as we are running in an IntentService that
+        // executes work on a separate (background) thread.
+        ApiClientManager apiClientManager = ApiClientManager.getInstance(this);
+        GoogleApiClient googleApiClient = apiClientManager.acquire(ApiClientManager.WEARABLE);
+
+        if (googleApiClient != null) {
+            // Send the data over, only attractions that changed since the
+            // last sync are actually transferred
+            WearableDataSync.sync(googleApiClient, attractions.subList(0, count), images,
+                    Utils.getLocation(this));
+            apiClientManager.release(ApiClientManager.WEARABLE);
         }
-        googleApiClient.disconnect();
     }
 }
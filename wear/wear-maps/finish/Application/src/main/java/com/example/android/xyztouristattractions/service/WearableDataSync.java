@@ -0,0 +1,331 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.service;
+
+import android.net.Uri;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.example.android.xyztouristattractions.common.Attraction;
+import com.example.android.xyztouristattractions.common.AttractionSync;
+import com.example.android.xyztouristattractions.common.Constants;
+import com.example.android.xyztouristattractions.provider.AttractionDistances;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Sends attraction data to the wearable using the delta sync protocol
+ * described in {@link AttractionSync}. Only attraction items whose content
+ * hash differs from the last one sent are put, and image assets are made
+ * from the image bytes as stored by {@link ImagePrefetcher}, never decoded
+ * and encoded again. Items that
+ * are no longer listed, such as those of the previous city, are deleted.
+ */
+class WearableDataSync {
+    private static final String TAG = WearableDataSync.class.getSimpleName();
+
+    // Enough for the images of a few nearby cities
+    private static final int ASSET_CACHE_SIZE = Constants.MAX_ATTRACTIONS * 4;
+
+    // The content hash last put at each attraction item path
+    private static final HashMap<String, String> sSentItemHashes = new HashMap<>();
+
+    // The content hashes of the assets already sent
+    private static final HashSet<String> sSentAssetHashes = new HashSet<>();
+
+    // Whether items left over from an earlier process have been looked for
+    private static boolean sStoredItemsChecked;
+
+    private static final LruCache<Uri, HashedAsset> sAssets =
+            new LruCache<>(ASSET_CACHE_SIZE);
+
+    // Running totals, to compare against sending the full payload every time
+    private static long sBytesSent;
+    private static long sFullPayloadBytes;
+
+    private WearableDataSync() {}
+
+    /**
+     * Sync the attractions to the wearable, blocking until done.
+     *
+     * @param googleApiClient a connected client with the Wearable API
+     * @param attractions the attractions to sync, in display order
+     * @param images the prefetched images for the attractions
+     * @param location the current location, used for distances
+     * @return true if the index item was put successfully
+     */
+    static boolean sync(GoogleApiClient googleApiClient,
+            List<Attraction> attractions, HashMap<String, ImagePrefetcher.Images> images,
+            LatLng location) {
+        return sync(new ApiDataStore(googleApiClient), attractions, images, location);
+    }
+
+    /**
+     * Sync the attractions to a data store, blocking until done.
+     */
+    static synchronized boolean sync(DataStore dataStore,
+            List<Attraction> attractions, HashMap<String, ImagePrefetcher.Images> images,
+            LatLng location) {
+
+        AttractionDistances distances = AttractionDistances.get(location);
+        ArrayList<String> itemPaths = new ArrayList<>(attractions.size());
+        ArrayList<String> itemDistances = new ArrayList<>(attractions.size());
+        int itemsSent = 0;
+        long bytesSent = 0;
+        long fullPayloadBytes = 0;
+
+        for (Attraction attraction : attractions) {
+            ImagePrefetcher.Images attractionImages = images.get(attraction.name);
+            HashedAsset image = getAsset(attraction.imageUrl, attractionImages.imageData);
+            if (image == null) {
+                continue;
+            }
+
+            DataMap attractionData =
+                    AttractionSync.toDataMap(attraction, image.mAsset, image.mHash);
+            String path = AttractionSync.getItemPath(attraction);
+            String hash = AttractionSync.hashItem(attractionData);
+            itemPaths.add(path);
+            itemDistances.add(distances.formatDistance(attraction));
+
+            int dataBytes = getSize(attractionData);
+            fullPayloadBytes += dataBytes + image.mSize;
+
+            if (hash.equals(sSentItemHashes.get(path))) {
+                // The wearable already has this exact item
+                continue;
+            }
+
+            PutDataMapRequest itemRequest = PutDataMapRequest.create(path);
+            itemRequest.getDataMap().putAll(attractionData);
+            if (dataStore.put(itemRequest.asPutDataRequest())) {
+                sSentItemHashes.put(path, hash);
+                itemsSent++;
+                bytesSent += dataBytes;
+                // Assets are transferred once per content, however many items use them
+                if (sSentAssetHashes.add(image.mHash)) {
+                    bytesSent += image.mSize;
+                }
+            }
+        }
+
+        if (itemPaths.isEmpty()) {
+            return false;
+        }
+
+        // The index is tiny, so it is always sent with a fresh timestamp to
+        // make sure the wearable is notified even if no attraction changed.
+        // It also carries the distances, which change with every location.
+        PutDataMapRequest indexRequest = PutDataMapRequest.create(Constants.ATTRACTION_PATH);
+        indexRequest.getDataMap().putStringArrayList(Constants.EXTRA_ATTRACTION_PATHS, itemPaths);
+        indexRequest.getDataMap().putStringArrayList(
+                Constants.EXTRA_ATTRACTION_DISTANCES, itemDistances);
+        indexRequest.getDataMap().putLong(Constants.EXTRA_TIMESTAMP, new Date().getTime());
+        long indexBytes = indexRequest.getDataMap().toByteArray().length;
+        boolean success = dataStore.put(indexRequest.asPutDataRequest());
+
+        // Only delete items once the index no longer lists them
+        int itemsDeleted = success ? deleteStaleItems(dataStore, itemPaths) : 0;
+
+        sBytesSent += bytesSent + indexBytes;
+        sFullPayloadBytes += fullPayloadBytes + indexBytes;
+        Log.d(TAG, String.format("Sent %d of %d attractions, deleted %d, %d bytes "
+                        + "(full payload %d bytes). "
+                        + "Total %d bytes sent vs %d bytes for full payloads",
+                itemsSent, itemPaths.size(), itemsDeleted, bytesSent + indexBytes,
+                fullPayloadBytes + indexBytes, sBytesSent, sFullPayloadBytes));
+
+        return success;
+    }
+
+    /**
+     * Delete the attraction items this node put earlier that are no longer
+     * listed, such as the items of the previous city.
+     *
+     * @return the number of items deleted
+     */
+    private static int deleteStaleItems(DataStore dataStore, List<String> itemPaths) {
+        HashSet<String> stale = new HashSet<>(sSentItemHashes.keySet());
+        if (!sStoredItemsChecked) {
+            // Items put before this process started are only known to the DataApi
+            List<String> storedPaths = dataStore.getStoredItemPaths();
+            if (storedPaths != null) {
+                stale.addAll(storedPaths);
+                sStoredItemsChecked = true;
+            }
+        }
+        stale.removeAll(itemPaths);
+
+        int deleted = 0;
+        for (String path : stale) {
+            int numDeleted = dataStore.delete(path);
+            if (numDeleted >= 0) {
+                sSentItemHashes.remove(path);
+                deleted += numDeleted;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Forget what has been sent, so the next sync sends every item again.
+     */
+    static synchronized void reset() {
+        sSentItemHashes.clear();
+        sSentAssetHashes.clear();
+        sStoredItemsChecked = false;
+        sAssets.evictAll();
+    }
+
+    /**
+     * Returns true if an asset for the image is cached, so a sync doesn't
+     * need the bitmap.
+     */
+    static synchronized boolean hasAsset(Uri imageUrl) {
+        return sAssets.get(imageUrl) != null;
+    }
+
+    /**
+     * Get the asset for an image, creating it from the encoded image the
+     * first time an image is seen. Returns null if there is neither a cached
+     * asset nor an image to create one from.
+     */
+    private static HashedAsset getAsset(Uri imageUrl, byte[] data) {
+        HashedAsset hashedAsset = sAssets.get(imageUrl);
+        if (hashedAsset == null && data != null) {
+            // Already encoded by the image store, so the bytes are sent as they are
+            Asset asset = Asset.createFromBytes(data);
+            hashedAsset = new HashedAsset(asset, AttractionSync.hash(data), data.length);
+            sAssets.put(imageUrl, hashedAsset);
+        }
+        return hashedAsset;
+    }
+
+    /**
+     * The serialized size of a DataMap, not counting any assets.
+     */
+    private static int getSize(DataMap attractionData) {
+        DataMap copy = new DataMap();
+        copy.putAll(attractionData);
+        copy.remove(Constants.EXTRA_IMAGE);
+        return copy.toByteArray().length;
+    }
+
+    /**
+     * Where the attraction items are stored. Calls block until done.
+     */
+    interface DataStore {
+        /**
+         * @return true if the item was put
+         */
+        boolean put(PutDataRequest request);
+
+        /**
+         * @return the paths of the attraction items this node has put, or
+         *         null if they couldn't be read
+         */
+        List<String> getStoredItemPaths();
+
+        /**
+         * @return the number of items deleted at the path, or -1 on error
+         */
+        int delete(String path);
+    }
+
+    /**
+     * Stores the items with the Wearable DataApi.
+     */
+    private static class ApiDataStore implements DataStore {
+        private final GoogleApiClient mGoogleApiClient;
+
+        ApiDataStore(GoogleApiClient googleApiClient) {
+            mGoogleApiClient = googleApiClient;
+        }
+
+        @Override
+        public boolean put(PutDataRequest request) {
+            DataApi.DataItemResult result =
+                    Wearable.DataApi.putDataItem(mGoogleApiClient, request).await();
+            if (!result.getStatus().isSuccess()) {
+                Log.e(TAG, String.format("Error sending data using DataApi (error code = %d)",
+                        result.getStatus().getStatusCode()));
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public List<String> getStoredItemPaths() {
+            DataItemBuffer dataItems = Wearable.DataApi.getDataItems(mGoogleApiClient,
+                    getUri(Constants.ATTRACTION_ITEM_PATH), DataApi.FILTER_PREFIX).await();
+            try {
+                if (!dataItems.getStatus().isSuccess()) {
+                    return null;
+                }
+                List<String> paths = new ArrayList<>();
+                for (DataItem dataItem : dataItems) {
+                    paths.add(dataItem.getUri().getPath());
+                }
+                return paths;
+            } finally {
+                dataItems.release();
+            }
+        }
+
+        @Override
+        public int delete(String path) {
+            DataApi.DeleteDataItemsResult result =
+                    Wearable.DataApi.deleteDataItems(mGoogleApiClient, getUri(path)).await();
+            if (!result.getStatus().isSuccess()) {
+                Log.e(TAG, String.format("Error deleting data using DataApi (error code = %d)",
+                        result.getStatus().getStatusCode()));
+                return -1;
+            }
+            return result.getNumDeleted();
+        }
+
+        private static Uri getUri(String path) {
+            return new Uri.Builder().scheme(PutDataRequest.WEAR_URI_SCHEME).path(path).build();
+        }
+    }
+
+    private static class HashedAsset {
+        final Asset mAsset;
+        final String mHash;
+        final int mSize;
+
+        HashedAsset(Asset asset, String hash, int size) {
+            mAsset = asset;
+            mHash = hash;
+            mSize = size;
+        }
+    }
+}
@@ -24,6 +24,7 @@ import android.view.MenuItem;
 import android.widget.Toast;
 
 import com.example.android.xyztouristattractions.R;
+import com.example.android.xyztouristattractions.common.StartupTrace;
 import com.example.android.xyztouristattractions.common.Utils;
 import com.example.android.xyztouristattractions.service.UtilityService;
 
@@ -35,6 +36,7 @@ public class AttractionListActivity extends ActionBarActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace.mark(StartupTrace.ACTIVITY_CREATED);
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
@@ -44,6 +46,7 @@ public class AttractionListActivity extends ActionBarActivity {
                     .commit();
         }
 
+        UtilityService.loadCatalog(this);
         UtilityService.addGeofences(this);
     }
 
@@ -20,6 +20,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.location.Location;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.content.LocalBroadcastManager;
@@ -32,24 +33,25 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.Priority;
 import com.example.android.xyztouristattractions.R;
 import com.example.android.xyztouristattractions.common.Attraction;
 import com.example.android.xyztouristattractions.common.Constants;
+import com.example.android.xyztouristattractions.common.StartupTrace;
 import com.example.android.xyztouristattractions.common.Utils;
+import com.example.android.xyztouristattractions.provider.AttractionCatalog;
+import com.example.android.xyztouristattractions.provider.AttractionDistances;
 import com.example.android.xyztouristattractions.provider.TouristAttractions;
 import com.example.android.xyztouristattractions.service.UtilityService;
 import com.google.android.gms.location.FusedLocationProviderApi;
 import com.google.android.gms.maps.model.LatLng;
-import com.google.maps.android.SphericalUtil;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 
-import static com.example.android.xyztouristattractions.provider.TouristAttractions.ATTRACTIONS;
-
 /**
  * The main tourist attraction fragment which contains a list of attractions
  * sorted by distance (contained inside
@@ -57,8 +59,19 @@ import static com.example.android.xyztouristattractions.provider.TouristAttracti
  */
 public class AttractionListFragment extends Fragment {
 
+    // Items ahead of the scroll direction whose images are prefetched
+    private static final int PREFETCH_ITEMS = 6;
+
+    // The last ranking applied in this process, shown while the fragment is
+    // recreated and ranks again. Only used on the main thread.
+    private static List<Attraction> sLastRanking;
+
     private AttractionAdapter mAdapter;
+    private AttractionsRecyclerView mRecyclerView;
+    private View mEmptyView;
     private LatLng mLatestLocation;
+    private AttractionDistances mDistances;
+    private List<RankAttractionsTask> mRankTasks = new ArrayList<>();
     private int mImageSize;
 
     public AttractionListFragment() {}
@@ -70,18 +83,31 @@ public class AttractionListFragment extends Fragment {
         mImageSize = getResources().getDimensionPixelSize(R.dimen.image_size)
                 * Constants.IMAGE_ANIM_MULTIPLIER;
 
+        // Opening the catalog and ranking the attractions is left to the
+        // background, the list starts with the last ranking (if any) and the
+        // distances if they are already worked out for this location
         mLatestLocation = Utils.getLocation(getActivity());
-        List<Attraction> attractions = loadAttractionsFromLocation(mLatestLocation);
-        mAdapter = new AttractionAdapter(getActivity(), attractions);
+        mDistances = AttractionDistances.peek(mLatestLocation);
+        if (mDistances == null) {
+            mDistances = AttractionDistances.get(null);
+        }
+        mAdapter = new AttractionAdapter(getActivity(), sLastRanking,
+                new ImageLoader(this, mImageSize));
+        rank(mLatestLocation);
 
         View view = inflater.inflate(R.layout.fragment_main, container, false);
-        AttractionsRecyclerView recyclerView =
-                (AttractionsRecyclerView) view.findViewById(android.R.id.list);
-        recyclerView.setEmptyView(view.findViewById(android.R.id.empty));
-        recyclerView.setHasFixedSize(true);
-        recyclerView.setLayoutManager(new GridLayoutManager(
+        mRecyclerView = (AttractionsRecyclerView) view.findViewById(android.R.id.list);
+        mEmptyView = view.findViewById(android.R.id.empty);
+        if (sLastRanking != null) {
+            mRecyclerView.setEmptyView(mEmptyView);
+        } else {
+            // Don't claim the list is empty before the first ranking arrives
+            mEmptyView.setVisibility(View.GONE);
+        }
+        mRecyclerView.setHasFixedSize(true);
+        mRecyclerView.setLayoutManager(new GridLayoutManager(
                 getActivity(), getResources().getInteger(R.integer.list_columns)));
-        recyclerView.setAdapter(mAdapter);
+        mRecyclerView.setAdapter(mAdapter);
 
         return view;
     }
@@ -99,6 +125,15 @@ public class AttractionListFragment extends Fragment {
         LocalBroadcastManager.getInstance(getActivity()).unregisterReceiver(mBroadcastReceiver);
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        for (RankAttractionsTask task : mRankTasks) {
+            task.cancel(false);
+        }
+        mRankTasks.clear();
+    }
+
     private BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -106,33 +141,111 @@ public class AttractionListFragment extends Fragment {
                     intent.getParcelableExtra(FusedLocationProviderApi.KEY_LOCATION_CHANGED);
             if (location != null) {
                 mLatestLocation = new LatLng(location.getLatitude(), location.getLongitude());
-                mAdapter.mAttractionList = loadAttractionsFromLocation(mLatestLocation);
-                mAdapter.notifyDataSetChanged();
+                rank(mLatestLocation);
             }
         }
     };
 
-    private static List<Attraction> loadAttractionsFromLocation(final LatLng curLatLng) {
-        String closestCity = TouristAttractions.getClosestCity(curLatLng);
-        if (closestCity != null) {
-            List<Attraction> attractions = ATTRACTIONS.get(closestCity);
-            if (curLatLng != null) {
-                Collections.sort(attractions,
-                        new Comparator<Attraction>() {
-                            @Override
-                            public int compare(Attraction lhs, Attraction rhs) {
-                                double lhsDistance = SphericalUtil.computeDistanceBetween(
-                                        lhs.location, curLatLng);
-                                double rhsDistance = SphericalUtil.computeDistanceBetween(
-                                        rhs.location, curLatLng);
-                                return (int) (lhsDistance - rhsDistance);
-                            }
-                        }
-                );
+    /**
+     * Rank the attractions in the background, AsyncTasks run one at a time
+     * so the results are applied in the order the locations arrived.
+     *
+     * @param location the location to rank by, if null the attractions are
+     *                 listed in their default order
+     */
+    private void rank(LatLng location) {
+        RankAttractionsTask task = new RankAttractionsTask();
+        mRankTasks.add(task);
+        task.execute(location);
+    }
+
+    /**
+     * Apply a new ranking to the list, moving only the attractions whose rank
+     * changed and rebinding only those whose distance text changed.
+     */
+    private void applyRanking(List<Attraction> ranked, AttractionDistances distances) {
+        List<Attraction> current = mAdapter.mAttractionList;
+        AttractionDistances oldDistances = mDistances;
+        mDistances = distances;
+        sLastRanking = ranked;
+        mRecyclerView.setEmptyView(mEmptyView);
+
+        if (current == null || ranked == null || current.size() != ranked.size()
+                || !new HashSet<>(current).containsAll(ranked)) {
+            // A different city, start over
+            mAdapter.mAttractionList = ranked;
+            mAdapter.notifyDataSetChanged();
+            return;
+        }
+
+        // Move each attraction into its new rank, top to bottom
+        List<Attraction> working = new ArrayList<>(current);
+        mAdapter.mAttractionList = working;
+        for (int i = 0; i < ranked.size(); i++) {
+            int from = working.indexOf(ranked.get(i));
+            if (from != i) {
+                working.add(i, working.remove(from));
+                mAdapter.notifyItemMoved(from, i);
+            }
+        }
+
+        for (int i = 0; i < working.size(); i++) {
+            Attraction attraction = working.get(i);
+            if (!TextUtils.equals(oldDistances.formatDistance(attraction),
+                    distances.formatDistance(attraction))) {
+                mAdapter.notifyItemChanged(i);
+            }
+        }
+    }
+
+    /**
+     * Ranks the attractions of the closest city by their precomputed distances
+     * from a location, or lists them in their default order if the location
+     * is unknown.
+     */
+    private class RankAttractionsTask extends AsyncTask<LatLng, Void, List<Attraction>> {
+
+        private AttractionDistances mRankDistances;
+
+        @Override
+        protected List<Attraction> doInBackground(LatLng... params) {
+            LatLng location = params[0];
+            AttractionCatalog catalog = TouristAttractions.getCatalog();
+            // Without a location a debug build still shows the test city
+            String city = location == null ?
+                    TouristAttractions.getClosestCity(null) : catalog.getClosestCity(location);
+            List<Attraction> cityAttractions = catalog.getAttractions(city);
+            if (cityAttractions == null) {
+                return null;
+            }
+
+            final AttractionDistances distances = AttractionDistances.get(location);
+            List<Attraction> ranked = new ArrayList<>(cityAttractions);
+            if (location != null) {
+                Collections.sort(ranked, new Comparator<Attraction>() {
+                    @Override
+                    public int compare(Attraction lhs, Attraction rhs) {
+                        return Double.compare(
+                                distances.getDistance(lhs), distances.getDistance(rhs));
+                    }
+                });
             }
-            return attractions;
+            mRankDistances = distances;
+            return ranked;
+        }
+
+        @Override
+        protected void onPostExecute(List<Attraction> ranked) {
+            mRankTasks.remove(this);
+            if (mAdapter != null) {
+                applyRanking(ranked, mRankDistances);
+            }
+        }
+
+        @Override
+        protected void onCancelled(List<Attraction> ranked) {
+            mRankTasks.remove(this);
         }
-        return null;
     }
 
     private class AttractionAdapter extends RecyclerView.Adapter<ViewHolder>
@@ -140,10 +253,15 @@ public class AttractionListFragment extends Fragment {
 
         public List<Attraction> mAttractionList;
         private Context mContext;
+        private ImageLoader mImageLoader;
+        private int mLastBoundPosition;
+        private boolean mFirstItemBound;
 
-        public AttractionAdapter(Context context, List<Attraction> attractions) {
+        public AttractionAdapter(Context context, List<Attraction> attractions,
+                                 ImageLoader imageLoader) {
             super();
             mContext = context;
+            mImageLoader = imageLoader;
             mAttractionList = attractions;
         }
 
@@ -158,17 +276,16 @@ public class AttractionListFragment extends Fragment {
         public void onBindViewHolder(ViewHolder holder, int position) {
             Attraction attraction = mAttractionList.get(position);
 
+            if (!mFirstItemBound) {
+                // Only the first bind is timed, so later binds skip the lock
+                mFirstItemBound = true;
+                StartupTrace.mark(StartupTrace.FIRST_ITEM_BOUND);
+            }
             holder.mTitleTextView.setText(attraction.name);
             holder.mDescriptionTextView.setText(attraction.description);
-            Glide.with(mContext)
-                    .load(attraction.imageUrl)
-                    .diskCacheStrategy(DiskCacheStrategy.SOURCE)
-                    .placeholder(R.drawable.empty_photo)
-                    .override(mImageSize, mImageSize)
-                    .into(holder.mImageView);
-
-            String distance =
-                    Utils.formatDistanceBetween(mLatestLocation, attraction.location);
+            loadThumbnail(position, holder.mImageView);
+
+            String distance = mDistances.formatDistance(attraction);
             if (TextUtils.isEmpty(distance)) {
                 holder.mOverlayTextView.setVisibility(View.GONE);
             } else {
@@ -177,6 +294,32 @@ public class AttractionListFragment extends Fragment {
             }
         }
 
+        /**
+         * Load the thumbnail of a bound item and prefetch the thumbnails of
+         * the next items in the direction the list is scrolling.
+         */
+        private void loadThumbnail(int position, ImageView imageView) {
+            Attraction attraction = mAttractionList.get(position);
+            mImageLoader.load(attraction, imageView, R.drawable.empty_photo, Priority.HIGH);
+            mImageLoader.cancelPrefetch(attraction);
+
+            int direction = position >= mLastBoundPosition ? 1 : -1;
+            mLastBoundPosition = position;
+            for (int i = 1; i <= PREFETCH_ITEMS; i++) {
+                int ahead = position + i * direction;
+                if (ahead < 0 || ahead >= mAttractionList.size()) {
+                    break;
+                }
+                mImageLoader.prefetch(mAttractionList.get(ahead));
+            }
+        }
+
+        @Override
+        public void onViewRecycled(ViewHolder holder) {
+            // The item has scrolled away, so don't let its image hold up the others
+            mImageLoader.cancel(holder.mImageView);
+        }
+
         @Override
         public long getItemId(int position) {
             return position;
@@ -190,8 +333,9 @@ public class AttractionListFragment extends Fragment {
         @Override
         public void onItemClick(View view, int position) {
             View heroView = view.findViewById(android.R.id.icon);
-            DetailActivity.launch(
-                    getActivity(), mAdapter.mAttractionList.get(position).name, heroView);
+            int attractionId = TouristAttractions.getCatalog().getAttractionId(
+                    mAdapter.mAttractionList.get(position));
+            DetailActivity.launch(getActivity(), attractionId, heroView);
         }
     }
 
@@ -28,6 +28,8 @@ import android.support.v7.app.ActionBarActivity;
 import android.view.View;
 
 import com.example.android.xyztouristattractions.R;
+import com.example.android.xyztouristattractions.common.Attraction;
+import com.example.android.xyztouristattractions.provider.AttractionCatalog;
 
 /**
  * The tourist attraction detail activity screen which contains the details of
@@ -38,8 +40,8 @@ public class DetailActivity extends ActionBarActivity {
     private static final String EXTRA_ATTRACTION = "attraction";
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-    public static void launch(Activity activity, String attraction, View heroView) {
-        Intent intent = getLaunchIntent(activity, attraction);
+    public static void launch(Activity activity, int attractionId, View heroView) {
+        Intent intent = getLaunchIntent(activity, attractionId);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             ActivityOptionsCompat options = ActivityOptionsCompat.makeSceneTransitionAnimation(
                     activity, heroView, heroView.getTransitionName());
@@ -49,9 +51,13 @@ public class DetailActivity extends ActionBarActivity {
         }
     }
 
-    public static Intent getLaunchIntent(Context context, String attraction) {
+    /**
+     * @param attractionId the attraction's id in the catalog, see
+     *                     {@link AttractionCatalog#getAttractionId(Attraction)}
+     */
+    public static Intent getLaunchIntent(Context context, int attractionId) {
         Intent intent = new Intent(context, DetailActivity.class);
-        intent.putExtra(EXTRA_ATTRACTION, attraction);
+        intent.putExtra(EXTRA_ATTRACTION, attractionId);
         return intent;
     }
 
@@ -60,10 +66,10 @@ public class DetailActivity extends ActionBarActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        String attraction = getIntent().getStringExtra(EXTRA_ATTRACTION);
+        int attractionId = getIntent().getIntExtra(EXTRA_ATTRACTION, -1);
         if (savedInstanceState == null) {
             getSupportFragmentManager().beginTransaction()
-                    .add(R.id.container, DetailFragment.createInstance(attraction))
+                    .add(R.id.container, DetailFragment.createInstance(attractionId))
                     .commit();
         }
     }
@@ -33,19 +33,15 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.Priority;
 import com.example.android.xyztouristattractions.R;
 import com.example.android.xyztouristattractions.common.Attraction;
 import com.example.android.xyztouristattractions.common.Constants;
 import com.example.android.xyztouristattractions.common.Utils;
+import com.example.android.xyztouristattractions.provider.AttractionDistances;
+import com.example.android.xyztouristattractions.provider.TouristAttractions;
 import com.google.android.gms.maps.model.LatLng;
 
-import java.util.List;
-import java.util.Map;
-
-import static com.example.android.xyztouristattractions.provider.TouristAttractions.ATTRACTIONS;
-
 /**
  * The tourist attraction detail fragment which contains the details of a
  * a single attraction (contained inside
@@ -56,10 +52,10 @@ public class DetailFragment extends Fragment {
     private static final String EXTRA_ATTRACTION = "attraction";
     private Attraction mAttraction;
 
-    public static DetailFragment createInstance(String attractionName) {
+    public static DetailFragment createInstance(int attractionId) {
         DetailFragment detailFragment = new DetailFragment();
         Bundle bundle = new Bundle();
-        bundle.putString(EXTRA_ATTRACTION, attractionName);
+        bundle.putInt(EXTRA_ATTRACTION, attractionId);
         detailFragment.setArguments(bundle);
         return detailFragment;
     }
@@ -71,8 +67,8 @@ public class DetailFragment extends Fragment {
                              Bundle savedInstanceState) {
         setHasOptionsMenu(true);
         View view = inflater.inflate(R.layout.fragment_detail, container, false);
-        String attractionName = getArguments().getString(EXTRA_ATTRACTION);
-        mAttraction = findAttraction(attractionName);
+        int attractionId = getArguments().getInt(EXTRA_ATTRACTION, -1);
+        mAttraction = TouristAttractions.getCatalog().getAttraction(attractionId);
 
         if (mAttraction == null) {
             getActivity().finish();
@@ -84,24 +80,24 @@ public class DetailFragment extends Fragment {
         TextView distanceTextView = (TextView) view.findViewById(R.id.distanceTextView);
         ImageView imageView = (ImageView) view.findViewById(R.id.imageView);
 
+        // Only one distance is needed, so it isn't worth a whole table
         LatLng location = Utils.getLocation(getActivity());
-        String distance = Utils.formatDistanceBetween(location, mAttraction.location);
+        AttractionDistances distances = AttractionDistances.peek(location);
+        String distance = distances != null ? distances.formatDistance(mAttraction)
+                : Utils.formatDistanceBetween(location, mAttraction.location);
         if (TextUtils.isEmpty(distance)) {
             distanceTextView.setVisibility(View.GONE);
         }
 
-        nameTextView.setText(attractionName);
+        nameTextView.setText(mAttraction.name);
         distanceTextView.setText(distance);
         descTextView.setText(mAttraction.longDescription);
 
         int imageSize = getResources().getDimensionPixelSize(R.dimen.image_size)
                 * Constants.IMAGE_ANIM_MULTIPLIER;
-        Glide.with(getActivity())
-                .load(mAttraction.imageUrl)
-                .diskCacheStrategy(DiskCacheStrategy.SOURCE)
-                .placeholder(R.color.lighter_gray)
-                .override(imageSize, imageSize)
-                .into(imageView);
+        // The user is waiting on this image, so it goes ahead of any others
+        new ImageLoader(this, imageSize).load(
+                mAttraction, imageView, R.color.lighter_gray, Priority.IMMEDIATE);
         return view;
     }
 
@@ -148,20 +144,4 @@ public class DetailFragment extends Fragment {
         }
         return super.onOptionsItemSelected(item);
     }
-
-    /**
-     * Really hacky loop for finding attraction in our static content provider.
-     * Obviously would not be used in a production app.
-     */
-    private Attraction findAttraction(String attractionName) {
-        for (Map.Entry<String, List<Attraction>> attractionsList : ATTRACTIONS.entrySet()) {
-            List<Attraction> attractions = attractionsList.getValue();
-            for (Attraction attraction : attractions) {
-                if (attractionName.equals(attraction.name)) {
-                    return attraction;
-                }
-            }
-        }
-        return null;
-    }
 }
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.ui;
+
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.support.v4.app.Fragment;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.bumptech.glide.DrawableRequestBuilder;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.resource.bitmap.GlideBitmapDrawable;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.animation.GlideAnimation;
+import com.bumptech.glide.request.target.SimpleTarget;
+import com.bumptech.glide.request.target.Target;
+import com.example.android.xyztouristattractions.common.Attraction;
+import com.example.android.xyztouristattractions.common.ImageStore;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Loads attraction images with Glide so the images on screen come first.
+ * Images for views on screen are loaded at a high priority, images of
+ * items about to scroll on screen are prefetched into the memory cache at
+ * a low priority, and requests for views that are recycled are cancelled.
+ *
+ * Images are loaded from the {@link ImageStore} when stored there, and
+ * stored once loaded from the network otherwise. Only the store's in-memory
+ * index is checked on the main thread; until the store has opened in the
+ * background images load as if they weren't stored. The list and the detail
+ * screen load the same size, so the detail image is usually already in
+ * the memory cache when it opens.
+ *
+ * Each time the queue drains the time from requesting an image to it
+ * being shown is logged, along with the deepest the queue got.
+ */
+class ImageLoader {
+    private static final String TAG = ImageLoader.class.getSimpleName();
+
+    // The most images prefetched at once, the oldest are cancelled first
+    private static final int MAX_PREFETCHES = 6;
+
+    private final RequestManager mRequestManager;
+    private final ImageStore mImageStore;
+    private final int mImageSize;
+
+    // Attraction name to its prefetch target, least recently requested first
+    private final LinkedHashMap<String, Target<GlideDrawable>> mPrefetches =
+            new LinkedHashMap<>(0, 0.75f, true);
+
+    // Outstanding requests, keyed by their view or prefetch target, to the
+    // time they were made
+    private final HashMap<Object, Long> mPending = new HashMap<>();
+
+    private int mMaxQueueDepth;
+    private int mShown;
+    private int mShownFromMemory;
+    private long mTotalTimeToVisible;
+    private long mMaxTimeToVisible;
+    private int mPrefetched;
+    private int mCancelled;
+
+    /**
+     * @param fragment the fragment the requests are tied to, they are paused
+     *                 while it is stopped
+     * @param imageSize the width and height the images are loaded at
+     */
+    ImageLoader(Fragment fragment, int imageSize) {
+        mRequestManager = Glide.with(fragment);
+        mImageStore = ImageStore.getInstance(fragment.getActivity());
+        mImageSize = imageSize;
+    }
+
+    /**
+     * Load the image of an attraction into a view that is on screen,
+     * replacing any image being loaded into it.
+     *
+     * @param priority {@link Priority#HIGH} for list items, or
+     *                 {@link Priority#IMMEDIATE} for an image the user is
+     *                 waiting on
+     */
+    void load(Attraction attraction, ImageView imageView, int placeholderResId,
+              Priority priority) {
+        track(imageView);
+        buildRequest(attraction, imageView, priority)
+                .placeholder(placeholderResId)
+                .into(imageView);
+    }
+
+    /**
+     * Load the image of an attraction into the memory cache ahead of it
+     * being shown. If too many images are being prefetched the oldest
+     * prefetch is cancelled.
+     */
+    void prefetch(Attraction attraction) {
+        if (mPrefetches.get(attraction.name) != null) {
+            return;
+        }
+        Target<GlideDrawable> target = new SimpleTarget<GlideDrawable>(mImageSize, mImageSize) {
+            @Override
+            public void onResourceReady(GlideDrawable resource,
+                                        GlideAnimation<? super GlideDrawable> glideAnimation) {
+                // Held until the prefetch is cancelled, then left in the memory cache
+            }
+        };
+        mPrefetches.put(attraction.name, target);
+        track(target);
+        buildRequest(attraction, target, Priority.LOW).into(target);
+
+        Iterator<Map.Entry<String, Target<GlideDrawable>>> i = mPrefetches.entrySet().iterator();
+        while (mPrefetches.size() > MAX_PREFETCHES && i.hasNext()) {
+            Target<GlideDrawable> eldest = i.next().getValue();
+            i.remove();
+            clear(eldest);
+        }
+    }
+
+    /**
+     * Cancel the prefetch of an attraction's image, if any. Call this after
+     * loading the image into a view, so the load carries on for the view.
+     */
+    void cancelPrefetch(Attraction attraction) {
+        Target<GlideDrawable> target = mPrefetches.remove(attraction.name);
+        if (target != null) {
+            clear(target);
+        }
+    }
+
+    /**
+     * Cancel the image being loaded into a view, such as when it is recycled.
+     */
+    void cancel(ImageView imageView) {
+        Glide.clear(imageView);
+        if (mPending.remove(imageView) != null) {
+            mCancelled++;
+        }
+    }
+
+    private void clear(Target<GlideDrawable> target) {
+        Glide.clear(target);
+        if (mPending.remove(target) != null) {
+            mCancelled++;
+        }
+    }
+
+    /**
+     * Build the request for an attraction's image. Prefetches and loads
+     * into views must build the same request, so they share a cache key.
+     */
+    private DrawableRequestBuilder<?> buildRequest(Attraction attraction,
+                                                   Object key, Priority priority) {
+        String name = attraction.name;
+        String source = attraction.imageUrl.toString();
+        // Doesn't block, so it is cheap enough for every bind and prefetch
+        File file = mImageStore.getFile(name, source, ImageStore.Variant.LIST_THUMBNAIL);
+
+        DrawableRequestBuilder<?> request;
+        if (file != null) {
+            // Already scaled down, so there is nothing for Glide to cache on disk
+            request = mRequestManager.load(file)
+                    .diskCacheStrategy(DiskCacheStrategy.NONE);
+        } else {
+            request = mRequestManager.load(attraction.imageUrl)
+                    .diskCacheStrategy(DiskCacheStrategy.SOURCE);
+        }
+        return request
+                .override(mImageSize, mImageSize)
+                .centerCrop()
+                .priority(priority)
+                .listener(new LoadListener(key, file == null ? name : null, source));
+    }
+
+    private void track(Object key) {
+        mPending.put(key, SystemClock.elapsedRealtime());
+        mMaxQueueDepth = Math.max(mMaxQueueDepth, mPending.size());
+    }
+
+    private void finish(Object key, boolean loaded, boolean fromMemoryCache) {
+        Long requestTime = mPending.remove(key);
+        if (requestTime == null) {
+            return;
+        }
+        if (key instanceof ImageView) {
+            if (loaded) {
+                long timeToVisible = SystemClock.elapsedRealtime() - requestTime;
+                mShown++;
+                mShownFromMemory += fromMemoryCache ? 1 : 0;
+                mTotalTimeToVisible += timeToVisible;
+                mMaxTimeToVisible = Math.max(mMaxTimeToVisible, timeToVisible);
+            }
+        } else if (loaded) {
+            mPrefetched++;
+        }
+
+        if (mPending.isEmpty() && mShown > 0) {
+            Log.d(TAG, String.format("Queue drained: %d shown (%d from memory), "
+                            + "avg %dms max %dms to visible, %d prefetched, %d cancelled, "
+                            + "max queue depth %d", mShown, mShownFromMemory,
+                    mTotalTimeToVisible / mShown, mMaxTimeToVisible, mPrefetched, mCancelled,
+                    mMaxQueueDepth));
+        }
+    }
+
+    /**
+     * Records when a request finishes, and stores images loaded from the
+     * network.
+     */
+    private class LoadListener implements RequestListener<Object, GlideDrawable> {
+        private final Object mKey;
+        private final String mStoreName;
+        private final String mSource;
+
+        /**
+         * @param storeName the attraction to store the image for, or null if
+         *                  it is already stored
+         */
+        LoadListener(Object key, String storeName, String source) {
+            mKey = key;
+            mStoreName = storeName;
+            mSource = source;
+        }
+
+        @Override
+        public boolean onException(Exception e, Object model,
+                                   Target<GlideDrawable> target, boolean isFirstResource) {
+            finish(mKey, false, false);
+            return false;
+        }
+
+        @Override
+        public boolean onResourceReady(GlideDrawable resource, Object model,
+                                       Target<GlideDrawable> target, boolean isFromMemoryCache,
+                                       boolean isFirstResource) {
+            finish(mKey, true, isFromMemoryCache);
+            if (mStoreName != null && resource instanceof GlideBitmapDrawable) {
+                // Glide may reuse its bitmap once the view is recycled,
+                // so encode a copy in the background
+                Bitmap bitmap = ((GlideBitmapDrawable) resource).getBitmap();
+                final Bitmap copy = bitmap.copy(bitmap.getConfig(), false);
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mImageStore.put(mStoreName, mSource,
+                                ImageStore.Variant.LIST_THUMBNAIL, copy);
+                    }
+                });
+            }
+            return false;
+        }
+    }
+}
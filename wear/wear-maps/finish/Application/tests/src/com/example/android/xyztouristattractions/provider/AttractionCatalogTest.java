@@ -0,0 +1,388 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.provider;
+
+import android.net.Uri;
+
+import com.example.android.xyztouristattractions.common.Attraction;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.SphericalUtil;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks {@link AttractionCatalog} lookups, that the per city indexes it
+ * builds on first use give the same answers when many threads query cities
+ * for the first time at once, and that readers always see one consistent
+ * version while {@link TouristAttractions#reload} swaps in new data.
+ */
+public class AttractionCatalogTest extends TestCase {
+
+    private static final int CITY_COUNT = 40;
+    private static final int ATTRACTIONS_PER_CITY = 300;
+    private static final int THREAD_COUNT = 8;
+    private static final int QUERIES_PER_THREAD = 200;
+    private static final int NEAREST_COUNT = 10;
+    private static final int RELOAD_THREADS = 2;
+    private static final int RELOADS_PER_THREAD = 10;
+
+    // Distances that differ by less than this are treated as a tie, in meters
+    private static final double TOLERANCE = 1e-3;
+
+    private AttractionCatalog mCatalog;
+    private List<String> mCities;
+    private HashMap<String, LatLng> mCityLocations;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Random random = new Random(12);
+        HashMap<String, LatLng> cities = new HashMap<>(CITY_COUNT);
+        HashMap<String, List<Attraction>> attractions = new HashMap<>(CITY_COUNT);
+        for (int city = 0; city < CITY_COUNT; city++) {
+            String name = "City " + city;
+            LatLng location = new LatLng(
+                    -60 + random.nextDouble() * 120, -180 + random.nextDouble() * 360);
+            List<Attraction> cityAttractions = new ArrayList<>(ATTRACTIONS_PER_CITY);
+            for (int i = 0; i < ATTRACTIONS_PER_CITY; i++) {
+                Uri image = Uri.parse("http://example.com/" + city + "/" + i + ".jpg");
+                cityAttractions.add(new Attraction(name + " attraction " + i, "", "",
+                        image, image, new LatLng(
+                                location.latitude + random.nextDouble() * 0.2 - 0.1,
+                                location.longitude + random.nextDouble() * 0.2 - 0.1),
+                        name));
+            }
+            cities.put(name, location);
+            attractions.put(name, cityAttractions);
+        }
+        mCatalog = new AttractionCatalog(1, cities, attractions);
+        mCities = new ArrayList<>(cities.keySet());
+        mCityLocations = cities;
+    }
+
+    public void testFindAttraction() {
+        for (String city : mCities) {
+            for (Attraction attraction : mCatalog.getAttractions(city)) {
+                assertSame(attraction, mCatalog.findAttraction(attraction.name));
+            }
+        }
+        assertNull(mCatalog.findAttraction("Nowhere"));
+        assertNull(mCatalog.findAttraction(null));
+    }
+
+    public void testAttractionIds() {
+        for (int id = 0; id < mCatalog.getAttractionCount(); id++) {
+            Attraction attraction = mCatalog.getAttraction(id);
+            assertEquals(id, mCatalog.getAttractionId(attraction));
+
+            // An attraction from an earlier catalog is found by name, even if
+            // its id has since been given to another attraction
+            Attraction copy = new Attraction(attraction.name, "", "", attraction.imageUrl,
+                    attraction.secondaryImageUrl, attraction.location, attraction.city);
+            assertEquals(id, mCatalog.getAttractionId(copy));
+            copy.id = (id + 1) % mCatalog.getAttractionCount();
+            assertEquals(id, mCatalog.getAttractionId(copy));
+        }
+        assertEquals(-1, mCatalog.getAttractionId(null));
+        assertNull(mCatalog.getAttraction(-1));
+        assertNull(mCatalog.getAttraction(mCatalog.getAttractionCount()));
+    }
+
+    public void testCallerAttractionsAreNotModified() {
+        Uri image = Uri.parse("http://example.com/a.jpg");
+        Attraction attraction = new Attraction("A", "", "", image, image, new LatLng(1, 1), "B");
+        attraction.id = 7;
+        HashMap<String, LatLng> cities = new HashMap<>();
+        cities.put("B", new LatLng(1, 1));
+        HashMap<String, List<Attraction>> attractions = new HashMap<>();
+        attractions.put("B", Collections.singletonList(attraction));
+
+        AttractionCatalog catalog = new AttractionCatalog(1, cities, attractions);
+        assertEquals(7, attraction.id);
+        assertNotSame(attraction, catalog.getAttraction(0));
+        assertEquals(0, catalog.getAttraction(0).id);
+        assertEquals(0, catalog.getAttractionId(attraction));
+    }
+
+    public void testNearestAttractionsMatchBruteForce() {
+        Random random = new Random(4);
+        for (String city : mCities) {
+            LatLng query = near(random, mCatalog.getCityLocation(city));
+            assertSameDistances(query, bruteForce(city, query, NEAREST_COUNT),
+                    mCatalog.getNearestAttractions(city, query, NEAREST_COUNT));
+        }
+        assertNull(mCatalog.getNearestAttractions("Nowhere", new LatLng(0, 0), 1));
+    }
+
+    /**
+     * Every thread starts querying at once, so most cities get their index
+     * built by several threads together.
+     */
+    public void testConcurrentFirstQueries() throws InterruptedException {
+        final HashMap<String, LatLng> queries = new HashMap<>(CITY_COUNT);
+        final HashMap<String, List<Attraction>> expected = new HashMap<>(CITY_COUNT);
+        Random random = new Random(8);
+        for (String city : mCities) {
+            LatLng query = near(random, mCatalog.getCityLocation(city));
+            queries.put(city, query);
+            expected.put(city, bruteForce(city, query, NEAREST_COUNT));
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREAD_COUNT);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final int seed = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        Random random = new Random(seed);
+                        for (int i = 0; i < QUERIES_PER_THREAD; i++) {
+                            String city = mCities.get(random.nextInt(mCities.size()));
+                            LatLng query = queries.get(city);
+                            assertSameDistances(query, expected.get(city),
+                                    mCatalog.getNearestAttractions(city, query, NEAREST_COUNT));
+                            Attraction attraction = expected.get(city).get(0);
+                            assertSame(attraction, mCatalog.findAttraction(attraction.name));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        start.countDown();
+        assertTrue("Queries timed out", done.await(60, TimeUnit.SECONDS));
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    /**
+     * Ranks and reads the current catalog from several threads, the way the
+     * list and the services do, while other threads reload it. Every reload
+     * tags its attractions, so a reader that saw data from two versions, or
+     * two different data sets under one version number, is caught.
+     */
+    public void testReadersSeeOneVersionDuringReloads() throws InterruptedException {
+        AttractionCatalog original = TouristAttractions.getCatalog();
+        final int firstVersion = TouristAttractions.reload(
+                mCityLocations, tagged("initial")).getVersion();
+
+        final ConcurrentHashMap<Integer, String> tagsByVersion = new ConcurrentHashMap<>();
+        final AtomicBoolean reloading = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch reloadsDone = new CountDownLatch(RELOAD_THREADS);
+        final CountDownLatch done = new CountDownLatch(RELOAD_THREADS + THREAD_COUNT);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        for (int t = 0; t < RELOAD_THREADS; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < RELOADS_PER_THREAD; i++) {
+                            String tag = "reload " + thread + "." + i;
+                            AttractionCatalog catalog =
+                                    TouristAttractions.reload(mCityLocations, tagged(tag));
+                            // Each swap gets a version of its own
+                            assertNull(tagsByVersion.put(catalog.getVersion(), tag));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        reloadsDone.countDown();
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final int seed = t;
+            final boolean ranks = t % 2 == 0;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        Random random = new Random(seed);
+                        int lastVersion = firstVersion;
+                        // Keep reading until the reloads are done, and a while after
+                        for (int i = 0; reloading.get() || i < QUERIES_PER_THREAD; i++) {
+                            AttractionCatalog catalog = TouristAttractions.getCatalog();
+                            assertTrue(catalog.getVersion() >= lastVersion);
+                            lastVersion = catalog.getVersion();
+                            LatLng query = near(random, mCityLocations.get(
+                                    mCities.get(random.nextInt(mCities.size()))));
+                            if (ranks) {
+                                rank(catalog, query);
+                            } else {
+                                read(catalog, query);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        try {
+            start.countDown();
+            assertTrue("Reloads timed out", reloadsDone.await(60, TimeUnit.SECONDS));
+            reloading.set(false);
+            assertTrue("Reads timed out", done.await(60, TimeUnit.SECONDS));
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+
+            // Every reload was applied, none were lost to a racing swap
+            int reloads = RELOAD_THREADS * RELOADS_PER_THREAD;
+            AttractionCatalog last = TouristAttractions.getCatalog();
+            assertEquals(firstVersion + reloads, last.getVersion());
+            assertEquals(reloads, tagsByVersion.size());
+            assertEquals(tagsByVersion.get(last.getVersion()), getTag(last));
+        } finally {
+            restore(original);
+        }
+    }
+
+    /**
+     * Sorts a city's attractions by distance, as the attraction list does,
+     * and checks the ranking against the catalog's own.
+     */
+    private static void rank(AttractionCatalog catalog, final LatLng query) {
+        String tag = getTag(catalog);
+        String city = catalog.getClosestCity(query);
+        List<Attraction> ranked = new ArrayList<>(catalog.getAttractions(city));
+        Collections.sort(ranked, new Comparator<Attraction>() {
+            @Override
+            public int compare(Attraction lhs, Attraction rhs) {
+                return Double.compare(
+                        SphericalUtil.computeDistanceBetween(query, lhs.location),
+                        SphericalUtil.computeDistanceBetween(query, rhs.location));
+            }
+        });
+        for (Attraction attraction : ranked) {
+            assertEquals(tag, attraction.description);
+        }
+        assertSameDistances(query, ranked.subList(0, NEAREST_COUNT),
+                catalog.getNearestAttractions(city, query, NEAREST_COUNT));
+    }
+
+    /**
+     * Looks attractions up by name and id, as the services do.
+     */
+    private static void read(AttractionCatalog catalog, LatLng query) {
+        String tag = getTag(catalog);
+        String city = catalog.getClosestCity(query);
+        for (Attraction attraction : catalog.getNearestAttractions(city, query, NEAREST_COUNT)) {
+            assertEquals(tag, attraction.description);
+            assertSame(attraction, catalog.findAttraction(attraction.name));
+            assertSame(attraction, catalog.getAttraction(catalog.getAttractionId(attraction)));
+        }
+    }
+
+    private static String getTag(AttractionCatalog catalog) {
+        return catalog.getAttraction(0).description;
+    }
+
+    /**
+     * The test attractions with their description set to a tag.
+     */
+    private HashMap<String, List<Attraction>> tagged(String tag) {
+        HashMap<String, List<Attraction>> attractions = new HashMap<>(CITY_COUNT);
+        for (String city : mCities) {
+            List<Attraction> cityAttractions = new ArrayList<>(ATTRACTIONS_PER_CITY);
+            for (Attraction attraction : mCatalog.getAttractions(city)) {
+                cityAttractions.add(new Attraction(attraction.name, tag, "",
+                        attraction.imageUrl, attraction.secondaryImageUrl,
+                        attraction.location, city));
+            }
+            attractions.put(city, cityAttractions);
+        }
+        return attractions;
+    }
+
+    /**
+     * Put the original data back for the other tests.
+     */
+    private static void restore(AttractionCatalog original) {
+        HashMap<String, LatLng> cities = new HashMap<>();
+        HashMap<String, List<Attraction>> attractions = new HashMap<>();
+        for (String city : original.getCities()) {
+            cities.put(city, original.getCityLocation(city));
+            attractions.put(city, new ArrayList<>(original.getAttractions(city)));
+        }
+        TouristAttractions.reload(cities, attractions);
+    }
+
+    /**
+     * Items are compared by distance rather than identity, as two attractions
+     * may be the same distance from the query.
+     */
+    private static void assertSameDistances(LatLng query, List<Attraction> expected,
+                                            List<Attraction> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("Result " + i + " for " + query,
+                    SphericalUtil.computeDistanceBetween(query, expected.get(i).location),
+                    SphericalUtil.computeDistanceBetween(query, actual.get(i).location),
+                    TOLERANCE);
+        }
+    }
+
+    private List<Attraction> bruteForce(String city, final LatLng query, int count) {
+        List<Attraction> attractions = new ArrayList<>(mCatalog.getAttractions(city));
+        Collections.sort(attractions, new Comparator<Attraction>() {
+            @Override
+            public int compare(Attraction lhs, Attraction rhs) {
+                return Double.compare(
+                        SphericalUtil.computeDistanceBetween(query, lhs.location),
+                        SphericalUtil.computeDistanceBetween(query, rhs.location));
+            }
+        });
+        return attractions.subList(0, Math.min(count, attractions.size()));
+    }
+
+    private static LatLng near(Random random, LatLng location) {
+        return new LatLng(location.latitude + random.nextDouble() * 0.2 - 0.1,
+                location.longitude + random.nextDouble() * 0.2 - 0.1);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.provider;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.xyztouristattractions.common.Attraction;
+import com.example.android.xyztouristattractions.common.Utils;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.SphericalUtil;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times binding a list of attractions with {@link AttractionDistances}
+ * against computing and formatting every distance on each bind, the way the
+ * list did before. Results are logged, filter logcat by
+ * "AttractionDistancesBenchmark".
+ */
+public class AttractionDistancesBenchmark extends TestCase {
+    private static final String TAG = AttractionDistancesBenchmark.class.getSimpleName();
+
+    private static final String CITY = "Benchmark";
+    private static final LatLng CITY_LOCATION = new LatLng(-33.873651, 151.2068896);
+    private static final int ATTRACTION_COUNT = 500;
+    private static final int BINDS = 20000;
+    private static final int ROUNDS = 5;
+
+    private AttractionCatalog mOriginal;
+    private List<Attraction> mAttractions;
+    private LatLng mLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mOriginal = TouristAttractions.getCatalog();
+
+        Random random = new Random(11);
+        List<Attraction> attractions = new ArrayList<>(ATTRACTION_COUNT);
+        for (int i = 0; i < ATTRACTION_COUNT; i++) {
+            Uri image = Uri.parse("http://example.com/" + i + ".jpg");
+            attractions.add(new Attraction("Attraction " + i, "", "", image, image,
+                    new LatLng(CITY_LOCATION.latitude + random.nextDouble() * 0.2 - 0.1,
+                            CITY_LOCATION.longitude + random.nextDouble() * 0.2 - 0.1),
+                    CITY));
+        }
+        HashMap<String, LatLng> cities = new HashMap<>();
+        cities.put(CITY, CITY_LOCATION);
+        HashMap<String, List<Attraction>> cityAttractions = new HashMap<>();
+        cityAttractions.put(CITY, attractions);
+        mAttractions = TouristAttractions.reload(cities, cityAttractions).getAttractions(CITY);
+        mLocation = new LatLng(CITY_LOCATION.latitude + 0.01, CITY_LOCATION.longitude);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        // Put the original data back for the other tests
+        HashMap<String, LatLng> cities = new HashMap<>();
+        HashMap<String, List<Attraction>> attractions = new HashMap<>();
+        for (String city : mOriginal.getCities()) {
+            cities.put(city, mOriginal.getCityLocation(city));
+            attractions.put(city, new ArrayList<>(mOriginal.getAttractions(city)));
+        }
+        TouristAttractions.reload(cities, attractions);
+        super.tearDown();
+    }
+
+    public void testUnknownLocationIsShared() {
+        AttractionDistances unknown = AttractionDistances.get(null);
+        assertSame(unknown, AttractionDistances.get(null));
+        assertTrue(Double.isNaN(unknown.getDistance(mAttractions.get(0))));
+        assertNull(unknown.formatDistance(mAttractions.get(0)));
+    }
+
+    public void testMatchesPerBindComputation() {
+        AttractionDistances distances = AttractionDistances.get(mLocation);
+        for (Attraction attraction : mAttractions) {
+            assertEquals(Utils.formatDistanceBetween(mLocation, attraction.location),
+                    distances.formatDistance(attraction));
+            assertEquals(SphericalUtil.computeDistanceBetween(mLocation, attraction.location),
+                    distances.getDistance(attraction), 1e-6);
+        }
+    }
+
+    public void testBind() {
+        for (int round = 0; round < ROUNDS; round++) {
+            long perBindNanos = timePerBind();
+            long tableNanos = timeTable();
+            Log.d(TAG, String.format("Round %d, %d binds of %d attractions: "
+                            + "per bind %.2fus/bind, table %.2fus/bind (%.1fx)",
+                    round, BINDS, ATTRACTION_COUNT, perBindNanos / 1e3 / BINDS,
+                    tableNanos / 1e3 / BINDS, (double) perBindNanos / tableNanos));
+        }
+
+        long sortPerBindNanos = timeSort(new Comparator<Attraction>() {
+            @Override
+            public int compare(Attraction lhs, Attraction rhs) {
+                return Double.compare(
+                        SphericalUtil.computeDistanceBetween(mLocation, lhs.location),
+                        SphericalUtil.computeDistanceBetween(mLocation, rhs.location));
+            }
+        });
+        final AttractionDistances distances = AttractionDistances.get(mLocation);
+        long sortTableNanos = timeSort(new Comparator<Attraction>() {
+            @Override
+            public int compare(Attraction lhs, Attraction rhs) {
+                return Double.compare(distances.getDistance(lhs), distances.getDistance(rhs));
+            }
+        });
+        Log.d(TAG, String.format("Sorting %d attractions: per comparison %.2fms, "
+                        + "table %.2fms", ATTRACTION_COUNT,
+                sortPerBindNanos / 1e6, sortTableNanos / 1e6));
+    }
+
+    /**
+     * The old way, computing and formatting the distance on every bind.
+     */
+    private long timePerBind() {
+        int checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < BINDS; i++) {
+            Attraction attraction = mAttractions.get(i % ATTRACTION_COUNT);
+            checksum += Utils.formatDistanceBetween(mLocation, attraction.location).length();
+        }
+        long nanos = System.nanoTime() - start;
+        assertTrue(checksum > 0);
+        return nanos;
+    }
+
+    /**
+     * Looking the distance up in the shared table, as the list does now.
+     */
+    private long timeTable() {
+        int checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < BINDS; i++) {
+            Attraction attraction = mAttractions.get(i % ATTRACTION_COUNT);
+            checksum += AttractionDistances.get(mLocation).formatDistance(attraction).length();
+        }
+        long nanos = System.nanoTime() - start;
+        assertTrue(checksum > 0);
+        return nanos;
+    }
+
+    private long timeSort(Comparator<Attraction> comparator) {
+        List<Attraction> attractions = new ArrayList<>(mAttractions);
+        Collections.shuffle(attractions, new Random(5));
+        long start = System.nanoTime();
+        Collections.sort(attractions, comparator);
+        return System.nanoTime() - start;
+    }
+}
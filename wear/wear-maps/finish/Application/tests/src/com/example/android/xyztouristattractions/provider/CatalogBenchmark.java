@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.provider;
+
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.example.android.xyztouristattractions.common.Attraction;
+import com.google.android.gms.maps.model.LatLng;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Times opening the memory-mapped {@link BinaryCatalog} asset against
+ * parsing catalog/attractions.json into a {@link AttractionCatalog.MapSource}
+ * catalog, the way the data could be shipped instead, and compares the heap
+ * each catalog holds on to. Results are logged, filter logcat by
+ * "CatalogBenchmark".
+ */
+public class CatalogBenchmark extends InstrumentationTestCase {
+    private static final String TAG = CatalogBenchmark.class.getSimpleName();
+
+    private static final String BINARY_ASSET = "attractions.catalog";
+    private static final String JSON_ASSET = "attractions.json";
+    private static final int ROUNDS = 5;
+
+    private interface Loader {
+        AttractionCatalog load() throws Exception;
+    }
+
+    private final Loader mBinaryLoader = new Loader() {
+        @Override
+        public AttractionCatalog load() throws IOException {
+            return new AttractionCatalog(1, BinaryCatalog.open(
+                    getInstrumentation().getTargetContext().getAssets(), BINARY_ASSET));
+        }
+    };
+
+    private final Loader mJsonLoader = new Loader() {
+        @Override
+        public AttractionCatalog load() throws IOException, JSONException {
+            return readJson();
+        }
+    };
+
+    public void testSameData() throws Exception {
+        AttractionCatalog binary = mBinaryLoader.load();
+        AttractionCatalog json = mJsonLoader.load();
+        assertEquals(json.getCities(), binary.getCities());
+        assertEquals(json.getAttractionCount(), binary.getAttractionCount());
+        for (String city : json.getCities()) {
+            List<Attraction> expected = json.getAttractions(city);
+            List<Attraction> actual = binary.getAttractions(city);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).name, actual.get(i).name);
+                assertEquals(expected.get(i).description, actual.get(i).description);
+                assertEquals(expected.get(i).imageUrl, actual.get(i).imageUrl);
+                assertEquals(expected.get(i).location, actual.get(i).location);
+            }
+        }
+    }
+
+    public void testOpen() throws Exception {
+        // Warm up the code paths and the asset files before timing
+        mBinaryLoader.load();
+        mJsonLoader.load();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long[] binary = time(mBinaryLoader);
+            long[] json = time(mJsonLoader);
+            Log.d(TAG, String.format("Round %d: binary open %.2fms, first list %.2fms, "
+                            + "heap %dKB; json open %.2fms, first list %.2fms, heap %dKB",
+                    round, binary[0] / 1e6, binary[1] / 1e6, binary[2] / 1024,
+                    json[0] / 1e6, json[1] / 1e6, json[2] / 1024));
+        }
+    }
+
+    /**
+     * Returns the nanoseconds to open a catalog and to then list the
+     * attractions nearest to the first city, as the list does on startup,
+     * and the bytes of heap the catalog holds once both are done.
+     */
+    private static long[] time(Loader loader) throws Exception {
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        AttractionCatalog catalog = loader.load();
+        long openNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        String city = catalog.getCities().iterator().next();
+        List<Attraction> nearest = catalog.getNearestAttractions(
+                city, catalog.getCityLocation(city), Integer.MAX_VALUE);
+        for (Attraction attraction : nearest) {
+            assertNotNull(attraction.description);
+        }
+        long listNanos = System.nanoTime() - start;
+
+        long heap = usedHeap() - heapBefore;
+        // Keep the catalog reachable until the heap is measured
+        assertTrue(catalog.getAttractionCount() > 0);
+        return new long[] {openNanos, listNanos, heap};
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+            runtime.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Parse the catalog source data into a catalog, keeping its order.
+     */
+    private AttractionCatalog readJson() throws IOException, JSONException {
+        InputStream in = getInstrumentation().getContext().getAssets().open(JSON_ASSET);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+
+        JSONArray cities = new JSONObject(out.toString("UTF-8")).getJSONArray("cities");
+        HashMap<String, LatLng> cityLocations = new HashMap<>();
+        HashMap<String, List<Attraction>> attractions = new HashMap<>();
+        for (int i = 0; i < cities.length(); i++) {
+            JSONObject city = cities.getJSONObject(i);
+            String name = city.getString("name");
+            cityLocations.put(name, new LatLng(city.getDouble("lat"), city.getDouble("lng")));
+
+            JSONArray cityAttractions = city.getJSONArray("attractions");
+            List<Attraction> list = new ArrayList<>(cityAttractions.length());
+            for (int j = 0; j < cityAttractions.length(); j++) {
+                JSONObject attraction = cityAttractions.getJSONObject(j);
+                list.add(new Attraction(
+                        attraction.getString("name"),
+                        attraction.getString("description"),
+                        attraction.getString("longDescription"),
+                        Uri.parse(attraction.getString("imageUrl")),
+                        Uri.parse(attraction.getString("secondaryImageUrl")),
+                        new LatLng(attraction.getDouble("lat"), attraction.getDouble("lng")),
+                        name));
+            }
+            attractions.put(name, list);
+        }
+        return new AttractionCatalog(1, cityLocations, attractions);
+    }
+}
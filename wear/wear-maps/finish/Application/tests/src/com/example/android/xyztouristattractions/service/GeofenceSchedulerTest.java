@@ -0,0 +1,197 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.service;
+
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.xyztouristattractions.common.LocationIndex;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.SphericalUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Replays a trip past many cities through {@link GeofenceScheduler}, the way
+ * UtilityService drives it on each location fix, against a fake registrar.
+ * Checks the registered geofences always end up as the planned ones, that
+ * only changes are sent, and that a failed add is retried on the next fix.
+ * The churn is logged, filter logcat by "GeofenceSchedulerTest".
+ */
+public class GeofenceSchedulerTest extends AndroidTestCase {
+    private static final String TAG = GeofenceSchedulerTest.class.getSimpleName();
+
+    private static final int CITY_COUNT = 1000;
+    private static final int STEPS = 200;
+
+    private LocationIndex<String> mCities;
+    private List<LatLng> mTrip;
+    private FakeRegistrar mRegistrar;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Random random = new Random(3);
+
+        // Cities scattered over a region about 2000km across
+        HashMap<String, LatLng> cities = new HashMap<>(CITY_COUNT);
+        for (int i = 0; i < CITY_COUNT; i++) {
+            cities.put("city" + i, new LatLng(
+                    -40 + random.nextDouble() * 20, 140 + random.nextDouble() * 20));
+        }
+        mCities = new LocationIndex<>(cities);
+
+        // A trip across the region in steps of roughly 7km
+        mTrip = new ArrayList<>(STEPS);
+        for (int i = 0; i < STEPS; i++) {
+            mTrip.add(new LatLng(-35 + i * 0.05, 145 + i * 0.05));
+        }
+
+        mRegistrar = new FakeRegistrar();
+        clearPlan();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearPlan();
+        super.tearDown();
+    }
+
+    public void testDifference() {
+        assertEquals(Arrays.asList("a", "c"), GeofenceScheduler.difference(
+                Arrays.asList("a", "b", "c"), Arrays.asList("b", "d")));
+        assertEquals(Collections.<String>emptyList(), GeofenceScheduler.difference(
+                Collections.<String>emptyList(), Arrays.asList("a")));
+    }
+
+    public void testReplayTrip() {
+        LatLng planLocation = null;
+        for (LatLng location : mTrip) {
+            boolean needsPlan = GeofenceScheduler.needsPlan(getContext(), location);
+            // Re-planned exactly when the user leaves the radius of the last plan
+            assertEquals(planLocation == null || SphericalUtil.computeDistanceBetween(
+                    planLocation, location) > GeofenceScheduler.REBUILD_RADIUS, needsPlan);
+            if (needsPlan) {
+                assertTrue(GeofenceScheduler.plan(getContext(), mRegistrar, location, false));
+                planLocation = location;
+                assertEquals(nearest(location), mRegistrar.mRegistered);
+            }
+        }
+
+        // Planning at every fix and registering every geofence each time would
+        // send this many
+        int fullRegistrations = STEPS * GeofenceScheduler.MAX_GEOFENCES;
+        Log.d(TAG, String.format("%d fixes: %d plans, %d added, %d removed, "
+                        + "against %d added registering everything on every fix", STEPS,
+                mRegistrar.mPlans, mRegistrar.mAdded, mRegistrar.mRemoved, fullRegistrations));
+        assertTrue("Planned " + mRegistrar.mPlans + " times", mRegistrar.mPlans <= STEPS / 2);
+        assertTrue("Added " + mRegistrar.mAdded + " of " + fullRegistrations,
+                mRegistrar.mAdded < fullRegistrations / 10);
+        assertEquals(mRegistrar.mAdded - mRegistrar.mRemoved, mRegistrar.mRegistered.size());
+    }
+
+    public void testFailedAddIsRetried() {
+        LatLng start = mTrip.get(0);
+        assertTrue(GeofenceScheduler.plan(getContext(), mRegistrar, start, false));
+        assertFalse(GeofenceScheduler.needsPlan(getContext(), start));
+
+        // The add fails after the removals went through, so the plan location
+        // isn't saved and the next fix nearby asks for a plan again
+        LatLng moved = mTrip.get(50);
+        mRegistrar.mFailAdds = true;
+        assertFalse(GeofenceScheduler.plan(getContext(), mRegistrar, moved, false));
+        Set<String> missing = new HashSet<>(nearest(moved));
+        missing.removeAll(mRegistrar.mRegistered);
+        assertFalse(missing.isEmpty());
+        assertTrue(GeofenceScheduler.needsPlan(getContext(), moved));
+
+        // The retry adds exactly what failed and removes nothing
+        mRegistrar.mFailAdds = false;
+        int added = mRegistrar.mAdded;
+        int removed = mRegistrar.mRemoved;
+        assertTrue(GeofenceScheduler.plan(getContext(), mRegistrar, moved, false));
+        assertEquals(missing.size(), mRegistrar.mAdded - added);
+        assertEquals(removed, mRegistrar.mRemoved);
+        assertEquals(nearest(moved), mRegistrar.mRegistered);
+        assertFalse(GeofenceScheduler.needsPlan(getContext(), moved));
+    }
+
+    public void testResetAddsEveryPlannedGeofence() {
+        assertTrue(GeofenceScheduler.plan(getContext(), mRegistrar, mTrip.get(0), false));
+        int added = mRegistrar.mAdded;
+        assertTrue(GeofenceScheduler.plan(getContext(), mRegistrar, mTrip.get(1), true));
+        assertEquals(GeofenceScheduler.MAX_GEOFENCES, mRegistrar.mAdded - added);
+        assertEquals(nearest(mTrip.get(1)), mRegistrar.mRegistered);
+    }
+
+    private Set<String> nearest(LatLng location) {
+        return new HashSet<>(mCities.nearest(location, GeofenceScheduler.MAX_GEOFENCES));
+    }
+
+    private void clearPlan() {
+        PreferenceManager.getDefaultSharedPreferences(getContext()).edit()
+                .remove(GeofenceScheduler.PREFERENCES_REGISTERED)
+                .remove(GeofenceScheduler.PREFERENCES_PLAN_LAT)
+                .remove(GeofenceScheduler.PREFERENCES_PLAN_LNG)
+                .commit();
+    }
+
+    /**
+     * Keeps the registered geofences in memory, checking that nothing is
+     * added twice or removed without being registered.
+     */
+    private class FakeRegistrar implements GeofenceScheduler.Registrar {
+        final Set<String> mRegistered = new HashSet<>();
+        boolean mFailAdds;
+        int mPlans;
+        int mAdded;
+        int mRemoved;
+
+        @Override
+        public List<String> getNearestCities(LatLng location, int count) {
+            mPlans++;
+            return mCities.nearest(location, count);
+        }
+
+        @Override
+        public boolean removeGeofences(List<String> cities) {
+            for (String city : cities) {
+                assertTrue("Removed but not registered: " + city, mRegistered.remove(city));
+            }
+            mRemoved += cities.size();
+            return true;
+        }
+
+        @Override
+        public boolean addGeofences(List<String> cities) {
+            if (mFailAdds) {
+                return false;
+            }
+            mRegistered.addAll(cities);
+            mAdded += cities.size();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.service;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.xyztouristattractions.common.Attraction;
+import com.example.android.xyztouristattractions.common.AttractionSync;
+import com.example.android.xyztouristattractions.common.Constants;
+import com.example.android.xyztouristattractions.provider.TouristAttractions;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.PutDataRequest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Syncs attractions through {@link WearableDataSync} to a fake data store
+ * and checks that a second sync only puts what changed, counting the bytes
+ * sent. The byte counts are logged, filter logcat by "WearableDataSyncTest".
+ */
+public class WearableDataSyncTest extends AndroidTestCase {
+    private static final String TAG = WearableDataSyncTest.class.getSimpleName();
+
+    private static final String CITY = "Testville";
+    private static final LatLng CITY_LOCATION = new LatLng(-33.87, 151.21);
+    private static final int ATTRACTION_COUNT = 5;
+    private static final int IMAGE_BYTES = 20 * 1024;
+
+    private FakeDataStore mDataStore;
+    private List<Attraction> mAttractions;
+    private HashMap<String, ImagePrefetcher.Images> mImages;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TouristAttractions.init(getContext());
+        WearableDataSync.reset();
+        mDataStore = new FakeDataStore();
+
+        mAttractions = new ArrayList<>(ATTRACTION_COUNT);
+        mImages = new HashMap<>();
+        for (int i = 0; i < ATTRACTION_COUNT; i++) {
+            Attraction attraction = createAttraction("Attraction " + i, "Description " + i);
+            mAttractions.add(attraction);
+            mImages.put(attraction.name, createImages(i));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        WearableDataSync.reset();
+        super.tearDown();
+    }
+
+    public void testFirstSyncPutsEverything() {
+        assertTrue(sync(mAttractions));
+
+        assertEquals(getItemPaths(mAttractions), mDataStore.mItemPuts);
+        assertEquals(1, mDataStore.mIndexPuts);
+        assertEquals(ATTRACTION_COUNT, mDataStore.mAssetPuts);
+        assertEquals(ATTRACTION_COUNT * IMAGE_BYTES, mDataStore.mAssetBytes);
+    }
+
+    public void testSecondSyncOnlyPutsChangedItem() {
+        assertTrue(sync(mAttractions));
+        long fullPayloadBytes = mDataStore.getBytes();
+        mDataStore.clearCounts();
+
+        // A new description and image for one attraction, the others as they were
+        List<Attraction> changed = new ArrayList<>(mAttractions);
+        Attraction old = changed.get(2);
+        Attraction updated = createAttraction(old.name, "A new description");
+        updated.imageUrl = Uri.parse("http://example.com/new.jpg");
+        changed.set(2, updated);
+        mImages.put(updated.name, createImages(ATTRACTION_COUNT));
+
+        assertTrue(sync(changed));
+
+        assertEquals(Collections.singletonList(AttractionSync.getItemPath(updated)),
+                mDataStore.mItemPuts);
+        assertEquals(1, mDataStore.mIndexPuts);
+        assertEquals(1, mDataStore.mAssetPuts);
+        assertEquals(IMAGE_BYTES, mDataStore.mAssetBytes);
+        assertTrue(mDataStore.mDeletes.isEmpty());
+
+        long deltaBytes = mDataStore.getBytes();
+        Log.d(TAG, String.format("Second sync sent %d bytes, full payload %d bytes",
+                deltaBytes, fullPayloadBytes));
+        assertTrue(deltaBytes < fullPayloadBytes / 2);
+    }
+
+    public void testUnchangedSyncOnlyPutsIndex() {
+        assertTrue(sync(mAttractions));
+        mDataStore.clearCounts();
+
+        assertTrue(sync(mAttractions));
+
+        assertTrue(mDataStore.mItemPuts.isEmpty());
+        assertEquals(1, mDataStore.mIndexPuts);
+        assertEquals(0, mDataStore.mAssetPuts);
+    }
+
+    public void testStaleItemsAreDeleted() {
+        // An item put by an earlier process, only known to the data store
+        String leftOver = Constants.ATTRACTION_ITEM_PATH + "/Elsewhere/Old";
+        mDataStore.mStoredPaths.add(leftOver);
+
+        assertTrue(sync(mAttractions));
+        assertEquals(Collections.singletonList(leftOver), mDataStore.mDeletes);
+        mDataStore.clearCounts();
+
+        // Drop the last two attractions, as when moving to another city
+        List<Attraction> fewer = mAttractions.subList(0, ATTRACTION_COUNT - 2);
+        assertTrue(sync(fewer));
+
+        assertTrue(mDataStore.mItemPuts.isEmpty());
+        assertEquals(new HashSet<>(getItemPaths(mAttractions.subList(
+                        ATTRACTION_COUNT - 2, ATTRACTION_COUNT))),
+                new HashSet<>(mDataStore.mDeletes));
+        assertEquals(new HashSet<>(getItemPaths(fewer)), mDataStore.mStoredPaths);
+    }
+
+    public void testFailedPutIsRetried() {
+        mDataStore.mFailPuts = true;
+        assertFalse(sync(mAttractions));
+        assertTrue(mDataStore.mItemPuts.isEmpty());
+
+        mDataStore.mFailPuts = false;
+        assertTrue(sync(mAttractions));
+        assertEquals(getItemPaths(mAttractions), mDataStore.mItemPuts);
+    }
+
+    private boolean sync(List<Attraction> attractions) {
+        return WearableDataSync.sync(mDataStore, attractions, mImages, CITY_LOCATION);
+    }
+
+    private static Attraction createAttraction(String name, String description) {
+        return new Attraction(name, description, description + " and more",
+                Uri.parse("http://example.com/" + name.replace(' ', '_') + ".jpg"),
+                Uri.parse("http://example.com/" + name.replace(' ', '_') + "_2.jpg"),
+                CITY_LOCATION, CITY);
+    }
+
+    /**
+     * Images with bytes that differ for each seed, standing in for encoded images.
+     */
+    private static ImagePrefetcher.Images createImages(int seed) {
+        ImagePrefetcher.Images images = new ImagePrefetcher.Images();
+        images.imageData = new byte[IMAGE_BYTES];
+        Arrays.fill(images.imageData, (byte) seed);
+        return images;
+    }
+
+    private static List<String> getItemPaths(List<Attraction> attractions) {
+        List<String> paths = new ArrayList<>(attractions.size());
+        for (Attraction attraction : attractions) {
+            paths.add(AttractionSync.getItemPath(attraction));
+        }
+        return paths;
+    }
+
+    /**
+     * Records what is put and deleted. Like the DataApi, an asset whose
+     * content has been sent before is not transferred again.
+     */
+    private static class FakeDataStore implements WearableDataSync.DataStore {
+        final HashSet<String> mStoredPaths = new HashSet<>();
+        final HashSet<String> mTransferredAssets = new HashSet<>();
+        final List<String> mItemPuts = new ArrayList<>();
+        final List<String> mDeletes = new ArrayList<>();
+        int mIndexPuts;
+        int mAssetPuts;
+        long mAssetBytes;
+        long mDataBytes;
+        boolean mFailPuts;
+
+        @Override
+        public boolean put(PutDataRequest request) {
+            if (mFailPuts) {
+                return false;
+            }
+            String path = request.getUri().getPath();
+            if (Constants.ATTRACTION_PATH.equals(path)) {
+                mIndexPuts++;
+            } else {
+                mItemPuts.add(path);
+                mStoredPaths.add(path);
+            }
+            mDataBytes += request.getData().length;
+            for (Asset asset : request.getAssets().values()) {
+                byte[] data = asset.getData();
+                if (mTransferredAssets.add(AttractionSync.hash(data))) {
+                    mAssetPuts++;
+                    mAssetBytes += data.length;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public List<String> getStoredItemPaths() {
+            return new ArrayList<>(mStoredPaths);
+        }
+
+        @Override
+        public int delete(String path) {
+            mDeletes.add(path);
+            return mStoredPaths.remove(path) ? 1 : 0;
+        }
+
+        long getBytes() {
+            return mDataBytes + mAssetBytes;
+        }
+
+        void clearCounts() {
+            mItemPuts.clear();
+            mDeletes.clear();
+            mIndexPuts = 0;
+            mAssetPuts = 0;
+            mAssetBytes = 0;
+            mDataBytes = 0;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.ui;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import com.example.android.xyztouristattractions.common.StartupTrace;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Launches the attraction list and checks the {@link StartupTrace} timings
+ * against the cold start budget and the baseline in
+ * tests/assets/startup_baseline.csv. Timings are offsets from when the app's
+ * Application was created, so under instrumentation they include the test
+ * runner starting up before the activity is launched; the baseline must be
+ * measured the same way.
+ *
+ * The baseline was measured on the device it names, and is only compared
+ * against on that device; other devices are only held to the budget. The
+ * timings are also logged and written to startup.csv in the app's external
+ * files directory, in the format of the baseline. To update the baseline,
+ * run this class on its own on the reference device (only the first launch
+ * in a process is traced) and copy the results over it:
+ *
+ * <pre>
+ * adb shell am instrument -w -e class \
+ *     com.example.android.xyztouristattractions.ui.AttractionListStartupTest \
+ *     com.example.android.xyztouristattractions.test/android.test.InstrumentationTestRunner
+ * adb pull /sdcard/Android/data/com.example.android.xyztouristattractions/files/startup.csv \
+ *     Application/tests/assets/startup_baseline.csv
+ * </pre>
+ *
+ * Run it a few times first and commit a typical run rather than the fastest.
+ */
+public class AttractionListStartupTest
+        extends ActivityInstrumentationTestCase2<AttractionListActivity> {
+    private static final String TAG = AttractionListStartupTest.class.getSimpleName();
+
+    private static final String BASELINE_ASSET = "startup_baseline.csv";
+    private static final String RESULTS_FILE = "startup.csv";
+    private static final String HEADER = "name,offset_ms,duration_ms";
+    private static final String DEVICE_PREFIX = "# device: ";
+    private static final long FIRST_ITEM_TIMEOUT_MS = 10000;
+
+    // A timing may exceed the baseline by this factor before the test fails
+    private static final double TOLERANCE = 1.2;
+
+    public AttractionListStartupTest() {
+        super(AttractionListActivity.class);
+    }
+
+    public void testColdStart() throws Exception {
+        getActivity();
+        Map<String, long[]> timings = awaitFirstItemBound();
+        assertNotNull("No item bound within " + FIRST_ITEM_TIMEOUT_MS + "ms", timings);
+        writeResults(timings);
+
+        long firstItemBound = timings.get(StartupTrace.FIRST_ITEM_BOUND)[0];
+        assertTrue(String.format("First item bound at +%dms, budget %dms", firstItemBound,
+                        StartupTrace.COLD_START_BUDGET_MS),
+                firstItemBound <= StartupTrace.COLD_START_BUDGET_MS);
+
+        String device = getDevice();
+        String baselineDevice = readBaselineDevice();
+        if (baselineDevice == null) {
+            Log.w(TAG, "No baseline measured yet, only the budget was checked");
+            return;
+        } else if (!device.equals(baselineDevice)) {
+            Log.w(TAG, "No baseline for " + device + ", it was measured on " + baselineDevice);
+            return;
+        }
+        for (Map.Entry<String, long[]> baseline : readBaseline().entrySet()) {
+            long[] timing = timings.get(baseline.getKey());
+            if (timing == null) {
+                // Not reached in this process, eg. an earlier test opened the catalog
+                continue;
+            }
+            assertWithinBaseline(baseline.getKey() + " offset", baseline.getValue()[0], timing[0]);
+            assertWithinBaseline(baseline.getKey() + " duration",
+                    baseline.getValue()[1], timing[1]);
+        }
+    }
+
+    private static void assertWithinBaseline(String name, long baselineMs, long actualMs) {
+        assertTrue(String.format("%s %dms, baseline %dms", name, actualMs, baselineMs),
+                actualMs <= baselineMs * TOLERANCE);
+    }
+
+    /**
+     * Returns the timings once the first item is bound, or null on timeout.
+     */
+    private static Map<String, long[]> awaitFirstItemBound() throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + FIRST_ITEM_TIMEOUT_MS;
+        while (SystemClock.elapsedRealtime() < deadline) {
+            Map<String, long[]> timings = StartupTrace.getTimings();
+            if (timings.containsKey(StartupTrace.FIRST_ITEM_BOUND)) {
+                return timings;
+            }
+            Thread.sleep(50);
+        }
+        return null;
+    }
+
+    /**
+     * The device the timings are measured on, as named in the baseline.
+     */
+    private static String getDevice() {
+        return String.format("%s %s, API %d", Build.MANUFACTURER, Build.MODEL,
+                Build.VERSION.SDK_INT);
+    }
+
+    /**
+     * Returns the device the baseline was measured on, or null if none is named.
+     */
+    private String readBaselineDevice() throws IOException {
+        for (String line : readBaselineLines()) {
+            if (line.startsWith(DEVICE_PREFIX)) {
+                return line.substring(DEVICE_PREFIX.length());
+            }
+        }
+        return null;
+    }
+
+    private Map<String, long[]> readBaseline() throws IOException {
+        LinkedHashMap<String, long[]> baseline = new LinkedHashMap<>();
+        for (String line : readBaselineLines()) {
+            if (line.isEmpty() || line.startsWith("#") || line.equals(HEADER)) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            baseline.put(fields[0], new long[] {
+                    Long.parseLong(fields[1]), Long.parseLong(fields[2])});
+        }
+        return baseline;
+    }
+
+    private List<String> readBaselineLines() throws IOException {
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                getInstrumentation().getContext().getAssets().open(BASELINE_ASSET), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    private void writeResults(Map<String, long[]> timings) throws IOException {
+        File directory = getActivity().getExternalFilesDir(null);
+        if (directory == null) {
+            directory = getActivity().getFilesDir();
+        }
+        File file = new File(directory, RESULTS_FILE);
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write("# Cold start baseline for AttractionListStartupTest, in ms. Offsets are\n"
+                    + "# from when the Application was created, durations are for sections.\n"
+                    + "# See the test for how to update it.\n");
+            writer.write(DEVICE_PREFIX + getDevice() + "\n");
+            writer.write(HEADER + "\n");
+            for (Map.Entry<String, long[]> timing : timings.entrySet()) {
+                String row = String.format("%s,%d,%d", timing.getKey(),
+                        timing.getValue()[0], timing.getValue()[1]);
+                writer.write(row + "\n");
+                Log.d(TAG, row);
+            }
+        } finally {
+            writer.close();
+        }
+        Log.d(TAG, "Timings written to " + file);
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.common;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.Api;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one long-lived {@link GoogleApiClient} per set of APIs so that bursts
+ * of work (eg. several geofence or location intents in a row) only pay the
+ * connection handshake once.
+ *
+ * Callers {@link #acquire(ApiSet)} a connected client and must
+ * {@link #release(ApiSet)} it when done. Once no one holds a client it is
+ * disconnected after {@link #IDLE_DISCONNECT_MS} of inactivity.
+ *
+ * As acquire() blocks while connecting, only call it from a background thread.
+ * Idle clients are disconnected on a background thread of their own, as the
+ * disconnect has to wait for any connect in progress.
+ */
+public class ApiClientManager {
+    private static final String TAG = ApiClientManager.class.getSimpleName();
+
+    // How long an unused client stays connected before being disconnected
+    public static final long IDLE_DISCONNECT_MS = 30 * 1000; // 30 seconds
+
+    public static final ApiSet WEARABLE = new ApiSet("Wearable", Wearable.API);
+    public static final ApiSet LOCATION = new ApiSet("LocationServices", LocationServices.API);
+
+    private static ApiClientManager sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final HashMap<ApiSet, PooledClient> mClients = new HashMap<>();
+
+    public static synchronized ApiClientManager getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ApiClientManager(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ApiClientManager(Context context) {
+        mContext = context;
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Get a connected client for a set of APIs, connecting it first if
+     * needed. Every call that returns a client must be balanced by a call to
+     * {@link #release(ApiSet)}.
+     *
+     * @param apiSet the APIs the client needs
+     * @return a connected client, or null if the connection failed
+     */
+    public GoogleApiClient acquire(ApiSet apiSet) {
+        PooledClient pooledClient;
+        synchronized (mClients) {
+            pooledClient = mClients.get(apiSet);
+            if (pooledClient == null) {
+                pooledClient = new PooledClient(apiSet);
+                mClients.put(apiSet, pooledClient);
+            }
+            pooledClient.mRefCount++;
+            mHandler.removeCallbacks(pooledClient.mIdleDisconnect);
+        }
+
+        synchronized (pooledClient) {
+            if (pooledClient.mClient.isConnected()) {
+                return pooledClient.mClient;
+            }
+
+            // It's OK to use blockingConnect() here as callers are required
+            // to be on a background thread.
+            long startTime = SystemClock.elapsedRealtime();
+            ConnectionResult connectionResult = pooledClient.mClient.blockingConnect(
+                    Constants.GOOGLE_API_CLIENT_TIMEOUT_S, TimeUnit.SECONDS);
+            boolean success = connectionResult.isSuccess() && pooledClient.mClient.isConnected();
+            synchronized (mClients) {
+                pooledClient.mStats.record(SystemClock.elapsedRealtime() - startTime, success);
+                Log.d(TAG, apiSet.mName + " " + pooledClient.mStats);
+            }
+
+            if (success) {
+                return pooledClient.mClient;
+            }
+            Log.e(TAG, String.format(Constants.GOOGLE_API_CLIENT_ERROR_MSG,
+                    connectionResult.getErrorCode()));
+        }
+
+        release(apiSet);
+        return null;
+    }
+
+    /**
+     * Release a client previously returned by {@link #acquire(ApiSet)}.
+     */
+    public void release(ApiSet apiSet) {
+        synchronized (mClients) {
+            PooledClient pooledClient = mClients.get(apiSet);
+            if (pooledClient == null || pooledClient.mRefCount == 0) {
+                Log.w(TAG, "release() called without matching acquire() for " + apiSet.mName);
+                return;
+            }
+            pooledClient.mRefCount--;
+            if (pooledClient.mRefCount == 0) {
+                mHandler.postDelayed(pooledClient.mIdleDisconnect, IDLE_DISCONNECT_MS);
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the connection latency stats for a set of APIs.
+     */
+    public ConnectStats getConnectStats(ApiSet apiSet) {
+        synchronized (mClients) {
+            PooledClient pooledClient = mClients.get(apiSet);
+            return pooledClient == null ? new ConnectStats() : pooledClient.mStats.copy();
+        }
+    }
+
+    /**
+     * A named set of APIs that share a single client.
+     */
+    public static final class ApiSet {
+        private final String mName;
+        private final Api<? extends Api.ApiOptions.NotRequiredOptions>[] mApis;
+
+        @SafeVarargs
+        public ApiSet(String name, Api<? extends Api.ApiOptions.NotRequiredOptions>... apis) {
+            mName = name;
+            mApis = apis;
+        }
+
+        public String getName() {
+            return mName;
+        }
+    }
+
+    /**
+     * Connection latency counters for a single client.
+     */
+    public static final class ConnectStats {
+        public int connects;
+        public int failures;
+        public long totalMs;
+        public long maxMs;
+        public long lastMs;
+
+        void record(long durationMs, boolean success) {
+            if (success) {
+                connects++;
+            } else {
+                failures++;
+            }
+            totalMs += durationMs;
+            maxMs = Math.max(maxMs, durationMs);
+            lastMs = durationMs;
+        }
+
+        public long getAverageMs() {
+            int attempts = connects + failures;
+            return attempts == 0 ? 0 : totalMs / attempts;
+        }
+
+        ConnectStats copy() {
+            ConnectStats copy = new ConnectStats();
+            copy.connects = connects;
+            copy.failures = failures;
+            copy.totalMs = totalMs;
+            copy.maxMs = maxMs;
+            copy.lastMs = lastMs;
+            return copy;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("connect took %dms (avg %dms, max %dms, %d ok, %d failed)",
+                    lastMs, getAverageMs(), maxMs, connects, failures);
+        }
+    }
+
+    private class PooledClient {
+        final GoogleApiClient mClient;
+        final ConnectStats mStats = new ConnectStats();
+        int mRefCount;
+
+        final Runnable mIdleDisconnect = new Runnable() {
+            @Override
+            public void run() {
+                // Hold the client lock first so a concurrent acquire() either
+                // keeps the client alive or waits and reconnects afterwards.
+                // This may wait for a connect to time out, so it must not
+                // run on the main thread.
+                synchronized (PooledClient.this) {
+                    synchronized (mClients) {
+                        if (mRefCount > 0) {
+                            return;
+                        }
+                    }
+                    mClient.disconnect();
+                }
+            }
+        };
+
+        PooledClient(ApiSet apiSet) {
+            GoogleApiClient.Builder builder = new GoogleApiClient.Builder(mContext);
+            for (Api<? extends Api.ApiOptions.NotRequiredOptions> api : apiSet.mApis) {
+                builder.addApi(api);
+            }
+            mClient = builder.build();
+        }
+    }
+}
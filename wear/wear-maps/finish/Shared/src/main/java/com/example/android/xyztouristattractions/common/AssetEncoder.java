@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.common;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.google.android.gms.wearable.Asset;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Encodes bitmaps into wearable assets. Photos are sent over Bluetooth, so
+ * rather than lossless PNG the default encoder uses lossy WebP and lowers
+ * the quality further if needed to keep each asset under a byte budget.
+ */
+public class AssetEncoder {
+    private static final String TAG = AssetEncoder.class.getSimpleName();
+
+    // Quality will never be lowered below this to meet the byte budget
+    private static final int MIN_QUALITY = 40;
+
+    /**
+     * The encoder used for the images stored in the {@link ImageStore} and
+     * sent to the wearable. See AssetEncoderBenchmark for how the formats
+     * compare.
+     */
+    public static final AssetEncoder DEFAULT = new AssetEncoder(Bitmap.CompressFormat.WEBP,
+            Constants.ASSET_IMAGE_QUALITY, Constants.ASSET_IMAGE_MAX_BYTES);
+
+    // One reusable output buffer per thread, so encoding doesn't have to
+    // grow a new buffer from scratch for every image
+    private static final ThreadLocal<PooledOutputStream> sOutputStreams =
+            new ThreadLocal<PooledOutputStream>() {
+                @Override
+                protected PooledOutputStream initialValue() {
+                    return new PooledOutputStream();
+                }
+            };
+
+    private final Bitmap.CompressFormat mFormat;
+    private final int mQuality;
+    private final int mMaxBytes;
+
+    /**
+     * @param format the compression format
+     * @param quality the target quality (0-100), ignored by PNG
+     * @param maxBytes the byte budget for each encoded image, or 0 for no limit
+     */
+    public AssetEncoder(Bitmap.CompressFormat format, int quality, int maxBytes) {
+        mFormat = format;
+        mQuality = quality;
+        mMaxBytes = maxBytes;
+    }
+
+    public Asset createAsset(Bitmap bitmap) {
+        return bitmap == null ? null : Asset.createFromBytes(encode(bitmap));
+    }
+
+    /**
+     * Encode a bitmap at the target quality, or at the highest quality that
+     * fits the byte budget.
+     */
+    public byte[] encode(Bitmap bitmap) {
+        PooledOutputStream out = sOutputStreams.get();
+        out.ensureCapacity(bitmap.getWidth() * bitmap.getHeight() / 2);
+
+        compress(bitmap, mQuality, out);
+        if (mMaxBytes <= 0 || out.size() <= mMaxBytes || mFormat == Bitmap.CompressFormat.PNG) {
+            return out.toByteArray();
+        }
+
+        // Binary search for the highest quality that fits the budget
+        int low = MIN_QUALITY;
+        int high = mQuality - 1;
+        byte[] best = null;
+        while (low <= high) {
+            int quality = (low + high) >>> 1;
+            compress(bitmap, quality, out);
+            if (out.size() <= mMaxBytes) {
+                best = out.toByteArray();
+                low = quality + 1;
+            } else {
+                high = quality - 1;
+            }
+        }
+
+        if (best == null) {
+            Log.w(TAG, "Unable to fit image in " + mMaxBytes + " bytes, using min quality");
+            compress(bitmap, MIN_QUALITY, out);
+            best = out.toByteArray();
+        }
+        return best;
+    }
+
+    private void compress(Bitmap bitmap, int quality, PooledOutputStream out) {
+        out.reset();
+        bitmap.compress(mFormat, quality, out);
+    }
+
+    /**
+     * A ByteArrayOutputStream whose buffer is kept across resets and can be
+     * grown up front to the expected size.
+     */
+    private static class PooledOutputStream extends ByteArrayOutputStream {
+        void ensureCapacity(int capacity) {
+            if (buf.length < capacity) {
+                buf = new byte[capacity];
+                count = 0;
+            }
+        }
+    }
+}
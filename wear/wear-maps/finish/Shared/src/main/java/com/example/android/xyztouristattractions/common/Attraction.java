@@ -30,6 +30,9 @@ import com.google.android.gms.maps.model.LatLng;
  * Implements Parcelable so that Attractions can be passed from one Activity
  * to another. Note that the Wearable DataItem does not support Parcelable
  * items so it cannot be used for moving items from device to wearable.
+ * Fields are written with typed calls (Uris as strings, the location as two
+ * doubles) rather than writeValue(), which tags each value and looks up a
+ * class loader to read it back.
  */
 public class Attraction implements Parcelable {
     public String name;
@@ -40,6 +43,9 @@ public class Attraction implements Parcelable {
     public LatLng location;
     public String city;
 
+    // The attraction's number in the phone app's catalog, or -1
+    public int id = -1;
+
     public Bitmap image;
     public Bitmap secondaryImage;
     public String distance;
@@ -61,10 +67,13 @@ public class Attraction implements Parcelable {
         name = in.readString();
         description = in.readString();
         longDescription = in.readString();
-        imageUrl = (Uri) in.readValue(Uri.class.getClassLoader());
-        secondaryImageUrl = (Uri) in.readValue(Uri.class.getClassLoader());
-        location = (LatLng) in.readValue(LatLng.class.getClassLoader());
+        imageUrl = readUri(in);
+        secondaryImageUrl = readUri(in);
+        if (in.readInt() != 0) {
+            location = new LatLng(in.readDouble(), in.readDouble());
+        }
         city = in.readString();
+        id = in.readInt();
     }
 
     @Override
@@ -77,10 +86,26 @@ public class Attraction implements Parcelable {
         dest.writeString(name);
         dest.writeString(description);
         dest.writeString(longDescription);
-        dest.writeValue(imageUrl);
-        dest.writeValue(secondaryImageUrl);
-        dest.writeValue(location);
+        writeUri(dest, imageUrl);
+        writeUri(dest, secondaryImageUrl);
+        if (location != null) {
+            dest.writeInt(1);
+            dest.writeDouble(location.latitude);
+            dest.writeDouble(location.longitude);
+        } else {
+            dest.writeInt(0);
+        }
         dest.writeString(city);
+        dest.writeInt(id);
+    }
+
+    private static Uri readUri(Parcel in) {
+        String uri = in.readString();
+        return uri != null ? Uri.parse(uri) : null;
+    }
+
+    private static void writeUri(Parcel dest, Uri uri) {
+        dest.writeString(uri != null ? uri.toString() : null);
     }
 
     @SuppressWarnings("unused")
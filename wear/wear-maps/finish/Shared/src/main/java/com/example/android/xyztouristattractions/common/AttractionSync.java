@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.common;
+
+import android.net.Uri;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataMap;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Shared helpers for the attraction sync protocol between the mobile and
+ * wearable apps.
+ *
+ * Rather than one DataItem holding every attraction, each attraction lives
+ * in its own DataItem under {@link Constants#ATTRACTION_ITEM_PATH}. A small
+ * index DataItem at {@link Constants#ATTRACTION_PATH} lists the item paths
+ * in display order. The mobile app only puts items whose content hash has
+ * changed, so unchanged attractions (and their image assets) are not sent
+ * again and the wearable only receives the items that changed.
+ *
+ * The distance to each attraction changes with every location update, so
+ * it is kept out of the items and sent in the index instead, in the same
+ * order as the item paths.
+ */
+public class AttractionSync {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private AttractionSync() {}
+
+    /**
+     * The DataItem path used to store a single attraction.
+     */
+    public static String getItemPath(Attraction attraction) {
+        return Constants.ATTRACTION_ITEM_PATH + "/" + Uri.encode(attraction.city)
+                + "/" + Uri.encode(attraction.name);
+    }
+
+    /**
+     * Build the Uri of an attraction item that was synced by the same node
+     * as the index item.
+     *
+     * @param indexUri the Uri of the index DataItem
+     * @param itemPath the path of the attraction item
+     */
+    public static Uri getItemUri(Uri indexUri, String itemPath) {
+        return new Uri.Builder()
+                .scheme(indexUri.getScheme())
+                .authority(indexUri.getAuthority())
+                .path(itemPath)
+                .build();
+    }
+
+    /**
+     * Convert an attraction into the DataMap stored in its item.
+     */
+    public static DataMap toDataMap(Attraction attraction, Asset image, String imageHash) {
+        DataMap attractionData = new DataMap();
+        attractionData.putString(Constants.EXTRA_TITLE, attraction.name);
+        attractionData.putString(Constants.EXTRA_DESCRIPTION, attraction.description);
+        attractionData.putDouble(Constants.EXTRA_LOCATION_LAT, attraction.location.latitude);
+        attractionData.putDouble(Constants.EXTRA_LOCATION_LNG, attraction.location.longitude);
+        attractionData.putString(Constants.EXTRA_CITY, attraction.city);
+        attractionData.putAsset(Constants.EXTRA_IMAGE, image);
+        attractionData.putString(Constants.EXTRA_IMAGE_HASH, imageHash);
+        return attractionData;
+    }
+
+    /**
+     * Convert an item DataMap back into an attraction. Images are not loaded
+     * as that requires a blocking call to the DataApi.
+     *
+     * @param distances the distances listed by the index, see {@link #getDistances(DataMap)}
+     */
+    public static Attraction fromDataMap(DataMap attractionData,
+                                         HashMap<String, String> distances) {
+        Attraction attraction = new Attraction();
+        attraction.name = attractionData.getString(Constants.EXTRA_TITLE);
+        attraction.description = attractionData.getString(Constants.EXTRA_DESCRIPTION);
+        attraction.city = attractionData.getString(Constants.EXTRA_CITY);
+        attraction.distance = distances.get(getItemPath(attraction));
+        attraction.location = new LatLng(
+                attractionData.getDouble(Constants.EXTRA_LOCATION_LAT),
+                attractionData.getDouble(Constants.EXTRA_LOCATION_LNG));
+        return attraction;
+    }
+
+    /**
+     * Get the distance to each attraction listed by an index DataMap, keyed
+     * by item path.
+     */
+    public static HashMap<String, String> getDistances(DataMap index) {
+        ArrayList<String> paths = index.getStringArrayList(Constants.EXTRA_ATTRACTION_PATHS);
+        ArrayList<String> distances =
+                index.getStringArrayList(Constants.EXTRA_ATTRACTION_DISTANCES);
+        HashMap<String, String> result = new HashMap<>();
+        if (paths != null && distances != null) {
+            for (int i = 0; i < paths.size() && i < distances.size(); i++) {
+                result.put(paths.get(i), distances.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calculate the content hash of an item DataMap. Assets are represented
+     * by their own content hashes so an item's hash only changes when its
+     * text or images actually change.
+     */
+    public static String hashItem(DataMap attractionData) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(attractionData.getString(Constants.EXTRA_TITLE)).append('\n')
+                .append(attractionData.getString(Constants.EXTRA_DESCRIPTION)).append('\n')
+                .append(attractionData.getDouble(Constants.EXTRA_LOCATION_LAT)).append('\n')
+                .append(attractionData.getDouble(Constants.EXTRA_LOCATION_LNG)).append('\n')
+                .append(attractionData.getString(Constants.EXTRA_CITY)).append('\n')
+                .append(attractionData.getString(Constants.EXTRA_IMAGE_HASH));
+        return hash(builder.toString().getBytes(UTF_8));
+    }
+
+    /**
+     * Calculate the hex encoded SHA-1 hash of some bytes.
+     */
+    public static String hash(byte[] bytes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android device is required to provide SHA-1
+            throw new IllegalStateException(e);
+        }
+        byte[] hashBytes = digest.digest(bytes);
+        char[] hex = new char[hashBytes.length * 2];
+        for (int i = 0; i < hashBytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(hashBytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[hashBytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.common;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * A small pool of mutable bitmaps that are no longer displayed, so their
+ * memory can be reused when decoding new images (via
+ * {@link android.graphics.BitmapFactory.Options#inBitmap}) instead of
+ * allocating a new bitmap each time.
+ */
+@TargetApi(Build.VERSION_CODES.KITKAT)
+public class BitmapPool {
+
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+    private final int mMaxBytes;
+    private int mBytes;
+
+    /**
+     * @param maxBytes the max total size of the bitmaps kept in the pool
+     */
+    public BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Take a bitmap with at least byteCount bytes of memory out of the pool.
+     *
+     * @return a reusable bitmap, or null if none is big enough
+     */
+    public synchronized Bitmap get(int byteCount) {
+        Iterator<Entry> itr = mEntries.iterator();
+        while (itr.hasNext()) {
+            Entry entry = itr.next();
+            if (entry.mBitmap.isRecycled()) {
+                itr.remove();
+                mBytes -= entry.mSize;
+            } else if (entry.mSize >= byteCount) {
+                itr.remove();
+                mBytes -= entry.mSize;
+                return entry.mBitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return a bitmap to the pool. The caller must no longer use or display it.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled()
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return;
+        }
+        for (Entry entry : mEntries) {
+            if (entry.mBitmap == bitmap) {
+                return;
+            }
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (mBytes + size <= mMaxBytes) {
+            mEntries.add(new Entry(bitmap, size));
+            mBytes += size;
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    private static class Entry {
+        final Bitmap mBitmap;
+        final int mSize;
+
+        Entry(Bitmap bitmap, int size) {
+            mBitmap = bitmap;
+            mSize = size;
+        }
+    }
+}
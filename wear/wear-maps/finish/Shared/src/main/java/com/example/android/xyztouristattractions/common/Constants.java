@@ -27,6 +27,9 @@ public class Constants {
     public static final String GOOGLE_API_CLIENT_ERROR_MSG =
             "Failed to connect to GoogleApiClient (error code = %d)";
 
+    // Max time to wait for attraction images to download before giving up on them
+    public static final int IMAGE_FETCH_TIMEOUT_S = 10; // 10 seconds
+
     // Used to size the images in the mobile app so they can animate cleanly from list to detail
     public static final int IMAGE_ANIM_MULTIPLIER = 2;
 
@@ -36,6 +39,10 @@ public class Constants {
     // Except images that can be set as a background with parallax, set width 640x instead
     public static final int WEAR_IMAGE_SIZE_PARALLAX_WIDTH = 640;
 
+    // Lossy quality used to encode images sent to Wear, and the max size of each image
+    public static final int ASSET_IMAGE_QUALITY = 85;
+    public static final int ASSET_IMAGE_MAX_BYTES = 48 * 1024; // 48KB
+
     // The minimum bottom inset percent to use on a round screen device
     public static final float WEAR_ROUND_MIN_INSET_PERCENT = 0.08f;
 
@@ -48,20 +55,21 @@ public class Constants {
 
     // Intent and bundle extras
     public static final String EXTRA_ATTRACTION = "extra_attraction";
-    public static final String EXTRA_ATTRACTIONS = "extra_attractions";
     public static final String EXTRA_ATTRACTIONS_URI = "extra_attractions_uri";
     public static final String EXTRA_TITLE = "extra_title";
     public static final String EXTRA_DESCRIPTION = "extra_description";
     public static final String EXTRA_LOCATION_LAT = "extra_location_lat";
     public static final String EXTRA_LOCATION_LNG = "extra_location_lng";
-    public static final String EXTRA_DISTANCE = "extra_distance";
     public static final String EXTRA_CITY = "extra_city";
     public static final String EXTRA_IMAGE = "extra_image";
-    public static final String EXTRA_IMAGE_SECONDARY = "extra_image_secondary";
+    public static final String EXTRA_IMAGE_HASH = "extra_image_hash";
+    public static final String EXTRA_ATTRACTION_PATHS = "extra_attraction_paths";
+    public static final String EXTRA_ATTRACTION_DISTANCES = "extra_attraction_distances";
     public static final String EXTRA_TIMESTAMP = "extra_timestamp";
 
     // Wear Data API paths
     public static final String ATTRACTION_PATH = "/attraction";
+    public static final String ATTRACTION_ITEM_PATH = ATTRACTION_PATH + "/item";
     public static final String START_PATH = "/start";
     public static final String START_ATTRACTION_PATH = START_PATH + "/attraction";
     public static final String START_NAVIGATION_PATH = START_PATH + "/navigation";
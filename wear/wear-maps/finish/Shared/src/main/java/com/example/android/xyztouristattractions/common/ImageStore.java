@@ -0,0 +1,491 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.common;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A size bounded store of encoded attraction images on disk, so images
+ * survive across processes and don't have to be fetched from the network or
+ * the Data Layer and scaled again. Each image is keyed by its attraction,
+ * its source (eg. the image URL or asset hash, so a changed image isn't
+ * served stale) and the {@link Variant} it was scaled to.
+ *
+ * A journal of puts, reads and removals is replayed in the background when
+ * the store is created to restore the access order, and the least recently
+ * used images are evicted once the store grows past {@link #MAX_SIZE_BYTES}.
+ * {@link #getFile} only checks an in-memory index of the stored images, so
+ * it can be called from the main thread; reads are written to the journal
+ * in batches in the background. The other operations do blocking disk I/O.
+ */
+public class ImageStore {
+    private static final String TAG = ImageStore.class.getSimpleName();
+
+    private static final long MAX_SIZE_BYTES = 4 * 1024 * 1024; // 4MB
+
+    private static final String DIRECTORY = "images";
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_TEMP_FILE = "journal.tmp";
+    private static final String JOURNAL_HEADER = "ImageStore 1";
+    private static final String PUT = "PUT";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // The journal is rewritten once it has this many lines more than needed
+    private static final int MAX_REDUNDANT_LINES = 1000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The sizes an attraction image is stored at.
+     */
+    public enum Variant {
+        // The square thumbnail in the mobile attraction list
+        LIST_THUMBNAIL("list"),
+        // WEAR_IMAGE_SIZE square, used by notifications
+        WEAR("wear400"),
+        // WEAR_IMAGE_SIZE_PARALLAX_WIDTH x WEAR_IMAGE_SIZE, used by the micro app
+        WEAR_PARALLAX("wear640");
+
+        private final String mSuffix;
+
+        Variant(String suffix) {
+            mSuffix = suffix;
+        }
+    }
+
+    private static ImageStore sInstance;
+
+    // Opens the store and writes batched reads to the journal
+    private static final ExecutorService sWorker = Executors.newSingleThreadExecutor();
+
+    private final Context mContext;
+    private File mDirectory;
+
+    // File name to size, least recently used first
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(0, 0.75f, true);
+    private long mSize;
+    private Writer mJournal;
+    private int mRedundantLines;
+    private boolean mOpened;
+
+    // The file names in mEntries, for lookups without the lock. Names are
+    // added once their file is written and removed before it is deleted.
+    private final Set<String> mKeys =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean mIndexLoaded;
+
+    // Reads not yet applied to the access order and the journal
+    private final ConcurrentLinkedQueue<String> mPendingReads = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mFlushPending = new AtomicBoolean();
+
+    private final AtomicIntegerArray mHits = new AtomicIntegerArray(Variant.values().length);
+    private final AtomicIntegerArray mMisses = new AtomicIntegerArray(Variant.values().length);
+    private int mEvictions;
+
+    /**
+     * Returns the store, which starts opening in the background the first
+     * time. This does no disk I/O itself.
+     */
+    public static synchronized ImageStore getInstance(Context context) {
+        if (sInstance == null) {
+            final ImageStore store = new ImageStore(context.getApplicationContext());
+            sWorker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    store.open();
+                }
+            });
+            sInstance = store;
+        }
+        return sInstance;
+    }
+
+    private ImageStore(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Get the encoded bytes of a stored image, or null if it isn't stored.
+     */
+    public synchronized byte[] get(String attraction, String source, Variant variant) {
+        open();
+        String key = getKey(attraction, source, variant);
+        if (mEntries.get(key) == null) {
+            mMisses.incrementAndGet(variant.ordinal());
+            return null;
+        }
+        mHits.incrementAndGet(variant.ordinal());
+        try {
+            byte[] data = readFully(new File(mDirectory, key));
+            recordRead(key);
+            return data;
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading stored image: " + e);
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Get the file of a stored image, or null if it isn't stored or the
+     * store is still opening. This doesn't block or touch the disk, so it is
+     * safe to call from the main thread. The file may be evicted by a later
+     * put.
+     */
+    public File getFile(String attraction, String source, Variant variant) {
+        String key = getKey(attraction, source, variant);
+        if (!mIndexLoaded || !mKeys.contains(key)) {
+            mMisses.incrementAndGet(variant.ordinal());
+            return null;
+        }
+        mHits.incrementAndGet(variant.ordinal());
+        recordRead(key);
+        // mDirectory is set before mIndexLoaded, so it is visible here
+        return new File(mDirectory, key);
+    }
+
+    /**
+     * Store an image, encoded with the default {@link AssetEncoder}.
+     */
+    public void put(String attraction, String source, Variant variant, Bitmap bitmap) {
+        put(attraction, source, variant, AssetEncoder.DEFAULT.encode(bitmap));
+    }
+
+    /**
+     * Store an encoded image, replacing any image stored with the same key.
+     */
+    public synchronized void put(String attraction, String source, Variant variant, byte[] data) {
+        open();
+        String key = getKey(attraction, source, variant);
+        File file = new File(mDirectory, key);
+        File tempFile = new File(mDirectory, key + TEMP_SUFFIX);
+        try {
+            OutputStream out = new FileOutputStream(tempFile);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to rename " + tempFile + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error storing image: " + e);
+            tempFile.delete();
+            return;
+        }
+
+        Long previousSize = mEntries.put(key, (long) data.length);
+        mKeys.add(key);
+        if (previousSize != null) {
+            mSize -= previousSize;
+            mRedundantLines++;
+        }
+        mSize += data.length;
+        appendJournal(PUT, key + " " + data.length);
+        trimToSize();
+        compactJournalIfNeeded();
+    }
+
+    public synchronized String getStats() {
+        StringBuilder stats = new StringBuilder();
+        for (Variant variant : Variant.values()) {
+            int hits = mHits.get(variant.ordinal());
+            int requests = hits + mMisses.get(variant.ordinal());
+            stats.append(String.format("%s %d/%d hits (%d%%), ", variant.mSuffix, hits,
+                    requests, requests == 0 ? 0 : hits * 100 / requests));
+        }
+        stats.append(String.format("evictions=%d size=%d/%d bytes",
+                mEvictions, mSize, MAX_SIZE_BYTES));
+        return stats.toString();
+    }
+
+    /**
+     * Replay the journal to restore the entries and their access order.
+     */
+    private synchronized void open() {
+        if (mOpened) {
+            return;
+        }
+        mOpened = true;
+        mDirectory = new File(mContext.getCacheDir(), DIRECTORY);
+        mDirectory.mkdirs();
+
+        File journalFile = new File(mDirectory, JOURNAL_FILE);
+        int lines = 0;
+        if (journalFile.exists()) {
+            try {
+                BufferedReader reader = new BufferedReader(new FileReader(journalFile));
+                try {
+                    if (!JOURNAL_HEADER.equals(reader.readLine())) {
+                        throw new IOException("Unexpected journal header");
+                    }
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        lines++;
+                        replay(line.split(" "));
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Discarding unreadable journal: " + e);
+                mEntries.clear();
+            }
+        }
+
+        // Files in the cache directory may have been deleted by the system
+        mSize = 0;
+        Set<String> names = new HashSet<>();
+        for (Iterator<Map.Entry<String, Long>> i = mEntries.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<String, Long> entry = i.next();
+            if (new File(mDirectory, entry.getKey()).exists()) {
+                mSize += entry.getValue();
+                names.add(entry.getKey());
+            } else {
+                i.remove();
+            }
+        }
+
+        // Anything not in the journal, such as a partly written image, is removed
+        String[] files = mDirectory.list();
+        if (files != null) {
+            for (String name : files) {
+                if (!names.contains(name) && !name.equals(JOURNAL_FILE)) {
+                    new File(mDirectory, name).delete();
+                }
+            }
+        }
+
+        mRedundantLines = lines - mEntries.size();
+        if (!journalFile.exists() || mRedundantLines >= MAX_REDUNDANT_LINES) {
+            rebuildJournal();
+        } else {
+            try {
+                mJournal = new BufferedWriter(new FileWriter(journalFile, true));
+            } catch (IOException e) {
+                Log.e(TAG, "Error opening journal: " + e);
+            }
+        }
+        mKeys.addAll(mEntries.keySet());
+        trimToSize();
+        mIndexLoaded = true;
+
+        Log.d(TAG, String.format("Opened with %d images, %d bytes", mEntries.size(), mSize));
+    }
+
+    private void replay(String[] parts) {
+        if (parts.length == 3 && PUT.equals(parts[0])) {
+            try {
+                mEntries.put(parts[1], Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                // A partly written line, ignore it
+            }
+        } else if (parts.length == 2 && READ.equals(parts[0])) {
+            mEntries.get(parts[1]);
+        } else if (parts.length == 2 && REMOVE.equals(parts[0])) {
+            mEntries.remove(parts[1]);
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> i = mEntries.entrySet().iterator();
+        while (mSize > MAX_SIZE_BYTES && i.hasNext()) {
+            Map.Entry<String, Long> eldest = i.next();
+            i.remove();
+            mKeys.remove(eldest.getKey());
+            new File(mDirectory, eldest.getKey()).delete();
+            mSize -= eldest.getValue();
+            mEvictions++;
+            mRedundantLines++;
+            appendJournal(REMOVE, eldest.getKey());
+        }
+    }
+
+    private void remove(String key) {
+        Long size = mEntries.remove(key);
+        if (size != null) {
+            mKeys.remove(key);
+            new File(mDirectory, key).delete();
+            mSize -= size;
+            mRedundantLines++;
+            appendJournal(REMOVE, key);
+        }
+    }
+
+    /**
+     * Queue a read to be applied to the access order and the journal in the
+     * background. A burst of reads is written in a single batch.
+     */
+    private void recordRead(String key) {
+        mPendingReads.add(key);
+        if (mFlushPending.compareAndSet(false, true)) {
+            sWorker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mFlushPending.set(false);
+                    flushReads();
+                }
+            });
+        }
+    }
+
+    private synchronized void flushReads() {
+        String key;
+        while ((key = mPendingReads.poll()) != null) {
+            // Images evicted since they were read have nothing to update
+            if (mEntries.get(key) != null) {
+                writeJournal(READ, key);
+            }
+        }
+        flushJournal();
+        // A session that only reads still grows the journal
+        compactJournalIfNeeded();
+    }
+
+    private void appendJournal(String operation, String arguments) {
+        writeJournal(operation, arguments);
+        flushJournal();
+    }
+
+    private void writeJournal(String operation, String arguments) {
+        if (mJournal == null) {
+            return;
+        }
+        mRedundantLines += READ.equals(operation) ? 1 : 0;
+        try {
+            mJournal.write(operation + " " + arguments + "\n");
+        } catch (IOException e) {
+            // Keep going without the journal, it is rebuilt on the next compaction
+            Log.e(TAG, "Error writing journal: " + e);
+            closeJournal();
+        }
+    }
+
+    private void flushJournal() {
+        if (mJournal == null) {
+            return;
+        }
+        try {
+            mJournal.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing journal: " + e);
+            closeJournal();
+        }
+    }
+
+    private void compactJournalIfNeeded() {
+        if (mJournal == null || mRedundantLines >= MAX_REDUNDANT_LINES) {
+            rebuildJournal();
+        }
+    }
+
+    /**
+     * Write a journal with one line per entry in access order, replacing
+     * the current one.
+     */
+    private void rebuildJournal() {
+        closeJournal();
+        File tempFile = new File(mDirectory, JOURNAL_TEMP_FILE);
+        try {
+            Writer writer = new BufferedWriter(new FileWriter(tempFile));
+            try {
+                writer.write(JOURNAL_HEADER + "\n");
+                for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                    writer.write(PUT + " " + entry.getKey() + " " + entry.getValue() + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+            File journalFile = new File(mDirectory, JOURNAL_FILE);
+            if (!tempFile.renameTo(journalFile)) {
+                throw new IOException("Unable to rename " + tempFile + " to " + journalFile);
+            }
+            mJournal = new BufferedWriter(new FileWriter(journalFile, true));
+            mRedundantLines = 0;
+        } catch (IOException e) {
+            Log.e(TAG, "Error rebuilding journal: " + e);
+        }
+    }
+
+    private void closeJournal() {
+        if (mJournal != null) {
+            try {
+                mJournal.close();
+            } catch (IOException e) {
+                // Nothing more can be done
+            }
+            mJournal = null;
+        }
+    }
+
+    /**
+     * The file name of an image, which is safe to use in a path and in the
+     * space separated journal.
+     */
+    private static String getKey(String attraction, String source, Variant variant) {
+        return AttractionSync.hash((attraction + "\n" + source).getBytes(UTF_8))
+                + "." + variant.mSuffix;
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read == -1) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                offset += read;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+}
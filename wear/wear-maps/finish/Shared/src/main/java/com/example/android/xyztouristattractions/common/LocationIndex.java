@@ -0,0 +1,229 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.common;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only spatial index for looking up the items closest to a location.
+ *
+ * Each location is projected onto the unit sphere and the resulting points
+ * are stored in a k-d tree (k = 3). The straight line distance between two
+ * points on the sphere grows with the great-circle distance between them,
+ * so the order of the results is the same as ordering by
+ * {@link com.google.maps.android.SphericalUtil#computeDistanceBetween}, but
+ * a nearest neighbour query only needs to visit a few branches of the tree
+ * instead of every item.
+ *
+ * @param <T> the type of item stored in the index
+ */
+public class LocationIndex<T> {
+
+    private final List<T> mItems;
+    // x, y, z of each item, in the same (tree) order as mItems
+    private final double[] mPoints;
+
+    public LocationIndex(Map<T, LatLng> locations) {
+        int size = locations.size();
+        final double[] points = new double[size * 3];
+        List<T> items = new ArrayList<T>(size);
+
+        int i = 0;
+        for (Map.Entry<T, LatLng> entry : locations.entrySet()) {
+            items.add(entry.getKey());
+            toPoint(entry.getValue(), points, i * 3);
+            i++;
+        }
+
+        // Sort an index permutation into k-d tree order, then lay the items
+        // and points out in that order so queries walk contiguous memory
+        Integer[] order = new Integer[size];
+        for (i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        buildTree(order, points, 0, size, 0);
+
+        mItems = new ArrayList<T>(size);
+        mPoints = new double[size * 3];
+        for (i = 0; i < size; i++) {
+            mItems.add(items.get(order[i]));
+            System.arraycopy(points, order[i] * 3, mPoints, i * 3, 3);
+        }
+    }
+
+    public int size() {
+        return mItems.size();
+    }
+
+    /**
+     * Find the single closest item to a location.
+     *
+     * @return the closest item or null if the index is empty or location is null
+     */
+    public T nearest(LatLng location) {
+        List<T> result = nearest(location, 1);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /**
+     * Find the closest items to a location.
+     *
+     * @param location the location to search from
+     * @param count the maximum number of items to return
+     * @return up to count items, ordered from closest to furthest
+     */
+    public List<T> nearest(LatLng location, int count) {
+        int size = mItems.size();
+        if (location == null || count <= 0 || size == 0) {
+            return Collections.emptyList();
+        }
+
+        double[] query = new double[3];
+        toPoint(location, query, 0);
+
+        if (count >= size) {
+            // Every item is needed, a straight sort is cheaper than a tree walk
+            return sortAll(query);
+        }
+
+        Neighbours neighbours = new Neighbours(count);
+        search(query, 0, size, 0, neighbours);
+
+        List<T> result = new ArrayList<T>(neighbours.mSize);
+        for (int i = 0; i < neighbours.mSize; i++) {
+            result.add(mItems.get(neighbours.mIndexes[i]));
+        }
+        return result;
+    }
+
+    private List<T> sortAll(double[] query) {
+        int size = mItems.size();
+        final double[] distances = new double[size];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            distances[i] = distanceSquared(query, i);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return Double.compare(distances[lhs], distances[rhs]);
+            }
+        });
+
+        List<T> result = new ArrayList<T>(size);
+        for (Integer index : order) {
+            result.add(mItems.get(index));
+        }
+        return result;
+    }
+
+    private void search(double[] query, int from, int to, int depth, Neighbours neighbours) {
+        if (from >= to) {
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        int axis = depth % 3;
+        neighbours.offer(mid, distanceSquared(query, mid));
+
+        double delta = query[axis] - mPoints[mid * 3 + axis];
+        if (delta < 0) {
+            search(query, from, mid, depth + 1, neighbours);
+            if (delta * delta < neighbours.worst()) {
+                search(query, mid + 1, to, depth + 1, neighbours);
+            }
+        } else {
+            search(query, mid + 1, to, depth + 1, neighbours);
+            if (delta * delta < neighbours.worst()) {
+                search(query, from, mid, depth + 1, neighbours);
+            }
+        }
+    }
+
+    private double distanceSquared(double[] query, int index) {
+        double dx = query[0] - mPoints[index * 3];
+        double dy = query[1] - mPoints[index * 3 + 1];
+        double dz = query[2] - mPoints[index * 3 + 2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static void buildTree(Integer[] order, final double[] points,
+                                  int from, int to, int depth) {
+        if (to - from <= 1) {
+            return;
+        }
+        final int axis = depth % 3;
+        Arrays.sort(order, from, to, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return Double.compare(points[lhs * 3 + axis], points[rhs * 3 + axis]);
+            }
+        });
+        int mid = (from + to) >>> 1;
+        buildTree(order, points, from, mid, depth + 1);
+        buildTree(order, points, mid + 1, to, depth + 1);
+    }
+
+    private static void toPoint(LatLng location, double[] out, int offset) {
+        double lat = Math.toRadians(location.latitude);
+        double lng = Math.toRadians(location.longitude);
+        double cosLat = Math.cos(lat);
+        out[offset] = cosLat * Math.cos(lng);
+        out[offset + 1] = cosLat * Math.sin(lng);
+        out[offset + 2] = Math.sin(lat);
+    }
+
+    /**
+     * Fixed size list of the closest items found so far, sorted by distance.
+     */
+    private static class Neighbours {
+        final int[] mIndexes;
+        final double[] mDistances;
+        int mSize;
+
+        Neighbours(int capacity) {
+            mIndexes = new int[capacity];
+            mDistances = new double[capacity];
+        }
+
+        double worst() {
+            return mSize < mIndexes.length ? Double.MAX_VALUE : mDistances[mSize - 1];
+        }
+
+        void offer(int index, double distance) {
+            if (distance >= worst()) {
+                return;
+            }
+            int i = mSize < mIndexes.length ? mSize++ : mSize - 1;
+            while (i > 0 && mDistances[i - 1] > distance) {
+                mIndexes[i] = mIndexes[i - 1];
+                mDistances[i] = mDistances[i - 1];
+                i--;
+            }
+            mIndexes[i] = index;
+            mDistances[i] = distance;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.common;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds the last known location in memory for the whole process. Reads
+ * return an immutable snapshot without touching the app preferences, which
+ * are only read once to restore the location and are written in the
+ * background after it changes.
+ */
+public class LocationStore {
+
+    private static final String PREFERENCES_LAT = "lat";
+    private static final String PREFERENCES_LNG = "lng";
+
+    // Null until restored from the app preferences
+    private static volatile Snapshot sSnapshot;
+
+    private static final ExecutorService sWriter = Executors.newSingleThreadExecutor();
+    private static final AtomicBoolean sWritePending = new AtomicBoolean();
+
+    private LocationStore() {}
+
+    /**
+     * Returns the last known location, or null if there is none.
+     */
+    public static LatLng get(Context context) {
+        Snapshot snapshot = sSnapshot;
+        if (snapshot == null) {
+            snapshot = restore(context);
+        }
+        return snapshot.mLocation;
+    }
+
+    /**
+     * Set the last known location. It is visible to readers immediately and
+     * persisted to the app preferences shortly after; a burst of updates
+     * results in a single write of the latest location.
+     */
+    public static void put(Context context, LatLng location) {
+        sSnapshot = new Snapshot(location);
+
+        final Context appContext = context.getApplicationContext();
+        if (sWritePending.compareAndSet(false, true)) {
+            sWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sWritePending.set(false);
+                    write(appContext, sSnapshot.mLocation);
+                }
+            });
+        }
+    }
+
+    private static synchronized Snapshot restore(Context context) {
+        if (sSnapshot == null) {
+            sSnapshot = new Snapshot(read(context));
+        }
+        return sSnapshot;
+    }
+
+    /**
+     * Read the location from the app preferences, bypassing the snapshot.
+     * Package-private for LocationStoreBenchmark.
+     */
+    static LatLng read(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        long lat = prefs.getLong(PREFERENCES_LAT, Long.MAX_VALUE);
+        long lng = prefs.getLong(PREFERENCES_LNG, Long.MAX_VALUE);
+        if (lat != Long.MAX_VALUE && lng != Long.MAX_VALUE) {
+            return new LatLng(Double.longBitsToDouble(lat), Double.longBitsToDouble(lng));
+        }
+        return null;
+    }
+
+    private static void write(Context context, LatLng location) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putLong(PREFERENCES_LAT, Double.doubleToRawLongBits(location.latitude));
+        editor.putLong(PREFERENCES_LNG, Double.doubleToRawLongBits(location.longitude));
+        editor.apply();
+    }
+
+    private static class Snapshot {
+        final LatLng mLocation;
+
+        Snapshot(LatLng location) {
+            mLocation = location;
+        }
+    }
+}
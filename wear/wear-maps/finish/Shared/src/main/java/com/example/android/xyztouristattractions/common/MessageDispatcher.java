@@ -0,0 +1,304 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.common;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends Wearable messages in the background. Messages queued within
+ * {@link #COALESCE_WINDOW_MS} of each other are sent as one batch, with the
+ * sends to every node in flight at once, and a message only counts as
+ * delivered once its {@link MessageApi.SendMessageResult} succeeds. Failed
+ * sends are retried with backoff up to {@link #MAX_ATTEMPTS} times.
+ *
+ * A message replaces any queued message with the same node and path, so a
+ * burst of identical requests (eg. clearing notifications) is sent once.
+ *
+ * Delivery is only as strong as the Data Layer's guarantee: a successful
+ * result means the message was handed to a connected node, not that the app
+ * on that node handled it. The receiving apps don't reply to messages.
+ */
+public class MessageDispatcher {
+    private static final String TAG = MessageDispatcher.class.getSimpleName();
+
+    private static final long COALESCE_WINDOW_MS = 100;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 500; // doubled after each attempt
+    private static final long SEND_TIMEOUT_S = 5;
+
+    private static MessageDispatcher sInstance;
+
+    private final Context mContext;
+    private final ScheduledExecutorService mExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    // Messages waiting for the next batch, keyed by node and path
+    private final LinkedHashMap<String, Message> mPending = new LinkedHashMap<>();
+    private boolean mFlushScheduled;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // Only touched from the executor thread
+    private final LatencyHistogram mLatencies = new LatencyHistogram();
+    private int mDelivered;
+    private int mRetries;
+    private int mFailed;
+
+    public static synchronized MessageDispatcher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MessageDispatcher(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private MessageDispatcher(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Queue a message to a set of nodes. This doesn't block, the message is
+     * sent with the next batch.
+     *
+     * @param nodeIds the nodes to send the message to
+     * @param path the message path
+     * @param data the message payload, or null
+     */
+    public void send(Collection<String> nodeIds, String path, byte[] data) {
+        queue(nodeIds, path, data);
+    }
+
+    /**
+     * Send a message to a set of nodes right away, blocking until every
+     * node has accepted it or it has run out of attempts. For callers that
+     * may be stopped as soon as they return, such as an IntentService
+     * holding a wakelock.
+     *
+     * @param nodeIds the nodes to send the message to
+     * @param path the message path
+     * @param data the message payload, or null
+     * @param timeoutMs the longest time to wait for
+     * @return true if every node accepted the message in time
+     */
+    public boolean sendAndAwait(Collection<String> nodeIds, String path, byte[] data,
+                                long timeoutMs) {
+        List<Message> messages = queue(nodeIds, path, data);
+        // The caller is waiting, so don't wait for more messages to batch
+        mExecutor.execute(mFlush);
+
+        long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+        boolean delivered = true;
+        try {
+            for (Message message : messages) {
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                if (!message.mDone.await(Math.max(0, remaining), TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, String.format("Timed out sending %s to %s",
+                            message.mPath, message.mNodeId));
+                    return false;
+                }
+                delivered &= message.mDelivered;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return delivered;
+    }
+
+    private List<Message> queue(Collection<String> nodeIds, String path, byte[] data) {
+        long now = SystemClock.elapsedRealtime();
+        List<Message> messages = new ArrayList<>(nodeIds.size());
+        synchronized (mPending) {
+            for (String nodeId : nodeIds) {
+                Message message = new Message(nodeId, path, data, now);
+                Message replaced = mPending.put(message.getKey(), message);
+                if (replaced != null) {
+                    replaced.finish(false);
+                }
+                messages.add(message);
+            }
+            scheduleFlush();
+        }
+        return messages;
+    }
+
+    private void scheduleFlush() {
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mExecutor.schedule(mFlush, COALESCE_WINDOW_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Send every queued message, waiting for all of the results.
+     */
+    private void flush() {
+        List<Message> batch;
+        synchronized (mPending) {
+            batch = new ArrayList<>(mPending.values());
+            mPending.clear();
+            mFlushScheduled = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        ApiClientManager apiClientManager = ApiClientManager.getInstance(mContext);
+        GoogleApiClient googleApiClient = apiClientManager.acquire(ApiClientManager.WEARABLE);
+        if (googleApiClient == null) {
+            for (Message message : batch) {
+                message.mAttempts++;
+                retry(message);
+            }
+            return;
+        }
+
+        // Start every send before waiting on any of them
+        List<PendingResult<MessageApi.SendMessageResult>> results = new ArrayList<>(batch.size());
+        for (Message message : batch) {
+            message.mAttempts++;
+            results.add(Wearable.MessageApi.sendMessage(
+                    googleApiClient, message.mNodeId, message.mPath, message.mData));
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            Message message = batch.get(i);
+            MessageApi.SendMessageResult result =
+                    results.get(i).await(SEND_TIMEOUT_S, TimeUnit.SECONDS);
+            if (result.getStatus().isSuccess()) {
+                mDelivered++;
+                mLatencies.record(SystemClock.elapsedRealtime() - message.mQueuedTime);
+                message.finish(true);
+            } else {
+                Log.w(TAG, String.format("Error sending %s to %s (attempt %d, status %d)",
+                        message.mPath, message.mNodeId, message.mAttempts,
+                        result.getStatus().getStatusCode()));
+                retry(message);
+            }
+        }
+        apiClientManager.release(ApiClientManager.WEARABLE);
+
+        Log.d(TAG, String.format("Sent batch of %d: %d delivered, %d retries, %d failed. "
+                        + "Latency %s", batch.size(), mDelivered, mRetries, mFailed, mLatencies));
+    }
+
+    /**
+     * Send a message again after a delay, unless it has run out of attempts
+     * or a newer message for the same node and path has been queued.
+     */
+    private void retry(final Message message) {
+        if (message.mAttempts >= MAX_ATTEMPTS) {
+            mFailed++;
+            message.finish(false);
+            return;
+        }
+        mRetries++;
+        mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mPending) {
+                    if (!mPending.containsKey(message.getKey())) {
+                        mPending.put(message.getKey(), message);
+                        scheduleFlush();
+                    } else {
+                        // Superseded by the newer message
+                        message.finish(false);
+                    }
+                }
+            }
+        }, RETRY_DELAY_MS << (message.mAttempts - 1), TimeUnit.MILLISECONDS);
+    }
+
+    private static class Message {
+        final String mNodeId;
+        final String mPath;
+        final byte[] mData;
+        final long mQueuedTime;
+        int mAttempts;
+
+        // Counted down once the message is delivered, fails or is replaced
+        final CountDownLatch mDone = new CountDownLatch(1);
+        volatile boolean mDelivered;
+
+        Message(String nodeId, String path, byte[] data, long queuedTime) {
+            mNodeId = nodeId;
+            mPath = path;
+            mData = data;
+            mQueuedTime = queuedTime;
+        }
+
+        String getKey() {
+            return mNodeId + mPath;
+        }
+
+        void finish(boolean delivered) {
+            mDelivered = delivered;
+            mDone.countDown();
+        }
+    }
+
+    /**
+     * Counts of the time from queueing a message to its successful send.
+     */
+    private static class LatencyHistogram {
+        private static final long[] BUCKET_LIMITS_MS = {50, 100, 250, 500, 1000, 2500};
+
+        private final int[] mCounts = new int[BUCKET_LIMITS_MS.length + 1];
+
+        void record(long latencyMs) {
+            int bucket = 0;
+            while (bucket < BUCKET_LIMITS_MS.length && latencyMs >= BUCKET_LIMITS_MS[bucket]) {
+                bucket++;
+            }
+            mCounts[bucket]++;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < mCounts.length; i++) {
+                if (i > 0) {
+                    builder.append(' ');
+                }
+                builder.append(i < BUCKET_LIMITS_MS.length ?
+                        "<" + BUCKET_LIMITS_MS[i] : ">=" + BUCKET_LIMITS_MS[i - 1])
+                        .append("ms:").append(mCounts[i]);
+            }
+            return builder.toString();
+        }
+    }
+}
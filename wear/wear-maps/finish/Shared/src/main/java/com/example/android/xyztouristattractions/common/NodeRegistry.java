@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.common;
+
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps the set of connected nodes so sending a message doesn't have to
+ * query them first. The nodes are queried once per process and kept up to
+ * date from the peer connect and disconnect events that the
+ * {@link com.google.android.gms.wearable.WearableListenerService} in each
+ * app forwards here. A listener isn't added through the NodeApi, as it
+ * would be dropped whenever the pooled client disconnects.
+ *
+ * Readers get an immutable snapshot, with nearby nodes first.
+ */
+public class NodeRegistry {
+    private static final String TAG = NodeRegistry.class.getSimpleName();
+
+    private static final NodeRegistry sInstance = new NodeRegistry();
+
+    // Nearby nodes first, then by id so the order is stable
+    private static final Comparator<Node> NEARBY_FIRST = new Comparator<Node>() {
+        @Override
+        public int compare(Node lhs, Node rhs) {
+            if (lhs.isNearby() != rhs.isNearby()) {
+                return lhs.isNearby() ? -1 : 1;
+            }
+            return lhs.getId().compareTo(rhs.getId());
+        }
+    };
+
+    // Null until the connected nodes have been queried
+    private volatile List<Node> mNodes;
+
+    public static NodeRegistry getInstance() {
+        return sInstance;
+    }
+
+    private NodeRegistry() {}
+
+    /**
+     * Returns the connected nodes, nearby nodes first, or null if they
+     * couldn't be queried. Blocks until the nodes have been queried once in
+     * the process, so only call it from a background thread.
+     */
+    public List<Node> getNodes(GoogleApiClient client) {
+        List<Node> nodes = mNodes;
+        if (nodes == null) {
+            nodes = load(client);
+        }
+        return nodes;
+    }
+
+    /**
+     * Returns the ids of the connected nodes, nearby nodes first, or null if
+     * they couldn't be queried.
+     */
+    public List<String> getNodeIds(GoogleApiClient client) {
+        List<Node> nodes = getNodes(client);
+        return nodes != null ? getIds(nodes) : null;
+    }
+
+    /**
+     * Returns the ids of the nearby nodes among a set of nodes, or of all of
+     * them if none are nearby, so a message that only needs to reach one
+     * device goes to the one with the best connection.
+     */
+    public static List<String> preferNearby(Collection<Node> nodes) {
+        List<Node> nearby = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            if (node.isNearby()) {
+                nearby.add(node);
+            }
+        }
+        return getIds(nearby.isEmpty() ? nodes : nearby);
+    }
+
+    public synchronized void onPeerConnected(Node peer) {
+        if (mNodes != null) {
+            List<Node> nodes = new ArrayList<>(mNodes.size() + 1);
+            nodes.add(peer);
+            for (Node node : mNodes) {
+                if (!node.getId().equals(peer.getId())) {
+                    nodes.add(node);
+                }
+            }
+            publish(nodes);
+        }
+    }
+
+    public synchronized void onPeerDisconnected(Node peer) {
+        if (mNodes != null) {
+            List<Node> nodes = new ArrayList<>(mNodes.size());
+            for (Node node : mNodes) {
+                if (!node.getId().equals(peer.getId())) {
+                    nodes.add(node);
+                }
+            }
+            publish(nodes);
+        }
+    }
+
+    private synchronized List<Node> load(GoogleApiClient client) {
+        if (mNodes == null) {
+            // Events forwarded while this runs wait for the lock, so they
+            // are applied on top of the result
+            NodeApi.GetConnectedNodesResult result =
+                    Wearable.NodeApi.getConnectedNodes(client).await();
+            if (!result.getStatus().isSuccess()) {
+                // Unknown rather than none, try again next time
+                Log.e(TAG, "Failed to get connected nodes, status: "
+                        + result.getStatus().getStatusCode());
+                return null;
+            }
+            publish(new ArrayList<>(result.getNodes()));
+        }
+        return mNodes;
+    }
+
+    private void publish(List<Node> nodes) {
+        Collections.sort(nodes, NEARBY_FIRST);
+        mNodes = Collections.unmodifiableList(nodes);
+        Log.d(TAG, "Connected nodes: " + getIds(nodes));
+    }
+
+    private static List<String> getIds(Collection<Node> nodes) {
+        List<String> ids = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            ids.add(node.getId());
+        }
+        return ids;
+    }
+}
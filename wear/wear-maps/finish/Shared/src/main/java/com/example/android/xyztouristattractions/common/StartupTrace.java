@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.common;
+
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Times the steps of a cold start, measured from {@link #start()} when the
+ * app's Application is created (the earliest point the app runs code, the
+ * process start before it is only visible to "adb shell am start -W"). Sections
+ * (such as loading the catalog) are also emitted as systrace sections, and
+ * milestones (such as the first location) record when they were first
+ * reached. Once the first list item is bound the timings are logged and
+ * checked against {@link #COLD_START_BUDGET_MS}.
+ *
+ * Everything is recorded at most once per process, so later activity
+ * restarts don't skew the numbers.
+ */
+public class StartupTrace {
+    private static final String TAG = StartupTrace.class.getSimpleName();
+
+    public static final String CATALOG_LOAD = "Catalog load";
+    public static final String ACTIVITY_CREATED = "Activity created";
+    public static final String FIRST_LOCATION = "First location";
+    public static final String FIRST_ITEM_BOUND = "First item bound";
+
+    // The first list item should be bound within this time of a cold start
+    public static final long COLD_START_BUDGET_MS = 1000;
+
+    private static long sStartTime;
+    private static boolean sFinished;
+
+    // Name to {offset from start, duration}, in the order they were reached
+    private static final LinkedHashMap<String, long[]> sTimings = new LinkedHashMap<>();
+    private static final Map<String, Long> sOpenSections = new LinkedHashMap<>();
+
+    private StartupTrace() {}
+
+    /**
+     * Mark the start of the app. Only the first call in a process counts.
+     */
+    public static synchronized void start() {
+        if (sStartTime == 0) {
+            sStartTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Begin a named section, which must be ended on the same thread.
+     */
+    public static void beginSection(String name) {
+        Trace.beginSection(name);
+        synchronized (StartupTrace.class) {
+            if (!sTimings.containsKey(name)) {
+                sOpenSections.put(name, SystemClock.elapsedRealtime());
+            }
+        }
+    }
+
+    public static void endSection(String name) {
+        synchronized (StartupTrace.class) {
+            Long sectionStart = sOpenSections.remove(name);
+            if (sectionStart != null && sStartTime != 0) {
+                sTimings.put(name, new long[] {sectionStart - sStartTime,
+                        SystemClock.elapsedRealtime() - sectionStart});
+            }
+        }
+        Trace.endSection();
+    }
+
+    /**
+     * Record that a milestone was reached. Reaching {@link #FIRST_ITEM_BOUND}
+     * completes the startup, milestones reached after that are logged on
+     * their own.
+     */
+    public static synchronized void mark(String name) {
+        if (sStartTime == 0 || sTimings.containsKey(name)) {
+            return;
+        }
+        long offset = SystemClock.elapsedRealtime() - sStartTime;
+        sTimings.put(name, new long[] {offset, 0});
+        if (FIRST_ITEM_BOUND.equals(name)) {
+            finish();
+        } else if (sFinished) {
+            Log.d(TAG, String.format("%s at +%dms, after startup", name, offset));
+        }
+    }
+
+    /**
+     * Returns a copy of the timings recorded so far, keyed by name in the
+     * order they were reached, each as {offset from start, duration} in ms.
+     */
+    public static synchronized LinkedHashMap<String, long[]> getTimings() {
+        LinkedHashMap<String, long[]> timings = new LinkedHashMap<>(sTimings.size());
+        for (Map.Entry<String, long[]> timing : sTimings.entrySet()) {
+            timings.put(timing.getKey(), timing.getValue().clone());
+        }
+        return timings;
+    }
+
+    private static void finish() {
+        sFinished = true;
+        StringBuilder summary = new StringBuilder("Cold start:");
+        for (Map.Entry<String, long[]> timing : sTimings.entrySet()) {
+            long[] values = timing.getValue();
+            summary.append(String.format(" %s at +%dms", timing.getKey(), values[0]));
+            if (values[1] > 0) {
+                summary.append(String.format(" (took %dms)", values[1]));
+            }
+            summary.append(',');
+        }
+        long total = sTimings.get(FIRST_ITEM_BOUND)[0];
+        summary.append(String.format(" budget %dms", COLD_START_BUDGET_MS));
+        long[] activityCreated = sTimings.get(ACTIVITY_CREATED);
+        if (activityCreated != null && activityCreated[0] > COLD_START_BUDGET_MS) {
+            // The process was started for a service or receiver and the list
+            // opened later, so this wasn't a cold start of the list
+            Log.d(TAG, summary + " (not a cold start)");
+        } else if (total > COLD_START_BUDGET_MS) {
+            Log.w(TAG, summary + String.format(" exceeded by %dms",
+                    total - COLD_START_BUDGET_MS));
+        } else {
+            Log.d(TAG, summary.toString());
+        }
+    }
+}
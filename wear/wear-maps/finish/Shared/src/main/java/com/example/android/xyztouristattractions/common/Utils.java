@@ -29,16 +29,14 @@ import android.view.Display;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.Node;
-import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.Wearable;
 import com.google.maps.android.SphericalUtil;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.text.NumberFormat;
 import java.util.Collection;
-import java.util.HashSet;
 
 /**
  * This class contains shared static utility methods that both the mobile and
@@ -47,12 +45,27 @@ import java.util.HashSet;
 public class Utils {
     private static final String TAG = Utils.class.getSimpleName();
 
-    private static final String PREFERENCES_LAT = "lat";
-    private static final String PREFERENCES_LNG = "lng";
     private static final String PREFERENCES_GEOFENCE_ENABLED = "geofence";
     private static final String DISTANCE_KM_POSTFIX = "km";
     private static final String DISTANCE_M_POSTFIX = "m";
 
+    // NumberFormat is expensive to create and not thread safe, so keep one per thread
+    private static final ThreadLocal<NumberFormat> sMFormat = new ThreadLocal<NumberFormat>() {
+        @Override
+        protected NumberFormat initialValue() {
+            return NumberFormat.getNumberInstance();
+        }
+    };
+
+    private static final ThreadLocal<NumberFormat> sKmFormat = new ThreadLocal<NumberFormat>() {
+        @Override
+        protected NumberFormat initialValue() {
+            NumberFormat numberFormat = NumberFormat.getNumberInstance();
+            numberFormat.setMaximumFractionDigits(1);
+            return numberFormat;
+        }
+    };
+
     /**
      * Calculate distance between two LatLng points and format it nicely for
      * display. As this is a sample, it only statically supports metric units.
@@ -62,43 +75,36 @@ public class Utils {
         if (point1 == null || point2 == null) {
             return null;
         }
+        return formatDistance(SphericalUtil.computeDistanceBetween(point1, point2));
+    }
 
-        NumberFormat numberFormat = NumberFormat.getNumberInstance();
-        double distance = Math.round(SphericalUtil.computeDistanceBetween(point1, point2));
+    /**
+     * Format a distance in meters nicely for display, see
+     * {@link #formatDistanceBetween(LatLng, LatLng)}.
+     */
+    public static String formatDistance(double meters) {
+        double distance = Math.round(meters);
 
         // Adjust to KM if M goes over 1000 (see javadoc of method for note
         // on only supporting metric)
         if (distance >= 1000) {
-            numberFormat.setMaximumFractionDigits(1);
-            return numberFormat.format(distance / 1000) + DISTANCE_KM_POSTFIX;
+            return sKmFormat.get().format(distance / 1000) + DISTANCE_KM_POSTFIX;
         }
-        return numberFormat.format(distance) + DISTANCE_M_POSTFIX;
+        return sMFormat.get().format(distance) + DISTANCE_M_POSTFIX;
     }
 
     /**
-     * Store the location in the app preferences.
+     * Store the location, see {@link LocationStore}.
      */
     public static void storeLocation(Context context, LatLng location) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putLong(PREFERENCES_LAT, Double.doubleToRawLongBits(location.latitude));
-        editor.putLong(PREFERENCES_LNG, Double.doubleToRawLongBits(location.longitude));
-        editor.apply();
+        LocationStore.put(context, location);
     }
 
     /**
-     * Fetch the location from app preferences.
+     * Fetch the last stored location, see {@link LocationStore}.
      */
     public static LatLng getLocation(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        Long lat = prefs.getLong(PREFERENCES_LAT, Long.MAX_VALUE);
-        Long lng = prefs.getLong(PREFERENCES_LNG, Long.MAX_VALUE);
-        if (lat != Long.MAX_VALUE && lng != Long.MAX_VALUE) {
-            Double latDbl = Double.longBitsToDouble(lat);
-            Double lngDbl = Double.longBitsToDouble(lng);
-            return new LatLng(latDbl, lngDbl);
-        }
-        return null;
+        return LocationStore.get(context);
     }
 
     /**
@@ -120,11 +126,11 @@ public class Utils {
     }
 
     /**
-     * Convert an asset into a bitmap object synchronously. Only call this
-     * method from a background thread (it should never be called from the
-     * main/UI thread as it blocks).
+     * Read the encoded contents of an asset synchronously, or null if it
+     * can't be read. Only call this method from a background thread (it
+     * should never be called from the main/UI thread as it blocks).
      */
-    public static Bitmap loadBitmapFromAsset(GoogleApiClient googleApiClient, Asset asset) {
+    public static byte[] loadBytesFromAsset(GoogleApiClient googleApiClient, Asset asset) {
         if (asset == null) {
             throw new IllegalArgumentException("Asset must be non-null");
         }
@@ -136,35 +142,75 @@ public class Utils {
             Log.w(TAG, "Requested an unknown Asset.");
             return null;
         }
-        // decode the stream into a bitmap
-        return BitmapFactory.decodeStream(assetInputStream);
+
+        try {
+            return readFully(assetInputStream);
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading Asset: " + e);
+            return null;
+        }
     }
 
     /**
-     * Create a wearable asset from a bitmap.
+     * Decode an encoded image, downsampling it to the smallest size that
+     * still covers reqWidth x reqHeight and reusing memory from the pool
+     * where possible.
      */
-    public static Asset createAssetFromBitmap(Bitmap bitmap) {
-        if (bitmap != null) {
-            final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-            return Asset.createFromBytes(byteStream.toByteArray());
+    public static Bitmap decodeSampledBitmap(byte[] data, int reqWidth, int reqHeight,
+                                             BitmapPool bitmapPool) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+        int inSampleSize = 1;
+        while (options.outWidth / (inSampleSize * 2) >= reqWidth
+                && options.outHeight / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = inSampleSize;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+
+        if (bitmapPool != null) {
+            // RGB_565 uses 2 bytes per pixel
+            int byteCount = ((options.outWidth + inSampleSize - 1) / inSampleSize)
+                    * ((options.outHeight + inSampleSize - 1) / inSampleSize) * 2;
+            options.inBitmap = bitmapPool.get(byteCount);
         }
-        return null;
+
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap could not be reused, decode into a new one
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return outputStream.toByteArray();
     }
 
     /**
-     * Get a list of all wearable nodes that are connected synchronously.
-     * Only call this method from a background thread (it should never be
-     * called from the main/UI thread as it blocks).
+     * Get a list of all wearable nodes that are connected, nearby nodes
+     * first, or null if they couldn't be queried. Only call this method from
+     * a background thread (the first call in a process blocks while the
+     * nodes are queried, see {@link NodeRegistry}).
      */
     public static Collection<String> getNodes(GoogleApiClient client) {
-        Collection<String> results= new HashSet<String>();
-        NodeApi.GetConnectedNodesResult nodes =
-                Wearable.NodeApi.getConnectedNodes(client).await();
-        for (Node node : nodes.getNodes()) {
-            results.add(node.getId());
-        }
-        return results;
+        return NodeRegistry.getInstance().getNodeIds(client);
     }
 
     /**
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.common;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Encodes a photo sized bitmap with each supported format and times it
+ * against the payload size, to help pick the {@link AssetEncoder} settings.
+ * Results are logged, filter logcat by "AssetEncoderBenchmark".
+ */
+public class AssetEncoderBenchmark extends TestCase {
+    private static final String TAG = AssetEncoderBenchmark.class.getSimpleName();
+
+    private static final int WARMUP_ENCODES = 2;
+    private static final int ENCODES = 5;
+
+    private Bitmap mBitmap;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBitmap = createPhoto(Constants.WEAR_IMAGE_SIZE_PARALLAX_WIDTH,
+                Constants.WEAR_IMAGE_SIZE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mBitmap.recycle();
+        super.tearDown();
+    }
+
+    public void testFormats() {
+        time("PNG", new AssetEncoder(Bitmap.CompressFormat.PNG, 100, 0));
+        time("JPEG q" + Constants.ASSET_IMAGE_QUALITY, new AssetEncoder(
+                Bitmap.CompressFormat.JPEG, Constants.ASSET_IMAGE_QUALITY, 0));
+        time("WEBP q" + Constants.ASSET_IMAGE_QUALITY, new AssetEncoder(
+                Bitmap.CompressFormat.WEBP, Constants.ASSET_IMAGE_QUALITY, 0));
+        int defaultSize = time("Default", AssetEncoder.DEFAULT);
+        assertTrue(defaultSize <= Constants.ASSET_IMAGE_MAX_BYTES);
+    }
+
+    /**
+     * Logs the average encode time, and returns the encoded size.
+     */
+    private int time(String name, AssetEncoder encoder) {
+        int size = 0;
+        for (int i = 0; i < WARMUP_ENCODES; i++) {
+            size = encoder.encode(mBitmap).length;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ENCODES; i++) {
+            size = encoder.encode(mBitmap).length;
+        }
+        long nanos = System.nanoTime() - start;
+        assertTrue(size > 0);
+        Log.d(TAG, String.format("%dx%d bitmap, %s: %d bytes in %.1fms",
+                mBitmap.getWidth(), mBitmap.getHeight(), name, size, nanos / 1e6 / ENCODES));
+        return size;
+    }
+
+    /**
+     * A smooth gradient with noise on top, which compresses more like a
+     * photo than a flat or random image does.
+     */
+    private static Bitmap createPhoto(int width, int height) {
+        Random random = new Random(3);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(24);
+                pixels[y * width + x] = Color.rgb(x * 200 / width + noise,
+                        y * 200 / height + noise, (x + y) * 100 / (width + height) + noise);
+            }
+        }
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.common;
+
+import android.util.Log;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Times {@link LocationIndex} queries against a brute force scan of every
+ * location, the way nearest cities and attractions were found before the
+ * index. Results are logged, filter logcat by "LocationIndexBenchmark".
+ */
+public class LocationIndexBenchmark extends TestCase {
+    private static final String TAG = LocationIndexBenchmark.class.getSimpleName();
+
+    private static final int[] POINT_COUNTS = {100, 1000, 20000};
+    private static final int[] NEIGHBOUR_COUNTS = {1, 10, 90};
+    private static final int WARMUP_QUERIES = 200;
+    private static final int QUERIES = 1000;
+
+    public void testQueries() {
+        Random random = new Random(7);
+        for (int pointCount : POINT_COUNTS) {
+            HashMap<Integer, LatLng> locations =
+                    LocationIndexTest.randomLocations(random, pointCount);
+
+            long buildStart = System.nanoTime();
+            LocationIndex<Integer> index = new LocationIndex<>(locations);
+            long buildNanos = System.nanoTime() - buildStart;
+            Log.d(TAG, String.format("%d points: index built in %.2fms",
+                    pointCount, buildNanos / 1e6));
+
+            LatLng[] queries = new LatLng[QUERIES];
+            for (int i = 0; i < QUERIES; i++) {
+                queries[i] = LocationIndexTest.randomLocation(random);
+            }
+
+            for (int count : NEIGHBOUR_COUNTS) {
+                long indexNanos = timeIndex(index, queries, count);
+                // Brute force is slow, so it is timed over fewer queries
+                int bruteForceQueries = Math.max(10, QUERIES * 100 / pointCount);
+                long bruteForceNanos = timeBruteForce(locations, queries, count,
+                        Math.min(QUERIES, bruteForceQueries));
+
+                double indexMicros = indexNanos / 1e3 / QUERIES;
+                double bruteForceMicros =
+                        bruteForceNanos / 1e3 / Math.min(QUERIES, bruteForceQueries);
+                Log.d(TAG, String.format("%d points, %d nearest: index %.1fus/query, "
+                                + "brute force %.1fus/query (%.1fx)", pointCount, count,
+                        indexMicros, bruteForceMicros, bruteForceMicros / indexMicros));
+            }
+        }
+    }
+
+    private static long timeIndex(LocationIndex<Integer> index, LatLng[] queries, int count) {
+        int checksum = 0;
+        for (int i = 0; i < WARMUP_QUERIES; i++) {
+            checksum += index.nearest(queries[i % queries.length], count).size();
+        }
+        long start = System.nanoTime();
+        for (LatLng query : queries) {
+            checksum += index.nearest(query, count).size();
+        }
+        long nanos = System.nanoTime() - start;
+        assertTrue(checksum > 0);
+        return nanos;
+    }
+
+    private static long timeBruteForce(HashMap<Integer, LatLng> locations, LatLng[] queries,
+                                       int count, int queryCount) {
+        int checksum = 0;
+        for (int i = 0; i < Math.min(WARMUP_QUERIES, queryCount); i++) {
+            checksum += LocationIndexTest.bruteForce(locations, queries[i], count).size();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < queryCount; i++) {
+            checksum += LocationIndexTest.bruteForce(locations, queries[i], count).size();
+        }
+        long nanos = System.nanoTime() - start;
+        assertTrue(checksum > 0);
+        return nanos;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.common;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks {@link LocationIndex} queries against a brute force scan of every
+ * location.
+ */
+public class LocationIndexTest extends TestCase {
+
+    private static final int POINT_COUNT = 20000;
+    private static final int QUERY_COUNT = 500;
+
+    // Distances that differ by less than this are treated as a tie, in meters
+    private static final double TOLERANCE = 1e-3;
+
+    private final Random mRandom = new Random(42);
+    private HashMap<Integer, LatLng> mLocations;
+    private LocationIndex<Integer> mIndex;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLocations = randomLocations(mRandom, POINT_COUNT);
+        mIndex = new LocationIndex<>(mLocations);
+    }
+
+    public void testSize() {
+        assertEquals(POINT_COUNT, mIndex.size());
+    }
+
+    public void testEmpty() {
+        LocationIndex<Integer> index = new LocationIndex<>(new HashMap<Integer, LatLng>());
+        assertNull(index.nearest(new LatLng(0, 0)));
+        assertTrue(index.nearest(new LatLng(0, 0), 5).isEmpty());
+    }
+
+    public void testNullLocation() {
+        assertNull(mIndex.nearest(null));
+        assertTrue(mIndex.nearest(null, 5).isEmpty());
+    }
+
+    public void testNearestMatchesBruteForce() {
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            LatLng query = randomLocation(mRandom);
+            assertSameDistances(mLocations, query, bruteForce(mLocations, query, 1),
+                    Collections.singletonList(mIndex.nearest(query)));
+        }
+    }
+
+    public void testKNearestMatchesBruteForce() {
+        int[] counts = {2, 5, 10, 90};
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            LatLng query = randomLocation(mRandom);
+            int count = counts[i % counts.length];
+            assertSameDistances(mLocations, query, bruteForce(mLocations, query, count),
+                    mIndex.nearest(query, count));
+        }
+    }
+
+    public void testAllMatchesBruteForce() {
+        HashMap<Integer, LatLng> locations = randomLocations(mRandom, 200);
+        LocationIndex<Integer> index = new LocationIndex<>(locations);
+        for (int i = 0; i < 20; i++) {
+            LatLng query = randomLocation(mRandom);
+            assertSameDistances(locations, query, bruteForce(locations, query, locations.size()),
+                    index.nearest(query, locations.size() + 10));
+        }
+    }
+
+    public void testNearPolesAndDateLine() {
+        LatLng[] queries = {
+                new LatLng(89.9, 0), new LatLng(-89.9, 120),
+                new LatLng(0, 179.99), new LatLng(10, -179.99)};
+        for (LatLng query : queries) {
+            assertSameDistances(mLocations, query, bruteForce(mLocations, query, 10),
+                    mIndex.nearest(query, 10));
+        }
+    }
+
+    /**
+     * Items are compared by distance rather than identity, as two locations
+     * may be the same distance from the query.
+     */
+    private static void assertSameDistances(HashMap<Integer, LatLng> locations, LatLng query,
+                                            List<Integer> expected, List<Integer> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertNotNull(actual.get(i));
+            double expectedDistance = distance(query, locations.get(expected.get(i)));
+            double actualDistance = distance(query, locations.get(actual.get(i)));
+            assertEquals("Result " + i + " for " + query,
+                    expectedDistance, actualDistance, TOLERANCE);
+        }
+    }
+
+    static List<Integer> bruteForce(final HashMap<Integer, LatLng> locations,
+                                    final LatLng query, int count) {
+        ArrayList<Integer> items = new ArrayList<>(locations.keySet());
+        final HashMap<Integer, Double> distances = new HashMap<>(items.size());
+        for (Integer item : items) {
+            distances.put(item, distance(query, locations.get(item)));
+        }
+        Collections.sort(items, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return Double.compare(distances.get(lhs), distances.get(rhs));
+            }
+        });
+        return items.subList(0, Math.min(count, items.size()));
+    }
+
+    /**
+     * The great-circle distance in meters, using the haversine formula.
+     */
+    static double distance(LatLng from, LatLng to) {
+        double lat1 = Math.toRadians(from.latitude);
+        double lat2 = Math.toRadians(to.latitude);
+        double dLat = lat2 - lat1;
+        double dLng = Math.toRadians(to.longitude - from.longitude);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(lat1) * Math.cos(lat2) * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * 6371009 * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    static HashMap<Integer, LatLng> randomLocations(Random random, int count) {
+        HashMap<Integer, LatLng> locations = new HashMap<>(count);
+        for (int i = 0; i < count; i++) {
+            locations.put(i, randomLocation(random));
+        }
+        return locations;
+    }
+
+    /**
+     * A location picked uniformly over the surface of the sphere.
+     */
+    static LatLng randomLocation(Random random) {
+        double lat = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+        double lng = random.nextDouble() * 360 - 180;
+        return new LatLng(lat, lng);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.common;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.android.gms.maps.model.LatLng;
+
+/**
+ * Times reading the location from {@link LocationStore} against reading it
+ * from the app preferences, the way it was read before the store. Results
+ * are logged, filter logcat by "LocationStoreBenchmark".
+ */
+public class LocationStoreBenchmark extends AndroidTestCase {
+    private static final String TAG = LocationStoreBenchmark.class.getSimpleName();
+
+    private static final int WARMUP_READS = 1000;
+    private static final int READS = 10000;
+
+    public void testReads() throws InterruptedException {
+        LatLng location = new LatLng(37.422, -122.084);
+        LocationStore.put(getContext(), location);
+        // Let the background write reach the preferences
+        Thread.sleep(500);
+        assertEquals(location, LocationStore.read(getContext()));
+
+        int checksum = 0;
+        for (int i = 0; i < WARMUP_READS; i++) {
+            checksum += LocationStore.get(getContext()) != null ? 1 : 0;
+            checksum += LocationStore.read(getContext()) != null ? 1 : 0;
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            checksum += LocationStore.get(getContext()) != null ? 1 : 0;
+        }
+        long storeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            checksum += LocationStore.read(getContext()) != null ? 1 : 0;
+        }
+        long prefsNanos = System.nanoTime() - start;
+
+        assertEquals(2 * (WARMUP_READS + READS), checksum);
+        Log.d(TAG, String.format("Location read: store %dns, preferences %dns (avg of %d)",
+                storeNanos / READS, prefsNanos / READS, READS));
+    }
+}
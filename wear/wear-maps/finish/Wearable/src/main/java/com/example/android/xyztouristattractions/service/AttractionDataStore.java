@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.service;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.xyztouristattractions.common.AttractionSync;
+import com.example.android.xyztouristattractions.common.Constants;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Holds the attraction items synced from the mobile app (see
+ * {@link AttractionSync}). {@link ListenerService} applies each changed or
+ * deleted item as it arrives, so the attraction list can be put back
+ * together from the index without fetching every item from the DataApi.
+ */
+public class AttractionDataStore {
+    private static final String TAG = AttractionDataStore.class.getSimpleName();
+
+    private static final HashMap<String, DataMap> sItems = new HashMap<>();
+
+    private AttractionDataStore() {}
+
+    /**
+     * Returns true if the DataItem path belongs to a single attraction item.
+     */
+    public static boolean isItemPath(String path) {
+        return path != null && path.startsWith(Constants.ATTRACTION_ITEM_PATH + "/");
+    }
+
+    public static synchronized void put(DataItem dataItem) {
+        sItems.put(dataItem.getUri().getPath(),
+                DataMapItem.fromDataItem(dataItem).getDataMap());
+    }
+
+    public static synchronized void remove(String path) {
+        sItems.remove(path);
+    }
+
+    private static synchronized DataMap get(String path) {
+        return sItems.get(path);
+    }
+
+    /**
+     * Resolve the attraction items listed by an index item, in order. Items
+     * that haven't been received yet are fetched from the DataApi, so only
+     * call this method from a background thread.
+     *
+     * @param googleApiClient a connected client with the Wearable API
+     * @param indexUri the Uri of the index DataItem
+     * @param index the index DataMap
+     * @return the attraction items, skipping any that could not be found
+     */
+    public static ArrayList<DataMap> getItems(
+            GoogleApiClient googleApiClient, Uri indexUri, DataMap index) {
+        ArrayList<String> itemPaths = index.getStringArrayList(Constants.EXTRA_ATTRACTION_PATHS);
+        ArrayList<DataMap> items = new ArrayList<>();
+        if (itemPaths == null) {
+            return items;
+        }
+
+        for (String path : itemPaths) {
+            DataMap item = get(path);
+            if (item == null) {
+                DataApi.DataItemResult result = Wearable.DataApi.getDataItem(googleApiClient,
+                        AttractionSync.getItemUri(indexUri, path)).await();
+                if (result.getStatus().isSuccess() && result.getDataItem() != null) {
+                    put(result.getDataItem());
+                    item = get(path);
+                }
+            }
+
+            if (item != null) {
+                items.add(item);
+            } else {
+                Log.w(TAG, "Attraction item not found: " + path);
+            }
+        }
+        return items;
+    }
+}
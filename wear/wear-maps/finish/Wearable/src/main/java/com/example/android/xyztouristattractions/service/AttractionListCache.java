@@ -0,0 +1,246 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.service;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.WindowManager;
+
+import com.example.android.xyztouristattractions.common.ApiClientManager;
+import com.example.android.xyztouristattractions.common.Attraction;
+import com.example.android.xyztouristattractions.common.AttractionSync;
+import com.example.android.xyztouristattractions.common.Constants;
+import com.example.android.xyztouristattractions.common.ImageStore;
+import com.example.android.xyztouristattractions.common.Utils;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataMap;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The most recent attraction list, materialized in the background once
+ * {@link ListenerService} has posted the notification for it, so
+ * {@link com.example.android.xyztouristattractions.ui.AttractionsActivity}
+ * can show it without a round trip to the DataApi. Every image is read into
+ * the {@link ImageStore} ahead of time, and the images of the first rows are
+ * also decoded at screen size.
+ *
+ * The list only lives as long as the process. If it is missing the activity
+ * falls back to loading the attractions itself.
+ */
+public class AttractionListCache {
+    private static final String TAG = AttractionListCache.class.getSimpleName();
+
+    // Rows whose images are decoded ahead of time, enough for the first page
+    private static final int PRELOAD_ROWS = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static Snapshot sSnapshot;
+
+    // Held for a whole update, so updates from the ListenerService and the
+    // activity don't interleave. Readers only take the class lock.
+    private static final Object sUpdateLock = new Object();
+
+    private static final ExecutorService sUpdater = Executors.newSingleThreadExecutor();
+
+    private AttractionListCache() {}
+
+    /**
+     * An attraction list along with the items it was built from.
+     */
+    public static class Snapshot {
+        public final Uri indexUri;
+        public final String version;
+        public final List<Attraction> attractions;
+        public final List<DataMap> items;
+
+        // Attraction name to its decoded image, handed out once
+        private final HashMap<String, Bitmap> mImages;
+
+        private Snapshot(Uri indexUri, String version, List<Attraction> attractions,
+                         List<DataMap> items, HashMap<String, Bitmap> images) {
+            this.indexUri = indexUri;
+            this.version = version;
+            this.attractions = Collections.unmodifiableList(attractions);
+            this.items = Collections.unmodifiableList(items);
+            mImages = images;
+        }
+
+        /**
+         * Take the decoded images, the caller becomes their owner and may
+         * recycle them. Later calls return an empty map.
+         */
+        public synchronized HashMap<String, Bitmap> takeImages() {
+            HashMap<String, Bitmap> images = new HashMap<>(mImages);
+            mImages.clear();
+            return images;
+        }
+    }
+
+    /**
+     * Get the cached attraction list for an index item, or null if it isn't
+     * cached.
+     */
+    public static synchronized Snapshot get(Uri indexUri) {
+        if (sSnapshot != null && sSnapshot.indexUri.equals(indexUri)) {
+            return sSnapshot;
+        }
+        return null;
+    }
+
+    /**
+     * Like {@link #update(Context, GoogleApiClient, Uri, DataMap)}, but on a
+     * worker thread with its own client, so the caller doesn't wait for the
+     * image assets.
+     */
+    public static void updateInBackground(Context context, final Uri indexUri,
+                                          final DataMap index) {
+        final Context appContext = context.getApplicationContext();
+        sUpdater.execute(new Runnable() {
+            @Override
+            public void run() {
+                ApiClientManager apiClientManager = ApiClientManager.getInstance(appContext);
+                GoogleApiClient googleApiClient =
+                        apiClientManager.acquire(ApiClientManager.WEARABLE);
+                if (googleApiClient == null) {
+                    return;
+                }
+                try {
+                    update(appContext, googleApiClient, indexUri, index);
+                } finally {
+                    apiClientManager.release(ApiClientManager.WEARABLE);
+                }
+            }
+        });
+    }
+
+    /**
+     * Build the attraction list of an index item and make it the cached
+     * list. This reads image assets, so only call it from a background
+     * thread.
+     *
+     * @param googleApiClient a connected client with the Wearable API
+     * @param indexUri the Uri of the index DataItem
+     * @param index the index DataMap
+     * @return the new snapshot, or null if the index has no attractions
+     */
+    public static Snapshot update(Context context, GoogleApiClient googleApiClient,
+                                  Uri indexUri, DataMap index) {
+        synchronized (sUpdateLock) {
+            long startTime = SystemClock.elapsedRealtime();
+            ArrayList<DataMap> items =
+                    AttractionDataStore.getItems(googleApiClient, indexUri, index);
+            if (items.isEmpty()) {
+                return null;
+            }
+
+            String version = getVersion(index, items);
+            Snapshot current = get(indexUri);
+            if (current != null && current.version.equals(version)) {
+                return current;
+            }
+
+            Point displaySize = new Point();
+            ((WindowManager) context.getSystemService(Context.WINDOW_SERVICE))
+                    .getDefaultDisplay().getSize(displaySize);
+
+            ImageStore imageStore = ImageStore.getInstance(context);
+            HashMap<String, String> distances = AttractionSync.getDistances(index);
+            ArrayList<Attraction> attractions = new ArrayList<>(items.size());
+            HashMap<String, Bitmap> images = new HashMap<>();
+            for (int i = 0; i < items.size(); i++) {
+                DataMap item = items.get(i);
+                Attraction attraction = AttractionSync.fromDataMap(item, distances);
+                attractions.add(attraction);
+
+                byte[] data = getImage(imageStore, googleApiClient, item);
+                if (data == null) {
+                    continue;
+                }
+                if (i < PRELOAD_ROWS) {
+                    Bitmap bitmap = Utils.decodeSampledBitmap(
+                            data, displaySize.x, displaySize.y, null);
+                    if (bitmap != null) {
+                        images.put(attraction.name, bitmap);
+                    }
+                }
+            }
+
+            Snapshot snapshot = new Snapshot(indexUri, version, attractions, items, images);
+            synchronized (AttractionListCache.class) {
+                sSnapshot = snapshot;
+            }
+            Log.d(TAG, String.format("Cached %d attractions (%d images decoded) in %dms",
+                    attractions.size(), images.size(),
+                    SystemClock.elapsedRealtime() - startTime));
+            return snapshot;
+        }
+    }
+
+    /**
+     * Get the encoded image of an attraction item from the image store,
+     * reading the image asset into the store if it isn't there yet. Reads
+     * assets, so only call it from a background thread.
+     *
+     * @return the image bytes, or null if the asset couldn't be read
+     */
+    public static byte[] getImage(ImageStore imageStore, GoogleApiClient googleApiClient,
+                                  DataMap item) {
+        String name = item.getString(Constants.EXTRA_TITLE);
+        String imageHash = item.getString(Constants.EXTRA_IMAGE_HASH);
+        byte[] data = imageStore.get(name, imageHash, ImageStore.Variant.WEAR_PARALLAX);
+        if (data == null) {
+            data = Utils.loadBytesFromAsset(
+                    googleApiClient, item.getAsset(Constants.EXTRA_IMAGE));
+            if (data != null) {
+                imageStore.put(name, imageHash, ImageStore.Variant.WEAR_PARALLAX, data);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * A hash of the content of a list of items, in order, and the distances
+     * listed by their index, so a cached list can be checked against the
+     * items currently synced.
+     */
+    public static String getVersion(DataMap index, List<DataMap> items) {
+        StringBuilder builder = new StringBuilder();
+        for (DataMap item : items) {
+            builder.append(AttractionSync.hashItem(item)).append('\n');
+        }
+        ArrayList<String> distances =
+                index.getStringArrayList(Constants.EXTRA_ATTRACTION_DISTANCES);
+        if (distances != null) {
+            for (String distance : distances) {
+                builder.append(distance).append('\n');
+            }
+        }
+        return AttractionSync.hash(builder.toString().getBytes(UTF_8));
+    }
+}
@@ -21,27 +21,28 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Intent;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.util.Log;
 
 import com.example.android.xyztouristattractions.R;
+import com.example.android.xyztouristattractions.common.ApiClientManager;
 import com.example.android.xyztouristattractions.common.Constants;
-import com.example.android.xyztouristattractions.common.Utils;
+import com.example.android.xyztouristattractions.common.ImageStore;
+import com.example.android.xyztouristattractions.common.NodeRegistry;
 import com.example.android.xyztouristattractions.ui.AttractionsActivity;
-import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.data.FreezableUtils;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataItem;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.MessageEvent;
-import com.google.android.gms.wearable.Wearable;
+import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.WearableListenerService;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 /**
  * A Wear listener service, used to receive inbound messages from
@@ -56,16 +57,30 @@ public class ListenerService extends WearableListenerService {
 
         final List<DataEvent> events = FreezableUtils.freezeIterable(dataEvents);
 
+        DataMapItem indexItem = null;
         for (DataEvent event : events) {
-            if (event.getType() == DataEvent.TYPE_CHANGED
-                    && event.getDataItem() != null
-                    && Constants.ATTRACTION_PATH.equals(event.getDataItem().getUri().getPath())) {
-
-                DataMapItem dataMapItem = DataMapItem.fromDataItem(event.getDataItem());
-                ArrayList<DataMap> attractionsData =
-                        dataMapItem.getDataMap().getDataMapArrayList(Constants.EXTRA_ATTRACTIONS);
-                showNotification(dataMapItem.getUri(), attractionsData);
+            DataItem dataItem = event.getDataItem();
+            if (dataItem == null) {
+                continue;
             }
+
+            String path = dataItem.getUri().getPath();
+            if (AttractionDataStore.isItemPath(path)) {
+                // Apply each changed attraction as it arrives
+                if (event.getType() == DataEvent.TYPE_CHANGED) {
+                    AttractionDataStore.put(dataItem);
+                } else if (event.getType() == DataEvent.TYPE_DELETED) {
+                    AttractionDataStore.remove(path);
+                }
+            } else if (event.getType() == DataEvent.TYPE_CHANGED
+                    && Constants.ATTRACTION_PATH.equals(path)) {
+                indexItem = DataMapItem.fromDataItem(dataItem);
+            }
+        }
+
+        // Only notify once all the attraction items in this batch are applied
+        if (indexItem != null) {
+            showNotification(indexItem.getUri(), indexItem.getDataMap());
         }
     }
 
@@ -79,17 +94,18 @@ public class ListenerService extends WearableListenerService {
         }
     }
 
-    private void showNotification(Uri attractionsUri, ArrayList<DataMap> attractions) {
-        GoogleApiClient googleApiClient = new GoogleApiClient.Builder(this)
-                .addApi(Wearable.API)
-                .build();
+    private void showNotification(Uri attractionsUri, DataMap index) {
+        ApiClientManager apiClientManager = ApiClientManager.getInstance(this);
+        GoogleApiClient googleApiClient = apiClientManager.acquire(ApiClientManager.WEARABLE);
 
-        ConnectionResult connectionResult = googleApiClient.blockingConnect(
-                Constants.GOOGLE_API_CLIENT_TIMEOUT_S, TimeUnit.SECONDS);
+        if (googleApiClient == null) {
+            return;
+        }
 
-        if (!connectionResult.isSuccess() || !googleApiClient.isConnected()) {
-            Log.e(TAG, String.format(Constants.GOOGLE_API_CLIENT_ERROR_MSG,
-                    connectionResult.getErrorCode()));
+        List<DataMap> items =
+                AttractionDataStore.getItems(googleApiClient, attractionsUri, index);
+        if (items.isEmpty()) {
+            apiClientManager.release(ApiClientManager.WEARABLE);
             return;
         }
 
@@ -99,12 +115,14 @@ public class ListenerService extends WearableListenerService {
         PendingIntent pendingIntent =
                 PendingIntent.getActivity(this, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
 
-        int count = attractions.size();
+        int count = items.size();
 
-        DataMap attraction = attractions.get(0);
+        // Only the first image is needed for the notification background
+        byte[] data = AttractionListCache.getImage(
+                ImageStore.getInstance(this), googleApiClient, items.get(0));
+        Bitmap bitmap = data == null ? null : BitmapFactory.decodeByteArray(data, 0, data.length);
 
-        Bitmap bitmap = Utils.loadBitmapFromAsset(
-                googleApiClient, attraction.getAsset(Constants.EXTRA_IMAGE));
+        apiClientManager.release(ApiClientManager.WEARABLE);
 
         PendingIntent deletePendingIntent = PendingIntent.getService(
                 this, 0, UtilityService.getClearRemoteNotificationsIntent(this), 0);
@@ -126,6 +144,19 @@ public class ListenerService extends WearableListenerService {
                 (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
         notificationManager.notify(Constants.WEAR_NOTIFICATION_ID, notification);
 
-        googleApiClient.disconnect();
+        // Build the rest of the attraction list after notifying, so it is
+        // ready when the user taps explore rather than loaded by
+        // AttractionsActivity
+        AttractionListCache.updateInBackground(this, attractionsUri, index);
+    }
+
+    @Override
+    public void onPeerConnected(Node peer) {
+        NodeRegistry.getInstance().onPeerConnected(peer);
+    }
+
+    @Override
+    public void onPeerDisconnected(Node peer) {
+        NodeRegistry.getInstance().onPeerDisconnected(peer);
     }
 }
@@ -23,16 +23,17 @@ import android.content.Intent;
 import android.util.Log;
 
 import com.example.android.xyztouristattractions.R;
+import com.example.android.xyztouristattractions.common.ApiClientManager;
 import com.example.android.xyztouristattractions.common.Constants;
+import com.example.android.xyztouristattractions.common.MessageDispatcher;
+import com.example.android.xyztouristattractions.common.NodeRegistry;
 import com.example.android.xyztouristattractions.common.Utils;
-import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.CapabilityApi;
-import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.Wearable;
 
-import java.util.Iterator;
-import java.util.Set;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -118,23 +119,18 @@ public class UtilityService extends IntentService {
      * Trigger a message to ask other devices to clear their notifications
      */
     private void clearRemoteNotificationsInternal() {
-        GoogleApiClient googleApiClient = new GoogleApiClient.Builder(this)
-                .addApi(Wearable.API)
-                .build();
-
-        ConnectionResult connectionResult = googleApiClient.blockingConnect(
-                Constants.GOOGLE_API_CLIENT_TIMEOUT_S, TimeUnit.SECONDS);
-
-        if (connectionResult.isSuccess() && googleApiClient.isConnected()) {
-            Iterator<String> itr = Utils.getNodes(googleApiClient).iterator();
-            while (itr.hasNext()) {
-                // Loop through all connected nodes
-                Wearable.MessageApi.sendMessage(
-                        googleApiClient, itr.next(), Constants.CLEAR_NOTIFICATIONS_PATH, null);
+        ApiClientManager apiClientManager = ApiClientManager.getInstance(this);
+        GoogleApiClient googleApiClient = apiClientManager.acquire(ApiClientManager.WEARABLE);
+
+        if (googleApiClient != null) {
+            // Send to all connected nodes
+            Collection<String> nodeIds = Utils.getNodes(googleApiClient);
+            if (nodeIds != null) {
+                MessageDispatcher.getInstance(this).send(
+                        nodeIds, Constants.CLEAR_NOTIFICATIONS_PATH, null);
             }
+            apiClientManager.release(ApiClientManager.WEARABLE);
         }
-
-        googleApiClient.disconnect();
     }
 
     /**
@@ -145,31 +141,27 @@ public class UtilityService extends IntentService {
      * @param extraInfo extra info that varies based on the path being sent
      */
     private void startDeviceActivityInternal(String path, String extraInfo) {
-        GoogleApiClient googleApiClient = new GoogleApiClient.Builder(this)
-                .addApi(Wearable.API)
-                .build();
-
-        ConnectionResult connectionResult = googleApiClient.blockingConnect(
-                Constants.GOOGLE_API_CLIENT_TIMEOUT_S, TimeUnit.SECONDS);
+        ApiClientManager apiClientManager = ApiClientManager.getInstance(this);
+        GoogleApiClient googleApiClient = apiClientManager.acquire(ApiClientManager.WEARABLE);
 
-        if (connectionResult.isSuccess() && googleApiClient.isConnected()) {
+        if (googleApiClient != null) {
             CapabilityApi.GetCapabilityResult result = Wearable.CapabilityApi.getCapability(
                     googleApiClient,
                     getApplicationContext().getString(R.string.show_detail_capability_name),
                     CapabilityApi.FILTER_REACHABLE)
                     .await(GET_CAPABILITY_TIMEOUT_S, TimeUnit.SECONDS);
             if (result.getStatus().isSuccess()) {
-                Set<Node> nodes = result.getCapability().getNodes();
-                for (Node node : nodes) {
-                    Wearable.MessageApi.sendMessage(
-                            googleApiClient, node.getId(), path, extraInfo.getBytes());
-                }
+                // Only one device needs to start the activity, so prefer
+                // the ones directly connected to the watch
+                List<String> nodeIds =
+                        NodeRegistry.preferNearby(result.getCapability().getNodes());
+                MessageDispatcher.getInstance(this).send(nodeIds, path, extraInfo.getBytes());
             } else {
                 Log.e(TAG, "startDeviceActivityInternal() Failed to get capabilities, status: "
                         + result.getStatus().getStatusMessage());
             }
 
-            googleApiClient.disconnect();
+            apiClientManager.release(ApiClientManager.WEARABLE);
         }
     }
 
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.ui;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.wearable.activity.WearableActivity;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.ImageView;
+
+import java.util.ArrayList;
+
+/**
+ * Shows a still, dimmed grayscale snapshot of an activity while it is in
+ * ambient mode, in place of its live content. Nothing behind the snapshot is
+ * drawn until the activity exits ambient mode, so the screen is only redrawn
+ * when a new snapshot is shown.
+ *
+ * It also counts the frames drawn by the window and the snapshots shown,
+ * and logs their rate per minute for each interactive and ambient period.
+ */
+class AmbientRenderer implements ViewTreeObserver.OnDrawListener {
+    private static final String TAG = AmbientRenderer.class.getSimpleName();
+
+    // Ambient snapshots are dimmed to save power and limit burn in
+    private static final float AMBIENT_BRIGHTNESS = 0.6f;
+
+    // Low-bit displays only show a few colors, so grays are pushed to
+    // black or white rather than dithered
+    private static final float LOW_BIT_CONTRAST = 8f;
+
+    private final String mName;
+    private final ImageView mImageView;
+    private final View[] mContentViews;
+    private final ArrayList<View> mHiddenViews = new ArrayList<>();
+    private final Paint mPaint = new Paint();
+    private Bitmap mBitmap;
+    private boolean mAmbient;
+
+    private long mPeriodStart = SystemClock.elapsedRealtime();
+    private int mFrames;
+    private int mRedraws;
+
+    /**
+     * @param name the name used in the logged stats
+     * @param imageView the view that shows the snapshot, drawn over the content
+     * @param contentViews the views hidden while the snapshot is shown
+     */
+    AmbientRenderer(String name, ImageView imageView, View... contentViews) {
+        mName = name;
+        mImageView = imageView;
+        mContentViews = contentViews;
+        imageView.getViewTreeObserver().addOnDrawListener(this);
+    }
+
+    boolean isAmbient() {
+        return mAmbient;
+    }
+
+    void enterAmbient(Bundle ambientDetails) {
+        logPeriod();
+        mAmbient = true;
+
+        boolean lowBit = ambientDetails != null
+                && ambientDetails.getBoolean(WearableActivity.EXTRA_LOWBIT_AMBIENT, false);
+        ColorMatrix matrix = new ColorMatrix();
+        matrix.setSaturation(0);
+        ColorMatrix adjust = new ColorMatrix();
+        if (lowBit) {
+            float scale = LOW_BIT_CONTRAST;
+            float translate = 128 * (1 - LOW_BIT_CONTRAST);
+            adjust.set(new float[] {
+                    scale, 0, 0, 0, translate,
+                    0, scale, 0, 0, translate,
+                    0, 0, scale, 0, translate,
+                    0, 0, 0, 1, 0});
+        } else {
+            adjust.setScale(AMBIENT_BRIGHTNESS, AMBIENT_BRIGHTNESS, AMBIENT_BRIGHTNESS, 1);
+        }
+        matrix.postConcat(adjust);
+        mPaint.setColorFilter(new ColorMatrixColorFilter(matrix));
+        mPaint.setFilterBitmap(!lowBit);
+    }
+
+    /**
+     * Show a snapshot of what a view currently draws. Ignored unless in
+     * ambient mode.
+     */
+    void show(View source) {
+        if (!mAmbient || source.getWidth() == 0 || source.getHeight() == 0) {
+            return;
+        }
+        Canvas canvas = prepareCanvas(source.getWidth(), source.getHeight());
+        canvas.saveLayer(null, mPaint, Canvas.ALL_SAVE_FLAG);
+        source.draw(canvas);
+        canvas.restore();
+        publish();
+    }
+
+    /**
+     * Show a snapshot of a bitmap, such as a map snapshot. Ignored unless in
+     * ambient mode, as the bitmap may arrive after exiting it.
+     */
+    void show(Bitmap source) {
+        if (!mAmbient || source == null) {
+            return;
+        }
+        Canvas canvas = prepareCanvas(source.getWidth(), source.getHeight());
+        canvas.drawBitmap(source, 0, 0, mPaint);
+        publish();
+    }
+
+    void exitAmbient() {
+        logPeriod();
+        mAmbient = false;
+        for (View view : mHiddenViews) {
+            view.setVisibility(View.VISIBLE);
+        }
+        mHiddenViews.clear();
+        mImageView.setVisibility(View.GONE);
+    }
+
+    void destroy() {
+        logPeriod();
+        mImageView.setImageDrawable(null);
+        if (mBitmap != null) {
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+    }
+
+    @Override
+    public void onDraw() {
+        mFrames++;
+    }
+
+    /**
+     * Get a canvas to draw a new snapshot into, reusing the bitmap of the
+     * previous one if it is the same size.
+     */
+    private Canvas prepareCanvas(int width, int height) {
+        if (mBitmap == null || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+            mImageView.setImageDrawable(null);
+            if (mBitmap != null) {
+                mBitmap.recycle();
+            }
+            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+        }
+        mBitmap.eraseColor(Color.BLACK);
+        return new Canvas(mBitmap);
+    }
+
+    private void publish() {
+        mRedraws++;
+        mImageView.setImageBitmap(mBitmap);
+        mImageView.invalidate();
+        mImageView.setVisibility(View.VISIBLE);
+        for (View view : mContentViews) {
+            if (view.getVisibility() == View.VISIBLE) {
+                view.setVisibility(View.INVISIBLE);
+                mHiddenViews.add(view);
+            }
+        }
+    }
+
+    private void logPeriod() {
+        long now = SystemClock.elapsedRealtime();
+        float minutes = (now - mPeriodStart) / 60000f;
+        if (minutes > 0) {
+            Log.d(TAG, String.format("%s %s for %.1fs: %d frames (%.1f/min), "
+                            + "%d redraws (%.1f/min)", mName, mAmbient ? "ambient" : "interactive",
+                    minutes * 60, mFrames, mFrames / minutes, mRedraws, mRedraws / minutes));
+        }
+        mPeriodStart = now;
+        mFrames = 0;
+        mRedraws = 0;
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.xyztouristattractions.ui;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.example.android.xyztouristattractions.common.ApiClientManager;
+import com.example.android.xyztouristattractions.common.Attraction;
+import com.example.android.xyztouristattractions.common.BitmapPool;
+import com.example.android.xyztouristattractions.common.ImageStore;
+import com.example.android.xyztouristattractions.common.Utils;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Asset;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A memory bounded cache of the attraction images shown in
+ * {@link AttractionsGridPagerAdapter}, one drawable per attraction row.
+ *
+ * The cache budget is a fraction of the watch's memory class. Images of
+ * rows far from the current page are dropped, and any image that is
+ * requested but not cached is
+ * decoded again in the background. Encoded images are kept in the
+ * {@link ImageStore}, so they are only read from their Data Layer asset the
+ * first time they are seen.
+ *
+ * A dropped image may still be shown by a page or a row background, so its
+ * memory is only handed to the {@link BitmapPool} once every
+ * {@link #attach(Bitmap)} has been balanced by a {@link #detach(Bitmap)}.
+ */
+class AttractionImageCache {
+    private static final String TAG = AttractionImageCache.class.getSimpleName();
+
+    // Fraction of the app memory class the cache may use
+    private static final int MEMORY_CLASS_DIVISOR = 8;
+
+    // Rows within this distance of the current row keep their images
+    private static final int KEEP_ROWS = 2;
+
+    interface OnImageLoadedListener {
+        void onImageLoaded(String attractionName);
+    }
+
+    private final Resources mResources;
+    private final BitmapPool mBitmapPool;
+    private final int mImageWidth;
+    private final int mImageHeight;
+    private final LruCache<String, BitmapDrawable> mCache;
+    private final ImageStore mImageStore;
+    private final HashMap<String, Asset> mAssets = new HashMap<>();
+    private final HashMap<String, String> mAssetHashes = new HashMap<>();
+    private final HashSet<String> mLoading = new HashSet<>();
+    // Bitmaps being shown to how many views or backgrounds show them
+    private final IdentityHashMap<Bitmap, Integer> mAttached = new IdentityHashMap<>();
+    // Bitmaps dropped from the cache while still attached
+    private final Set<Bitmap> mDropped =
+            Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Context mContext;
+    private OnImageLoadedListener mOnImageLoadedListener;
+
+    private int mHits;
+    private int mMisses;
+    private int mEvictions;
+
+    AttractionImageCache(Context context, BitmapPool bitmapPool,
+                         int imageWidth, int imageHeight) {
+        mContext = context.getApplicationContext();
+        mResources = context.getResources();
+        mBitmapPool = bitmapPool;
+        mImageWidth = imageWidth;
+        mImageHeight = imageHeight;
+        mImageStore = ImageStore.getInstance(context);
+
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_DIVISOR;
+        Log.d(TAG, "Image cache budget: " + maxBytes + " bytes");
+
+        mCache = new LruCache<String, BitmapDrawable>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, BitmapDrawable value) {
+                return value.getBitmap().getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key,
+                                        BitmapDrawable oldValue, BitmapDrawable newValue) {
+                if (evicted) {
+                    synchronized (AttractionImageCache.this) {
+                        mEvictions++;
+                    }
+                }
+            }
+        };
+    }
+
+    void setOnImageLoadedListener(OnImageLoadedListener listener) {
+        mOnImageLoadedListener = listener;
+    }
+
+    /**
+     * Decode the image of an attraction and add it to the cache, remembering
+     * the asset it can be decoded from again if it is dropped. This blocks,
+     * so only call it from a background thread.
+     *
+     * @param assetHash the content hash of the asset, identifying it in the
+     *                  {@link ImageStore}
+     */
+    Bitmap load(GoogleApiClient googleApiClient, String attractionName,
+                String assetHash, Asset asset) {
+        synchronized (this) {
+            mAssets.put(attractionName, asset);
+            mAssetHashes.put(attractionName, assetHash);
+        }
+        Bitmap bitmap = decode(googleApiClient, attractionName, assetHash, asset);
+        if (bitmap != null) {
+            mCache.put(attractionName, new BitmapDrawable(mResources, bitmap));
+        }
+        return bitmap;
+    }
+
+    /**
+     * Add an image that was decoded elsewhere, remembering the asset it can
+     * be decoded from again. The bitmap may be null, in which case the image
+     * is loaded in the background the first time it is requested.
+     */
+    void put(String attractionName, String assetHash, Asset asset, Bitmap bitmap) {
+        synchronized (this) {
+            mAssets.put(attractionName, asset);
+            mAssetHashes.put(attractionName, assetHash);
+        }
+        if (bitmap != null) {
+            mCache.put(attractionName, new BitmapDrawable(mResources, bitmap));
+        }
+    }
+
+    /**
+     * Get the image of an attraction. If it isn't cached, null is returned
+     * and the image is reloaded in the background, after which the
+     * {@link OnImageLoadedListener} is called.
+     */
+    BitmapDrawable get(String attractionName) {
+        BitmapDrawable drawable = mCache.get(attractionName);
+        synchronized (this) {
+            if (drawable != null) {
+                mHits++;
+                return drawable;
+            }
+            mMisses++;
+        }
+        reload(attractionName);
+        return null;
+    }
+
+    /**
+     * Drop the images of rows that are far from the current row. Their
+     * bitmaps are returned to the pool once nothing shows them any more.
+     */
+    void trim(List<Attraction> attractions, int currentRow) {
+        for (int row = 0; row < attractions.size(); row++) {
+            if (Math.abs(row - currentRow) > KEEP_ROWS) {
+                BitmapDrawable drawable = mCache.remove(attractions.get(row).name);
+                if (drawable != null) {
+                    release(drawable.getBitmap());
+                }
+            }
+        }
+    }
+
+    /**
+     * Record that a view or background shows a bitmap from this cache, so
+     * it isn't reused while shown. Only call from the main thread.
+     */
+    void attach(Bitmap bitmap) {
+        Integer count = mAttached.get(bitmap);
+        mAttached.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Record that a view or background no longer shows a bitmap, returning
+     * it to the pool if it was dropped from the cache and nothing else shows
+     * it. Only call from the main thread.
+     */
+    void detach(Bitmap bitmap) {
+        Integer count = mAttached.get(bitmap);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            mAttached.put(bitmap, count - 1);
+            return;
+        }
+        mAttached.remove(bitmap);
+        if (mDropped.remove(bitmap)) {
+            mBitmapPool.put(bitmap);
+        }
+    }
+
+    private void release(Bitmap bitmap) {
+        if (mAttached.containsKey(bitmap)) {
+            mDropped.add(bitmap);
+        } else {
+            mBitmapPool.put(bitmap);
+        }
+    }
+
+    synchronized String getStats() {
+        return String.format("hits=%d misses=%d evictions=%d size=%d/%d bytes",
+                mHits, mMisses, mEvictions, mCache.size(), mCache.maxSize());
+    }
+
+    void shutdown() {
+        mExecutor.shutdownNow();
+        mCache.evictAll();
+    }
+
+    private void reload(final String attractionName) {
+        final Asset asset;
+        final String assetHash;
+        synchronized (this) {
+            asset = mAssets.get(attractionName);
+            assetHash = mAssetHashes.get(attractionName);
+            if (asset == null || !mLoading.add(attractionName)) {
+                return;
+            }
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ApiClientManager apiClientManager = ApiClientManager.getInstance(mContext);
+                GoogleApiClient googleApiClient =
+                        apiClientManager.acquire(ApiClientManager.WEARABLE);
+                Bitmap bitmap = null;
+                if (googleApiClient != null) {
+                    bitmap = decode(googleApiClient, attractionName, assetHash, asset);
+                    apiClientManager.release(ApiClientManager.WEARABLE);
+                }
+                if (bitmap != null) {
+                    mCache.put(attractionName, new BitmapDrawable(mResources, bitmap));
+                }
+
+                synchronized (AttractionImageCache.this) {
+                    mLoading.remove(attractionName);
+                }
+
+                if (bitmap != null) {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (mOnImageLoadedListener != null) {
+                                mOnImageLoadedListener.onImageLoaded(attractionName);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Decode an image from the {@link ImageStore}, or from its asset if it
+     * isn't stored yet.
+     */
+    private Bitmap decode(GoogleApiClient googleApiClient, String attractionName,
+                          String assetHash, Asset asset) {
+        byte[] data = mImageStore.get(
+                attractionName, assetHash, ImageStore.Variant.WEAR_PARALLAX);
+        if (data == null) {
+            data = Utils.loadBytesFromAsset(googleApiClient, asset);
+            if (data == null) {
+                return null;
+            }
+            mImageStore.put(attractionName, assetHash, ImageStore.Variant.WEAR_PARALLAX, data);
+        }
+        return Utils.decodeSampledBitmap(data, mImageWidth, mImageHeight, mBitmapPool);
+    }
+}
@@ -16,13 +16,15 @@
 
 package com.example.android.xyztouristattractions.ui;
 
-import android.app.Activity;
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Point;
 import android.graphics.Rect;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.view.GestureDetectorCompat;
+import android.support.wearable.activity.WearableActivity;
 import android.support.wearable.view.DismissOverlayView;
 import android.support.wearable.view.DotsPageIndicator;
 import android.support.wearable.view.GridViewPager;
@@ -32,24 +34,36 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.WindowInsets;
 import android.widget.FrameLayout;
+import android.widget.ImageView;
 import android.widget.ProgressBar;
 
 import com.example.android.xyztouristattractions.R;
+import com.example.android.xyztouristattractions.common.ApiClientManager;
 import com.example.android.xyztouristattractions.common.Attraction;
+import com.example.android.xyztouristattractions.common.AttractionSync;
+import com.example.android.xyztouristattractions.common.BitmapPool;
 import com.example.android.xyztouristattractions.common.Constants;
+import com.example.android.xyztouristattractions.common.ImageStore;
 import com.example.android.xyztouristattractions.common.Utils;
+import com.example.android.xyztouristattractions.service.AttractionDataStore;
+import com.example.android.xyztouristattractions.service.AttractionListCache;
 import com.example.android.xyztouristattractions.service.UtilityService;
-import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.Wearable;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -57,11 +71,21 @@ import java.util.concurrent.TimeUnit;
  * {@link android.support.wearable.view.GridViewPager}. Each row shows
  * one attraction and each column shows information or actions for that
  * particular attraction.
+ *
+ * In ambient mode a still grayscale snapshot of the current page is shown
+ * instead of the pager.
  */
-public class AttractionsActivity extends Activity
+public class AttractionsActivity extends WearableActivity
         implements AttractionsGridPagerAdapter.OnChromeFadeListener {
     private static final String TAG = AttractionsActivity.class.getSimpleName();
 
+    // Number of threads used to decode attraction images
+    private static final int DECODE_THREADS = 3;
+    private static final long DECODE_TIMEOUT_S = 10;
+
+    // Enough for a couple of full screen RGB_565 images
+    private static final int BITMAP_POOL_SIZE_BYTES = 1024 * 1024;
+
     private GestureDetectorCompat mGestureDetector;
     private DismissOverlayView mDismissOverlayView;
     private GridViewPager mGridViewPager;
@@ -69,6 +93,12 @@ public class AttractionsActivity extends Activity
     private DotsPageIndicator mDotsPageIndicator;
     private ProgressBar mProgressBar;
     private Rect mInsets = new Rect(0, 0, 0, 0);
+    private BitmapPool mBitmapPool;
+    private AttractionImageCache mImageCache;
+    private FrameLayout mTopFrameLayout;
+    private AmbientRenderer mAmbientRenderer;
+    private FetchDataAsyncTask mFetchTask;
+    private boolean mReleaseAfterFetch;
 
     private ArrayList<Attraction> mAttractions = new ArrayList<Attraction>();
 
@@ -77,11 +107,24 @@ public class AttractionsActivity extends Activity
         super.onCreate(savedInstanceState);
 
         setContentView(R.layout.activity_main);
+        setAmbientEnabled();
         final FrameLayout topFrameLayout = (FrameLayout) findViewById(R.id.topFrameLayout);
+        mTopFrameLayout = topFrameLayout;
         mProgressBar = (ProgressBar) findViewById(R.id.progressBar);
         mGridViewPager = (GridViewPager) findViewById(R.id.gridViewPager);
         mDotsPageIndicator = (DotsPageIndicator) findViewById(R.id.dotsPageIndicator);
-        mAdapter = new AttractionsGridPagerAdapter(this, mAttractions);
+        mAmbientRenderer = new AmbientRenderer(TAG,
+                (ImageView) findViewById(R.id.ambientImageView),
+                mProgressBar, mGridViewPager, mDotsPageIndicator);
+
+        // Images are decoded no larger than needed to cover the screen
+        Point displaySize = new Point();
+        getWindowManager().getDefaultDisplay().getSize(displaySize);
+        mBitmapPool = new BitmapPool(BITMAP_POOL_SIZE_BYTES);
+        mImageCache = new AttractionImageCache(
+                this, mBitmapPool, displaySize.x, displaySize.y);
+
+        mAdapter = new AttractionsGridPagerAdapter(this, mAttractions, mImageCache);
         mAdapter.setOnChromeFadeListener(this);
         mGridViewPager.setAdapter(mAdapter);
 
@@ -128,7 +171,14 @@ public class AttractionsActivity extends Activity
 
         Uri attractionsUri = getIntent().getParcelableExtra(Constants.EXTRA_ATTRACTIONS_URI);
         if (attractionsUri != null) {
-            new FetchDataAsyncTask(this).execute(attractionsUri);
+            // Show the list cached by the ListenerService straight away, and
+            // only check it is still current in the background
+            AttractionListCache.Snapshot snapshot = AttractionListCache.get(attractionsUri);
+            if (snapshot != null) {
+                showCachedAttractions(snapshot);
+            }
+            mFetchTask = new FetchDataAsyncTask(this, snapshot == null ? null : snapshot.version);
+            mFetchTask.execute(attractionsUri);
             UtilityService.clearNotification(this);
             UtilityService.clearRemoteNotifications(this);
         } else {
@@ -136,6 +186,53 @@ public class AttractionsActivity extends Activity
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        Log.d(TAG, "Image cache: " + mImageCache.getStats());
+        Log.d(TAG, "Image store: " + ImageStore.getInstance(this).getStats());
+        mAmbientRenderer.destroy();
+        if (mFetchTask != null && mFetchTask.cancel(true)) {
+            // The task may still be loading images into the cache, so the
+            // images are released once it has stopped (see onCancelled)
+            mReleaseAfterFetch = true;
+        } else {
+            releaseImages();
+        }
+    }
+
+    private void releaseImages() {
+        mImageCache.shutdown();
+        mBitmapPool.clear();
+    }
+
+    @Override
+    public void onEnterAmbient(Bundle ambientDetails) {
+        super.onEnterAmbient(ambientDetails);
+        mAdapter.setAmbient(true);
+        mAmbientRenderer.enterAmbient(ambientDetails);
+
+        // The map is drawn separately from the views, so it is snapshot on its own
+        boolean snapshotMap = mGridViewPager.getVisibility() == View.VISIBLE
+                && mAdapter.snapshotMap(mGridViewPager.getCurrentItem().x,
+                        new GoogleMap.SnapshotReadyCallback() {
+                            @Override
+                            public void onSnapshotReady(Bitmap snapshot) {
+                                mAmbientRenderer.show(snapshot);
+                            }
+                        });
+        if (!snapshotMap) {
+            mAmbientRenderer.show(mTopFrameLayout);
+        }
+    }
+
+    @Override
+    public void onExitAmbient() {
+        super.onExitAmbient();
+        mAmbientRenderer.exitAmbient();
+        mAdapter.setAmbient(false);
+    }
+
     @Override
     public boolean dispatchTouchEvent(MotionEvent event) {
         return mGestureDetector.onTouchEvent(event) || super.dispatchTouchEvent(event);
@@ -160,6 +257,27 @@ public class AttractionsActivity extends Activity
                 AttractionsGridPagerAdapter.FADE_OUT_TIME_MS).start();
     }
 
+    private void showCachedAttractions(AttractionListCache.Snapshot snapshot) {
+        HashMap<String, Bitmap> images = snapshot.takeImages();
+        for (DataMap item : snapshot.items) {
+            String name = item.getString(Constants.EXTRA_TITLE);
+            mImageCache.put(name, item.getString(Constants.EXTRA_IMAGE_HASH),
+                    item.getAsset(Constants.EXTRA_IMAGE), images.get(name));
+        }
+        mAttractions.addAll(snapshot.attractions);
+        mAdapter.notifyDataSetChanged();
+        showPager();
+        Log.d(TAG, "Showing " + mAttractions.size() + " cached attractions");
+    }
+
+    private void showPager() {
+        mDotsPageIndicator.setPager(mGridViewPager);
+        mDotsPageIndicator.setOnPageChangeListener(mAdapter);
+        mProgressBar.setVisibility(View.GONE);
+        mDotsPageIndicator.setVisibility(View.VISIBLE);
+        mGridViewPager.setVisibility(View.VISIBLE);
+    }
+
     private class LongPressListener extends GestureDetector.SimpleOnGestureListener {
         @Override
         public void onLongPress(MotionEvent event) {
@@ -169,88 +287,143 @@ public class AttractionsActivity extends Activity
 
     /**
      * A background task to load the attraction data via the Wear DataApi.
-     * This can take a second or two sometimes as several images need to
-     * be loaded.
+     * The images for all attractions are decoded in parallel and each row
+     * is published as soon as it and every row before it are ready, so the
+     * first card shows without waiting for the rest.
+     *
+     * If a cached list is already shown, nothing is published unless the
+     * synced attractions have changed, in which case they replace it.
      */
     private class FetchDataAsyncTask extends
-            AsyncTask<Uri, Void, ArrayList<Attraction>> {
+            AsyncTask<Uri, Attraction, Integer> {
 
         private Context mContext;
+        private String mCachedVersion;
+        private boolean mReplace;
 
-        public FetchDataAsyncTask(Context context) {
+        public FetchDataAsyncTask(Context context, String cachedVersion) {
             mContext = context;
+            mCachedVersion = cachedVersion;
+            mReplace = cachedVersion != null;
         }
 
         @Override
-        protected ArrayList<Attraction> doInBackground(Uri... params) {
-            mAttractions.clear();
-
+        protected Integer doInBackground(Uri... params) {
             // Connect to Play Services and the Wearable API
-            GoogleApiClient googleApiClient = new GoogleApiClient.Builder(mContext)
-                    .addApi(Wearable.API)
-                    .build();
+            ApiClientManager apiClientManager = ApiClientManager.getInstance(mContext);
+            final GoogleApiClient googleApiClient =
+                    apiClientManager.acquire(ApiClientManager.WEARABLE);
 
-            ConnectionResult connectionResult = googleApiClient.blockingConnect(
-                    Constants.GOOGLE_API_CLIENT_TIMEOUT_S, TimeUnit.SECONDS);
-
-            if (!connectionResult.isSuccess() || !googleApiClient.isConnected()) {
-                Log.e(TAG, String.format(Constants.GOOGLE_API_CLIENT_ERROR_MSG,
-                        connectionResult.getErrorCode()));
-                return null;
+            if (googleApiClient == null) {
+                return 0;
             }
 
+            int count = 0;
             Uri attractionsUri = params[0];
             DataApi.DataItemResult dataItemResult =
                     Wearable.DataApi.getDataItem(googleApiClient, attractionsUri).await();
 
             if (dataItemResult.getStatus().isSuccess() && dataItemResult.getDataItem() != null) {
-                DataMapItem dataMapItem = DataMapItem.fromDataItem(dataItemResult.getDataItem());
+                DataMap index = DataMapItem.fromDataItem(dataItemResult.getDataItem()).getDataMap();
                 List<DataMap> attractionsData =
-                        dataMapItem.getDataMap().getDataMapArrayList(Constants.EXTRA_ATTRACTIONS);
-
-                // Loop through each attraction, adding them to the list
-                Iterator<DataMap> itr = attractionsData.iterator();
-                while (itr.hasNext()) {
-                    DataMap attractionData = itr.next();
-
-                    Attraction attraction = new Attraction();
-                    attraction.name = attractionData.getString(Constants.EXTRA_TITLE);
-                    attraction.description =
-                            attractionData.getString(Constants.EXTRA_DESCRIPTION);
-                    attraction.city = attractionData.get(Constants.EXTRA_CITY);
-                    attraction.distance =
-                            attractionData.getString(Constants.EXTRA_DISTANCE);
-                    attraction.location = new LatLng(
-                            attractionData.getDouble(Constants.EXTRA_LOCATION_LAT),
-                            attractionData.getDouble(Constants.EXTRA_LOCATION_LNG));
-                    attraction.image = Utils.loadBitmapFromAsset(googleApiClient,
-                            attractionData.getAsset(Constants.EXTRA_IMAGE));
-                    attraction.secondaryImage = Utils.loadBitmapFromAsset(googleApiClient,
-                            attractionData.getAsset(Constants.EXTRA_IMAGE_SECONDARY));
-
-                    mAttractions.add(attraction);
+                        AttractionDataStore.getItems(googleApiClient, attractionsUri, index);
+                if (AttractionListCache.getVersion(index, attractionsData)
+                        .equals(mCachedVersion)) {
+                    Log.d(TAG, "Cached attractions are current");
+                    apiClientManager.release(ApiClientManager.WEARABLE);
+                    return attractionsData.size();
+                }
+
+                // Start decoding every attraction's images at once
+                final HashMap<String, String> distances = AttractionSync.getDistances(index);
+                ExecutorService executor = Executors.newFixedThreadPool(DECODE_THREADS);
+                List<Future<Attraction>> futures = new ArrayList<>(attractionsData.size());
+                for (final DataMap attractionData : attractionsData) {
+                    futures.add(executor.submit(new Callable<Attraction>() {
+                        @Override
+                        public Attraction call() {
+                            // The image is held by the cache rather than the
+                            // attraction, so it can be dropped and reloaded later.
+                            // The secondary image isn't shown on the watch.
+                            Attraction attraction =
+                                    AttractionSync.fromDataMap(attractionData, distances);
+                            mImageCache.load(googleApiClient, attraction.name,
+                                    attractionData.getString(Constants.EXTRA_IMAGE_HASH),
+                                    attractionData.getAsset(Constants.EXTRA_IMAGE));
+                            return attraction;
+                        }
+                    }));
+                }
+
+                // Publish rows in order as they complete
+                try {
+                    for (Future<Attraction> future : futures) {
+                        publishProgress(future.get());
+                        count++;
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    Log.e(TAG, "Error decoding attraction images: " + e);
+                } finally {
+                    executor.shutdownNow();
+                    awaitTermination(executor);
                 }
             }
 
-            googleApiClient.disconnect();
+            apiClientManager.release(ApiClientManager.WEARABLE);
 
-            return mAttractions;
+            return count;
         }
 
         @Override
-        protected void onPostExecute(ArrayList<Attraction> result) {
-            if (result != null && result.size() > 0) {
-                // Update UI based on the result of the background processing
-                mAdapter.setData(result);
-                mAdapter.notifyDataSetChanged();
-                mDotsPageIndicator.setPager(mGridViewPager);
-                mDotsPageIndicator.setOnPageChangeListener(mAdapter);
-                mProgressBar.setVisibility(View.GONE);
-                mDotsPageIndicator.setVisibility(View.VISIBLE);
-                mGridViewPager.setVisibility(View.VISIBLE);
-            } else {
+        protected void onProgressUpdate(Attraction... attractions) {
+            if (mReplace) {
+                // The cached list is out of date, the pager is already shown
+                Log.d(TAG, "Replacing cached attractions");
+                mAttractions.clear();
+                mReplace = false;
+            } else if (mAttractions.isEmpty()) {
+                // Show the pager as soon as there is something to show
+                showPager();
+            }
+            Collections.addAll(mAttractions, attractions);
+            mAdapter.notifyDataSetChanged();
+        }
+
+        @Override
+        protected void onPostExecute(Integer count) {
+            if (mAttractions.isEmpty()) {
                 finish();
             }
         }
+
+        @Override
+        protected void onCancelled(Integer count) {
+            // Runs once doInBackground has returned, or if it never started
+            if (mReleaseAfterFetch) {
+                releaseImages();
+            }
+        }
+
+        /**
+         * Wait for the decode threads to stop, as they write to the image
+         * cache which is shut down once this task is done.
+         */
+        private void awaitTermination(ExecutorService executor) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    if (!executor.awaitTermination(DECODE_TIMEOUT_S, TimeUnit.SECONDS)) {
+                        Log.w(TAG, "Timed out waiting for image decoding to stop");
+                    }
+                    break;
+                } catch (InterruptedException e) {
+                    // Cancelling interrupts this thread, keep waiting
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 }
@@ -18,17 +18,22 @@ package com.example.android.xyztouristattractions.ui;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
 import android.support.wearable.activity.ConfirmationActivity;
 import android.support.wearable.view.CardFrame;
 import android.support.wearable.view.CardScrollView;
 import android.support.wearable.view.GridPagerAdapter;
 import android.support.wearable.view.GridViewPager;
 import android.support.wearable.view.WatchViewStub;
+import android.view.Choreographer;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -46,16 +51,21 @@ import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.MapFragment;
 import com.google.android.gms.maps.OnMapReadyCallback;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * This adapter backs the main GridViewPager component found in
  * {@link com.example.android.xyztouristattractions.ui.AttractionsActivity}.
  */
 public class AttractionsGridPagerAdapter extends GridPagerAdapter
-        implements GridViewPager.OnPageChangeListener {
+        implements GridViewPager.OnPageChangeListener,
+        AttractionImageCache.OnImageLoadedListener {
+    // Log.isLoggable() rejects tags longer than 23 characters
+    private static final String TAG = "AttractionsPagerAdapter";
 
     public static final int FADE_IN_TIME_MS = 250;
     public static final int FADE_OUT_TIME_MS = 500;
@@ -66,22 +76,45 @@ public class AttractionsGridPagerAdapter extends GridPagerAdapter
     private static final int PAGER_DESCRIPTION_COLUMN = 2;
     private static final int PAGER_NAVIGATE_ACTION_COLUMN = 3;
     private static final int PAGER_OPEN_ACTION_COLUMN = 4;
+    private static final int MAX_RECYCLED_VIEWS_PER_COLUMN = 3;
+    private static final int INFLATION_LOG_WINDOW_MS = 1000;
+    private static final int MAP_UPDATE_DELAY_MS = 150;
 
     private Activity mActivity;
     private LayoutInflater mLayoutInflater;
     private ArrayList<Attraction> mAttractions;
     private FrameLayout mMapLayout;
     private GoogleMap mMap;
+    private Attraction mMapAttraction;
+    private HashMap<String, Marker> mMarkers = new HashMap<>();
+    private Marker mVisibleMarker;
+    private boolean mMapUpdatePending;
+    private Handler mHandler = new Handler();
+    private int mScrollState = GridViewPager.SCROLL_STATE_IDLE;
+    private boolean mAmbient;
+    private FrameTrace mFrameTrace = new FrameTrace();
     private Rect mInsets = new Rect();
     private DelayedHide mDelayedHide = new DelayedHide();
     private OnChromeFadeListener mOnChromeFadeListener;
-
-    public AttractionsGridPagerAdapter(
-            Activity activity, ArrayList<Attraction> attractions) {
+    private AttractionImageCache mImageCache;
+    private SparseArray<ImageView> mImageViews = new SparseArray<>();
+    // Row to the cached bitmap last handed to the pager as its background
+    private SparseArray<Bitmap> mBackgrounds = new SparseArray<>();
+    private int mCurrentRow;
+    private ColorDrawable mBlackBackground = new ColorDrawable(0);
+    private RecycledViewPool mRecycledViews = new RecycledViewPool();
+    private int mInflations;
+    private int mInflationsInWindow;
+    private long mInflationWindowStart;
+
+    public AttractionsGridPagerAdapter(Activity activity,
+            ArrayList<Attraction> attractions, AttractionImageCache imageCache) {
         super();
         mActivity = activity;
         mLayoutInflater = LayoutInflater.from(activity);
         mAttractions = attractions;
+        mImageCache = imageCache;
+        mImageCache.setOnImageLoadedListener(this);
     }
 
     public void setData(ArrayList<Attraction> attractions) {
@@ -92,6 +125,42 @@ public class AttractionsGridPagerAdapter extends GridPagerAdapter
         mInsets = insets;
     }
 
+    /**
+     * Pause the chrome fade timers, map camera updates and location updates
+     * while the activity is in ambient mode. A camera update that was held
+     * back is applied once it exits.
+     */
+    public void setAmbient(boolean ambient) {
+        mAmbient = ambient;
+        if (ambient) {
+            mDelayedHide.pause();
+            mHandler.removeCallbacks(mMapUpdate);
+            mFrameTrace.stop();
+        } else {
+            mDelayedHide.show();
+            if (mMapUpdatePending) {
+                scheduleMapUpdate();
+            }
+        }
+        if (mMap != null) {
+            mMap.setMyLocationEnabled(!ambient);
+        }
+    }
+
+    /**
+     * Take a snapshot of the map if it is shown on a page, as the map isn't
+     * drawn along with the rest of the views.
+     *
+     * @return false if there is no map on the page
+     */
+    public boolean snapshotMap(int column, GoogleMap.SnapshotReadyCallback callback) {
+        if (column != PAGER_MAP_COLUMN || mMap == null) {
+            return false;
+        }
+        mMap.snapshot(callback);
+        return true;
+    }
+
     @Override
     public int getRowCount() {
         return (mAttractions != null && mAttractions.size() > 0) ? mAttractions.size() : 1;
@@ -110,32 +179,36 @@ public class AttractionsGridPagerAdapter extends GridPagerAdapter
                 case PAGER_PRIMARY_IMAGE_COLUMN:
                     // Two pages of full screen images, one with the attraction name
                     // and one with the distance to the attraction
-                    final View view = mLayoutInflater.inflate(
-                            R.layout.gridpager_fullscreen_image, container, false);
+                    View view = mRecycledViews.get(column);
+                    if (view == null) {
+                        view = inflate(R.layout.gridpager_fullscreen_image, container);
+                        view.setOnClickListener(mDelayedHide);
+
+                        TextView textView = (TextView) view.findViewById(R.id.textView);
+                        FrameLayout.LayoutParams params =
+                                (FrameLayout.LayoutParams) textView.getLayoutParams();
+                        params.bottomMargin = params.bottomMargin + mInsets.bottom;
+                        params.leftMargin = mInsets.left;
+                        params.rightMargin = mInsets.right;
+                        textView.setLayoutParams(params);
+                    }
+
                     ImageView imageView = (ImageView) view.findViewById(R.id.imageView);
                     TextView textView = (TextView) view.findViewById(R.id.textView);
-                    FrameLayout overlayTextLayout =
-                            (FrameLayout) view.findViewById(R.id.overlaytext);
-
+                    View overlayTextLayout = view.findViewById(R.id.overlaytext);
+                    overlayTextLayout.setAlpha(1);
                     mDelayedHide.add(overlayTextLayout);
-                    view.setOnClickListener(mDelayedHide);
 
-                    FrameLayout.LayoutParams params =
-                            (FrameLayout.LayoutParams) textView.getLayoutParams();
-                    params.bottomMargin = params.bottomMargin + mInsets.bottom;
-                    params.leftMargin = mInsets.left;
-                    params.rightMargin = mInsets.right;
-                    textView.setLayoutParams(params);
-
-                    imageView.setImageBitmap(attraction.image);
+                    // If the image was dropped from the cache it is set once reloaded
+                    setImage(imageView, mImageCache.get(attraction.name));
+                    mImageViews.put(row, imageView);
                     textView.setText(attraction.name);
                     container.addView(view);
                     return view;
                 case PAGER_MAP_COLUMN:
                     // The map page
                     if (mMapLayout == null) {
-                        mMapLayout = (FrameLayout) mLayoutInflater.inflate(
-                                R.layout.gridpager_map, container, false);
+                        mMapLayout = (FrameLayout) inflate(R.layout.gridpager_map, container);
                         container.addView(mMapLayout);
                     }
 
@@ -144,7 +217,8 @@ public class AttractionsGridPagerAdapter extends GridPagerAdapter
 
                     // And ensure we provide padding for round devices
                     TextView overlayText = (TextView) mMapLayout.findViewById(R.id.overlayText);
-                    params = (FrameLayout.LayoutParams) overlayText.getLayoutParams();
+                    FrameLayout.LayoutParams params =
+                            (FrameLayout.LayoutParams) overlayText.getLayoutParams();
                     params.bottomMargin = params.bottomMargin + mInsets.bottom;
                     params.leftMargin = mInsets.left;
                     params.rightMargin = mInsets.right;
@@ -162,58 +236,40 @@ public class AttractionsGridPagerAdapter extends GridPagerAdapter
                     return mMapLayout;
                 case PAGER_DESCRIPTION_COLUMN:
                     // The description card page
-                    CardScrollView cardScrollView = (CardScrollView) mLayoutInflater.inflate(
-                                R.layout.gridpager_card, container, false);
+                    CardScrollView cardScrollView = (CardScrollView) mRecycledViews.get(column);
+                    if (cardScrollView == null) {
+                        cardScrollView = (CardScrollView) inflate(
+                                R.layout.gridpager_card, container);
+                        cardScrollView.setCardGravity(Gravity.BOTTOM);
+                        cardScrollView.setExpansionEnabled(true);
+                        cardScrollView.setExpansionDirection(CardFrame.EXPAND_DOWN);
+                        cardScrollView.setExpansionFactor(10);
+                    }
                     TextView descTextView = (TextView) cardScrollView.findViewById(R.id.textView);
                     descTextView.setText(attraction.description);
-                    cardScrollView.setCardGravity(Gravity.BOTTOM);
-                    cardScrollView.setExpansionEnabled(true);
-                    cardScrollView.setExpansionDirection(CardFrame.EXPAND_DOWN);
-                    cardScrollView.setExpansionFactor(10);
+                    cardScrollView.scrollTo(0, 0);
                     container.addView(cardScrollView);
                     return cardScrollView;
                 case PAGER_NAVIGATE_ACTION_COLUMN:
                     // The navigate action
-                    final WatchViewStub navStub = (WatchViewStub) mLayoutInflater.inflate(
-                            R.layout.gridpager_action, container, false);
-
-                    navStub.setOnClickListener(getStartActionClickListener(
-                            attraction, Constants.START_NAVIGATION_PATH,
-                            ConfirmationActivity.SUCCESS_ANIMATION));
-
-                    navStub.setOnLayoutInflatedListener(
-                            new WatchViewStub.OnLayoutInflatedListener() {
-                        @Override
-                        public void onLayoutInflated(WatchViewStub watchViewStub) {
-                            ImageView imageView = (ImageView) navStub.findViewById(R.id.imageView);
-                            imageView.setImageResource(R.drawable.ic_full_directions_walking);
-                            TextView textView = (TextView) navStub.findViewById(R.id.textView);
-                            textView.setText(R.string.action_navigate);
-                        }
-                    });
-
+                    WatchViewStub navStub = (WatchViewStub) mRecycledViews.get(column);
+                    if (navStub == null) {
+                        navStub = createActionStub(container, Constants.START_NAVIGATION_PATH,
+                                ConfirmationActivity.SUCCESS_ANIMATION,
+                                R.drawable.ic_full_directions_walking, R.string.action_navigate);
+                    }
+                    navStub.setTag(attraction);
                     container.addView(navStub);
                     return navStub;
                 case PAGER_OPEN_ACTION_COLUMN:
                     // The "open on device" action
-                    final WatchViewStub openStub = (WatchViewStub) mLayoutInflater.inflate(
-                            R.layout.gridpager_action, container, false);
-
-                    openStub.setOnClickListener(getStartActionClickListener(
-                            attraction, Constants.START_ATTRACTION_PATH,
-                            ConfirmationActivity.OPEN_ON_PHONE_ANIMATION));
-
-                    openStub.setOnLayoutInflatedListener(
-                            new WatchViewStub.OnLayoutInflatedListener() {
-                        @Override
-                        public void onLayoutInflated(WatchViewStub watchViewStub) {
-                            ImageView imageView = (ImageView) openStub.findViewById(R.id.imageView);
-                            imageView.setImageResource(R.drawable.ic_full_open_on_device);
-                            TextView textView = (TextView) openStub.findViewById(R.id.textView);
-                            textView.setText(R.string.action_open);
-                        }
-                    });
-
+                    WatchViewStub openStub = (WatchViewStub) mRecycledViews.get(column);
+                    if (openStub == null) {
+                        openStub = createActionStub(container, Constants.START_ATTRACTION_PATH,
+                                ConfirmationActivity.OPEN_ON_PHONE_ANIMATION,
+                                R.drawable.ic_full_open_on_device, R.string.action_open);
+                    }
+                    openStub.setTag(attraction);
                     container.addView(openStub);
                     return openStub;
             }
@@ -221,22 +277,95 @@ public class AttractionsGridPagerAdapter extends GridPagerAdapter
         return new View(mActivity);
     }
 
+    /**
+     * Inflate an action page. The icon, text and click listener are set up once
+     * here; when the page is recycled only the attraction in its tag changes.
+     */
+    private WatchViewStub createActionStub(ViewGroup container, String pathName,
+            int confirmAnimationType, final int iconResId, final int textResId) {
+        WatchViewStub stub = (WatchViewStub) inflate(R.layout.gridpager_action, container);
+        stub.setOnClickListener(getStartActionClickListener(pathName, confirmAnimationType));
+        stub.setOnLayoutInflatedListener(new WatchViewStub.OnLayoutInflatedListener() {
+            @Override
+            public void onLayoutInflated(WatchViewStub watchViewStub) {
+                ImageView imageView = (ImageView) watchViewStub.findViewById(R.id.imageView);
+                imageView.setImageResource(iconResId);
+                TextView textView = (TextView) watchViewStub.findViewById(R.id.textView);
+                textView.setText(textResId);
+            }
+        });
+        return stub;
+    }
+
+    /**
+     * Inflate a page layout, keeping count of inflations so the effect of
+     * view recycling can be seen in the log.
+     */
+    private View inflate(int layoutResId, ViewGroup container) {
+        long now = SystemClock.elapsedRealtime();
+        if (now - mInflationWindowStart >= INFLATION_LOG_WINDOW_MS) {
+            if (mInflationsInWindow > 0) {
+                Log.d(TAG, String.format("%.1f inflations/s (%d inflated, %d recycled in total)",
+                        mInflationsInWindow * 1000f / (now - mInflationWindowStart),
+                        mInflations, mRecycledViews.getReuseCount()));
+            }
+            mInflationWindowStart = now;
+            mInflationsInWindow = 0;
+        }
+        mInflations++;
+        mInflationsInWindow++;
+        return mLayoutInflater.inflate(layoutResId, container, false);
+    }
+
+    @Override
+    public Drawable getBackgroundForRow(int row) {
+        // One cached drawable per row, shared by all of its pages
+        if (mAttractions.size() > row) {
+            BitmapDrawable image = mImageCache.get(mAttractions.get(row).name);
+            if (image != null) {
+                setBackground(row, image.getBitmap());
+                return image;
+            }
+        }
+        setBackground(row, null);
+        return super.getBackgroundForRow(row);
+    }
+
     @Override
     public Drawable getBackgroundForPage(int row, int column) {
         if (column == 0) {
-            return new ColorDrawable(0); // Empty black drawable
-        }
-        if (mAttractions.size() > 0 && mAttractions.get(row).image != null) {
-            return new BitmapDrawable(mActivity.getResources(), mAttractions.get(row).image);
+            return mBlackBackground; // Empty black drawable
         }
         return super.getBackgroundForPage(row, column);
     }
 
+    @Override
+    public void onImageLoaded(String attractionName) {
+        for (int row = 0; row < mAttractions.size(); row++) {
+            if (mAttractions.get(row).name.equals(attractionName)) {
+                BitmapDrawable image = mImageCache.get(attractionName);
+                ImageView imageView = mImageViews.get(row);
+                if (imageView != null && image != null) {
+                    setImage(imageView, image);
+                }
+                notifyRowBackgroundChanged(row);
+                return;
+            }
+        }
+    }
+
     @Override
     protected void destroyItem(ViewGroup viewGroup, int row, int column, Object object) {
         mDelayedHide.remove((View) object);
+        if (column == PAGER_PRIMARY_IMAGE_COLUMN) {
+            mDelayedHide.remove(((View) object).findViewById(R.id.overlaytext));
+            mImageViews.remove(row);
+            // Recycled pages don't hold on to their image
+            setImage((ImageView) ((View) object).findViewById(R.id.imageView), null);
+        }
         if (column != PAGER_MAP_COLUMN) {
             viewGroup.removeView((View)object);
+            mRecycledViews.put(column, (View) object);
         }
     }
 
@@ -250,11 +379,90 @@ public class AttractionsGridPagerAdapter extends GridPagerAdapter
                                int posOffsetPixelsX, int posOffsetPixelsY) {}
 
     @Override
-    public void onPageSelected(int row, int col) {}
+    public void onPageSelected(int row, int col) {
+        mCurrentRow = row;
+
+        // Free the images of rows the user has moved away from
+        mImageCache.trim(mAttractions, row);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Image cache: " + mImageCache.getStats());
+        }
+
+        // The map page is shared by all rows, so make sure it shows this row
+        if (col == PAGER_MAP_COLUMN && mMap != null && row < mAttractions.size()) {
+            updateMapLocation(mAttractions.get(row));
+        }
+    }
 
     @Override
     public void onPageScrollStateChanged(int state) {
         mDelayedHide.show();
+
+        if (mScrollState == GridViewPager.SCROLL_STATE_IDLE
+                && state != GridViewPager.SCROLL_STATE_IDLE) {
+            // Enable with "adb shell setprop log.tag.AttractionsPagerAdapter DEBUG"
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                mFrameTrace.start();
+            }
+        } else if (state == GridViewPager.SCROLL_STATE_IDLE) {
+            mFrameTrace.stop();
+            releaseBackgrounds();
+            // Apply the map update that was held back while the pager settled
+            if (mMap != null && mMapAttraction != null) {
+                scheduleMapUpdate();
+            }
+        }
+        mScrollState = state;
+    }
+
+    /**
+     * Show a cached image in a page, keeping the cache up to date with which
+     * bitmaps are shown.
+     */
+    private void setImage(ImageView imageView, BitmapDrawable image) {
+        Drawable previous = imageView.getDrawable();
+        if (previous instanceof BitmapDrawable) {
+            mImageCache.detach(((BitmapDrawable) previous).getBitmap());
+        }
+        Bitmap bitmap = image != null ? image.getBitmap() : null;
+        if (bitmap != null) {
+            mImageCache.attach(bitmap);
+        }
+        imageView.setImageBitmap(bitmap);
+    }
+
+    /**
+     * Remember the bitmap handed to the pager as a row background, in place
+     * of the one it was handed before.
+     */
+    private void setBackground(int row, Bitmap bitmap) {
+        Bitmap previous = mBackgrounds.get(row);
+        if (previous == bitmap) {
+            return;
+        }
+        if (bitmap != null) {
+            mImageCache.attach(bitmap);
+            mBackgrounds.put(row, bitmap);
+        } else {
+            mBackgrounds.remove(row);
+        }
+        if (previous != null) {
+            mImageCache.detach(previous);
+        }
+    }
+
+    /**
+     * Once settled the pager only draws the backgrounds of the current row
+     * and its neighbours, so the bitmaps of other rows may be reused.
+     */
+    private void releaseBackgrounds() {
+        for (int i = mBackgrounds.size() - 1; i >= 0; i--) {
+            if (Math.abs(mBackgrounds.keyAt(i) - mCurrentRow) > 1) {
+                Bitmap bitmap = mBackgrounds.valueAt(i);
+                mBackgrounds.removeAt(i);
+                mImageCache.detach(bitmap);
+            }
+        }
     }
 
     private OnMapReadyCallback getMapReadyCallback(final Attraction attraction) {
@@ -262,12 +470,12 @@ public class AttractionsGridPagerAdapter extends GridPagerAdapter
             @Override
             public void onMapReady(GoogleMap googleMap) {
                 mMap = googleMap;
-                mMap.setMyLocationEnabled(true);
+                mMap.setMyLocationEnabled(!mAmbient);
                 mMap.setOnMapClickListener(new GoogleMap.OnMapClickListener() {
                     @Override
                     public void onMapClick(LatLng latLng) {
                         Intent intent = new Intent(mActivity, MapActivity.class);
-                        intent.putExtra(Constants.EXTRA_ATTRACTION, attraction);
+                        intent.putExtra(Constants.EXTRA_ATTRACTION, mMapAttraction);
                         mActivity.startActivity(intent);
                     }
                 });
@@ -276,15 +484,55 @@ public class AttractionsGridPagerAdapter extends GridPagerAdapter
         };
     }
 
+    /**
+     * Show an attraction on the map page. The camera isn't moved until the
+     * pager has settled, so swiping quickly through rows only moves it once.
+     */
     private void updateMapLocation(Attraction attraction) {
-        mMap.clear();
-        mMap.moveCamera(
-                CameraUpdateFactory.newLatLng(attraction.location));
-        mMap.addMarker(new MarkerOptions()
-                .position(attraction.location)
-                .title(attraction.name));
+        mMapAttraction = attraction;
+        if (mScrollState == GridViewPager.SCROLL_STATE_IDLE) {
+            scheduleMapUpdate();
+        }
+    }
+
+    private void scheduleMapUpdate() {
+        mMapUpdatePending = true;
+        mHandler.removeCallbacks(mMapUpdate);
+        if (!mAmbient) {
+            mHandler.postDelayed(mMapUpdate, MAP_UPDATE_DELAY_MS);
+        }
     }
 
+    /**
+     * Moves the camera to the current attraction and shows only its marker.
+     * Each attraction's marker is added once and then reused.
+     */
+    private Runnable mMapUpdate = new Runnable() {
+        @Override
+        public void run() {
+            mMapUpdatePending = false;
+            Attraction attraction = mMapAttraction;
+            Marker marker = mMarkers.get(attraction.name);
+            if (marker == null) {
+                marker = mMap.addMarker(new MarkerOptions()
+                        .position(attraction.location)
+                        .title(attraction.name));
+                mMarkers.put(attraction.name, marker);
+            } else if (!marker.getPosition().equals(attraction.location)) {
+                marker.setPosition(attraction.location);
+            }
+
+            if (mVisibleMarker != marker) {
+                if (mVisibleMarker != null) {
+                    mVisibleMarker.setVisible(false);
+                }
+                marker.setVisible(true);
+                mVisibleMarker = marker;
+            }
+            mMap.moveCamera(CameraUpdateFactory.newLatLng(attraction.location));
+        }
+    };
+
     /**
      * Use the Wear Message API to execute an action. Clears local and remote notifications and
      * also runs a confirmation animation before finishing the Wear activity.
@@ -307,13 +555,14 @@ public class AttractionsGridPagerAdapter extends GridPagerAdapter
 
     /**
      * Helper method to generate the OnClickListener for the attraction actions.
+     * The attraction is read from the tag of the clicked view.
      */
-    private View.OnClickListener getStartActionClickListener(final Attraction attraction,
+    private View.OnClickListener getStartActionClickListener(
             final String pathName, final int confirmAnimationType) {
         View.OnClickListener clickListener = new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                startAction(attraction, pathName, confirmAnimationType);
+                startAction((Attraction) v.getTag(), pathName, confirmAnimationType);
             }
         };
         return clickListener;
@@ -328,6 +577,97 @@ public class AttractionsGridPagerAdapter extends GridPagerAdapter
         abstract void onChromeFadeOut();
     }
 
+    /**
+     * Holds the pages removed from the pager, by column, so they can be rebound
+     * to another attraction instead of inflating a new layout.
+     */
+    private static class RecycledViewPool {
+        private SparseArray<ArrayList<View>> mViews = new SparseArray<>();
+        private int mReuseCount;
+
+        View get(int column) {
+            ArrayList<View> views = mViews.get(column);
+            if (views == null || views.isEmpty()) {
+                return null;
+            }
+            mReuseCount++;
+            return views.remove(views.size() - 1);
+        }
+
+        void put(int column, View view) {
+            ArrayList<View> views = mViews.get(column);
+            if (views == null) {
+                views = new ArrayList<>(MAX_RECYCLED_VIEWS_PER_COLUMN);
+                mViews.put(column, views);
+            }
+            if (views.size() < MAX_RECYCLED_VIEWS_PER_COLUMN && !views.contains(view)) {
+                views.add(view);
+            }
+        }
+
+        int getReuseCount() {
+            return mReuseCount;
+        }
+    }
+
+    /**
+     * Records the time between frames while the pager is moving and logs a
+     * summary once it settles, to spot dropped frames during fast swipes.
+     */
+    private static class FrameTrace implements Choreographer.FrameCallback {
+        // A frame taking longer than this missed at least one vsync
+        private static final long JANK_THRESHOLD_NANOS = 17 * 1000 * 1000;
+
+        private boolean mRunning;
+        private long mLastFrameNanos;
+        private int mFrames;
+        private int mJankyFrames;
+        private long mMaxFrameNanos;
+        private long mTotalFrameNanos;
+
+        void start() {
+            if (!mRunning) {
+                mRunning = true;
+                mLastFrameNanos = 0;
+                mFrames = 0;
+                mJankyFrames = 0;
+                mMaxFrameNanos = 0;
+                mTotalFrameNanos = 0;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+        void stop() {
+            if (mRunning) {
+                mRunning = false;
+                Choreographer.getInstance().removeFrameCallback(this);
+                if (mFrames > 0) {
+                    Log.d(TAG, String.format("Swipe: %d frames, avg %.1fms, max %.1fms, %d janky",
+                            mFrames, mTotalFrameNanos / 1e6 / mFrames, mMaxFrameNanos / 1e6,
+                            mJankyFrames));
+                }
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) {
+                return;
+            }
+            if (mLastFrameNanos != 0) {
+                long frameNanos = frameTimeNanos - mLastFrameNanos;
+                mFrames++;
+                mTotalFrameNanos += frameNanos;
+                mMaxFrameNanos = Math.max(mMaxFrameNanos, frameNanos);
+                if (frameNanos > JANK_THRESHOLD_NANOS) {
+                    mJankyFrames++;
+                }
+            }
+            mLastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
     /**
      * Helper class to fade out views based on a delay and fade them back in if needed as well.
      */
@@ -381,7 +721,22 @@ public class AttractionsGridPagerAdapter extends GridPagerAdapter
 
         void delayedHide() {
             mHideHandler.removeCallbacks(mHideRunnable);
-            mHideHandler.postDelayed(mHideRunnable, FADE_OUT_DELAY_MS);
+            if (!mAmbient) {
+                mHideHandler.postDelayed(mHideRunnable, FADE_OUT_DELAY_MS);
+            }
+        }
+
+        /**
+         * Stop the timer and any running fades, leaving the views as they
+         * are until {@link #show()} is called.
+         */
+        void pause() {
+            mHideHandler.removeCallbacks(mHideRunnable);
+            for (View view : hideViews) {
+                if (view != null) {
+                    view.animate().cancel();
+                }
+            }
         }
 
         @Override
@@ -16,9 +16,11 @@
 
 package com.example.android.xyztouristattractions.ui;
 
-import android.app.Activity;
+import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.support.wearable.activity.WearableActivity;
 import android.support.wearable.view.DismissOverlayView;
+import android.widget.ImageView;
 
 import com.example.android.xyztouristattractions.R;
 import com.example.android.xyztouristattractions.common.Attraction;
@@ -32,10 +34,12 @@ import com.google.android.gms.maps.model.MarkerOptions;
 
 /**
  * Sample that shows how to set up a basic Google Map on Android Wear. This Activity is started from
- * AttractionsActivity when the user taps the lite mode map.
+ * AttractionsActivity when the user taps the lite mode map. In ambient mode a grayscale snapshot
+ * of the map is shown instead of the live map.
  */
-public class MapActivity extends Activity implements OnMapReadyCallback,
+public class MapActivity extends WearableActivity implements OnMapReadyCallback,
         GoogleMap.OnMapLongClickListener {
+    private static final String TAG = MapActivity.class.getSimpleName();
 
     /**
      * Overlay that shows a short help text when first launched. It also provides an option to
@@ -54,11 +58,17 @@ public class MapActivity extends Activity implements OnMapReadyCallback,
      */
     private Attraction mAttraction;
 
+    /**
+     * Shows the map snapshot in ambient mode.
+     */
+    private AmbientRenderer mAmbientRenderer;
+
     public void onCreate(Bundle savedState) {
         super.onCreate(savedState);
 
         // Set the layout. It only contains a SupportMapFragment and a DismissOverlay.
         setContentView(R.layout.activity_map);
+        setAmbientEnabled();
 
         // Obtain the Attraction that we need to display.
         mAttraction = getIntent().getParcelableExtra(Constants.EXTRA_ATTRACTION);
@@ -72,6 +82,37 @@ public class MapActivity extends Activity implements OnMapReadyCallback,
         MapFragment mapFragment = (MapFragment) getFragmentManager()
                         .findFragmentById(R.id.map);
         mapFragment.getMapAsync(this);
+
+        mAmbientRenderer = new AmbientRenderer(TAG,
+                (ImageView) findViewById(R.id.ambientImageView), mapFragment.getView());
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mAmbientRenderer.destroy();
+    }
+
+    @Override
+    public void onEnterAmbient(Bundle ambientDetails) {
+        super.onEnterAmbient(ambientDetails);
+        mAmbientRenderer.enterAmbient(ambientDetails);
+
+        if (mMap != null) {
+            // Show a still of the map in place of the live map.
+            mMap.snapshot(new GoogleMap.SnapshotReadyCallback() {
+                @Override
+                public void onSnapshotReady(Bitmap snapshot) {
+                    mAmbientRenderer.show(snapshot);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onExitAmbient() {
+        super.onExitAmbient();
+        mAmbientRenderer.exitAmbient();
     }
 
     @Override